@@ -0,0 +1,415 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import joptsimple.util.PathConverter;
+import joptsimple.util.PathProperties;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Arrays.asList;
+
+/**
+ * A local HTTP maven, serving a directory tree, for benchmarking and testing network bound code offline.
+ * <p>
+ * Supports GET and HEAD, single byte {@code Range} requests, and conditional requests through
+ * {@code ETag}/{@code If-None-Match} and {@code Last-Modified}/{@code If-Modified-Since}.
+ * Every response can be delayed, throttled, or replaced by an error.
+ * <p>
+ * The rewriter is pointed at it with {@code -Dir.mirror_maven=<url>}, which fetches everything
+ * requested from the Forge and Mojang mavens from it, or with {@code -Dir.forced_maven=<url>}.
+ */
+public class LocalMavenServer implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Path root;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Random random = new Random(0);
+
+    private volatile long latencyMillis;
+    private volatile long bytesPerSecond;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    /**
+     * Starts serving the given directory on the loopback address.
+     *
+     * @param root The root directory, laid out as a maven repository.
+     * @param port The port, {@code 0} for any free port.
+     */
+    public LocalMavenServer(Path root, int port) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "LocalMavenServer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * @return The base url, ending with a slash.
+     */
+    public String getUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort() + "/";
+    }
+
+    /**
+     * Delays every response by the given duration.
+     */
+    public LocalMavenServer setLatency(Duration latency) {
+        latencyMillis = latency.toMillis();
+        return this;
+    }
+
+    /**
+     * Caps the transfer rate of every response body, {@code 0} for unlimited.
+     */
+    public LocalMavenServer setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Answers the given fraction of requests with an error, instead of the file.
+     *
+     * @param errorRate   The fraction of failing requests, from {@code 0} to {@code 1}.
+     * @param errorStatus The status code of failing requests.
+     */
+    public LocalMavenServer setErrors(double errorRate, int errorStatus) {
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+        return this;
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    public int getErrorCount() {
+        return errors.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            String method = exchange.getRequestMethod();
+            boolean head = method.equals("HEAD");
+            if (!head && !method.equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (errorRate > 0 && nextDouble() < errorRate) {
+                errors.incrementAndGet();
+                exchange.sendResponseHeaders(errorStatus, -1);
+                return;
+            }
+
+            Path file = resolve(exchange.getRequestURI());
+            if (file == null || !Files.isRegularFile(file)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            long size = Files.size(file);
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"";
+
+            Headers request = exchange.getRequestHeaders();
+            Headers response = exchange.getResponseHeaders();
+            response.set("ETag", etag);
+            response.set("Last-Modified", formatDate(modified));
+            response.set("Accept-Ranges", "bytes");
+            response.set("Content-Type", contentType(file));
+
+            if (notModified(request, etag, modified)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            long start = 0;
+            long end = size - 1;
+            int status = 200;
+            String range = request.getFirst("Range");
+            if (range != null) {
+                long[] parsed = parseRange(range, size);
+                if (parsed == null) {
+                    response.set("Content-Range", "bytes */" + size);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                start = parsed[0];
+                end = parsed[1];
+                status = 206;
+                response.set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+            }
+            long length = end - start + 1;
+
+            if (head) {
+                response.set("Content-Length", Long.toString(length));
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            // A length of 0 means chunked to HttpServer, -1 means no body.
+            exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+            if (length > 0) {
+                send(file, start, length, exchange.getResponseBody());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Failed to serve {}", exchange.getRequestURI(), e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void send(Path file, long start, long length, OutputStream out) throws IOException, InterruptedException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long begin = System.nanoTime();
+        long sent = 0;
+        try (InputStream is = Files.newInputStream(file)) {
+            long skipped = 0;
+            while (skipped < start) {
+                long n = is.skip(start - skipped);
+                if (n <= 0) throw new IOException("Unexpected end of " + file);
+                skipped += n;
+            }
+            while (sent < length) {
+                int len = is.read(buffer, 0, (int) Math.min(buffer.length, length - sent));
+                if (len == -1) throw new IOException("Unexpected end of " + file);
+                out.write(buffer, 0, len);
+                sent += len;
+                bytesSent.addAndGet(len);
+
+                long bps = bytesPerSecond;
+                if (bps > 0) {
+                    // Sleep until the elapsed time matches what the sent bytes would take at the cap.
+                    long due = begin + TimeUnit.SECONDS.toNanos(sent) / bps;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private Path resolve(URI uri) {
+        String path = uri.getPath();
+        if (path == null) return null;
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        Path file = root.resolve(path).normalize();
+        // Refuse anything outside the root, e.g. through '..'.
+        return file.startsWith(root) ? file : null;
+    }
+
+    private static boolean notModified(Headers request, String etag, long modified) {
+        String ifNoneMatch = request.getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) return true;
+            }
+            // If-Modified-Since is ignored when If-None-Match is present.
+            return false;
+        }
+        String ifModifiedSince = request.getFirst("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                // HTTP dates only have second precision.
+                return modified / 1000 <= since / 1000;
+            } catch (DateTimeParseException ignored) {
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a single range, {@code bytes=start-end}, {@code bytes=start-} or {@code bytes=-suffix}.
+     *
+     * @return The inclusive start and end, or {@code null} if the range is not satisfiable.
+     */
+    @Nullable
+    static long[] parseRange(String range, long size) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1) return null;
+
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) return null;
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) return null;
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            }
+            if (start < 0 || start >= size || end < start) return null;
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String formatDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
+
+    private static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".xml") || name.endsWith(".pom")) return "text/xml";
+        if (name.endsWith(".json")) return "application/json";
+        if (name.endsWith(".md5") || name.endsWith(".sha1") || name.endsWith(".sha256") || name.endsWith(".sha512")) return "text/plain";
+        if (name.endsWith(".jar")) return "application/java-archive";
+        return "application/octet-stream";
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    public static void main(String[] args) throws Throwable {
+        System.exit(mainI(args));
+    }
+
+    /**
+     * Serves a directory until interrupted.
+     */
+    public static int mainI(String[] args) throws Throwable {
+        OptionParser parser = new OptionParser();
+
+        OptionSpec<Void> helpOpt = parser.acceptsAll(asList("h", "help"), "Prints this help.").forHelp();
+
+        OptionSpec<Path> rootOpt = parser.acceptsAll(asList("r", "root"), "The directory to serve.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter(PathProperties.DIRECTORY_EXISTING));
+        OptionSpec<Integer> portOpt = parser.acceptsAll(asList("port"), "The port to listen on, 0 for any free port.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(0);
+        OptionSpec<Long> latencyOpt = parser.acceptsAll(asList("latency"), "The milliseconds every response is delayed by.")
+                .withRequiredArg()
+                .ofType(Long.class)
+                .defaultsTo(0L);
+        OptionSpec<Long> bandwidthOpt = parser.acceptsAll(asList("bandwidth"), "The maximum KB per second of each response, 0 for unlimited.")
+                .withRequiredArg()
+                .ofType(Long.class)
+                .defaultsTo(0L);
+        OptionSpec<Double> errorRateOpt = parser.acceptsAll(asList("error-rate"), "The fraction of requests, from 0 to 1, answered with --error-status.")
+                .withRequiredArg()
+                .ofType(Double.class)
+                .defaultsTo(0D);
+        OptionSpec<Integer> errorStatusOpt = parser.acceptsAll(asList("error-status"), "The status of injected errors.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(503);
+
+        OptionSet optSet = parser.parse(args);
+        if (optSet.has(helpOpt)) {
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+
+        if (!optSet.has(rootOpt)) {
+            LOGGER.error("Expected --root argument.");
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+
+        LocalMavenServer server = new LocalMavenServer(optSet.valueOf(rootOpt), optSet.valueOf(portOpt))
+                .setLatency(Duration.ofMillis(optSet.valueOf(latencyOpt)))
+                .setBandwidth(optSet.valueOf(bandwidthOpt) * 1024)
+                .setErrors(optSet.valueOf(errorRateOpt), optSet.valueOf(errorStatusOpt));
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            LOGGER.info("Served {} requests, {} errors, {} bytes.", server.getRequestCount(), server.getErrorCount(), server.getBytesSent());
+            server.close();
+            stopped.countDown();
+        }));
+        LOGGER.info("Serving {} at {}", optSet.valueOf(rootOpt), server.getUrl());
+        stopped.await();
+        return 0;
+    }
+}
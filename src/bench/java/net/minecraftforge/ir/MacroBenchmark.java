@@ -0,0 +1,469 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import joptsimple.util.PathConverter;
+import net.covers1624.quack.util.JavaPathUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Benchmarks full rewriter passes over a generated repository.
+ * <p>
+ * Each run of a scenario is a fresh JVM, invoking {@link InstallerRewriter#mainI} with the scenario's flags against a
+ * repository written by {@link RepoGenerator}, with a {@link LocalMavenServer} standing in for the Forge and Mojang mavens.
+ * Runs record wall and CPU time, throughput, per installer latency percentiles, peak heap and RSS and bytes written.
+ * The peak heap is sampled every {@value #HEAP_SAMPLE_INTERVAL_MS}ms, the peak of each heap pool is reported alongside it.
+ * Results are written as json, and compared against the results of a previous build with {@code --baseline}.
+ */
+public class MacroBenchmark {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final long HEAP_SAMPLE_INTERVAL_MS = 10;
+
+    // The fixed flag combinations, '--sign' additionally takes the keystore arguments given to the benchmark.
+    private static final Map<String, List<String>> SCENARIOS = new LinkedHashMap<>();
+
+    static {
+        SCENARIOS.put("dry", asList("--dry", "--maven-url"));
+        SCENARIOS.put("maven-url", asList("--maven-url"));
+        SCENARIOS.put("update-installer", asList("--maven-url", "--update-installer"));
+        SCENARIOS.put("sign", asList("--maven-url", "--sign"));
+    }
+
+    public static void main(String[] args) throws Throwable {
+        if (args.length > 0 && args[0].equals("child")) {
+            System.exit(child(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        System.exit(mainI(args));
+    }
+
+    public static int mainI(String[] args) throws Throwable {
+        OptionParser parser = new OptionParser();
+
+        OptionSpec<Void> helpOpt = parser.acceptsAll(asList("h", "help"), "Prints this help.").forHelp();
+
+        OptionSpec<Path> workOpt = parser.acceptsAll(asList("work"), "The working directory, holding the generated repository and the output of each run.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter())
+                .defaultsTo(Paths.get("bench"));
+        OptionSpec<Integer> generateOpt = parser.acceptsAll(asList("generate"), "The number of installers to generate, if the working directory has no repository yet.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(1000);
+        OptionSpec<String> scenarioOpt = parser.acceptsAll(asList("scenario"), "The scenarios to run, of " + SCENARIOS.keySet() + ". May be repeated. Defaults to all, 'sign' only with --keyStore.")
+                .withRequiredArg();
+        OptionSpec<Integer> iterationsOpt = parser.acceptsAll(asList("iterations"), "The number of runs of each scenario.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(3);
+        OptionSpec<Void> warmCacheOpt = parser.acceptsAll(asList("warm-cache"), "Share the download cache between runs, rather than starting each run cold.");
+        OptionSpec<String> jvmArgsOpt = parser.acceptsAll(asList("jvm-arg"), "An argument for the benchmarked JVMs, e.g. '-Xmx2G'. May be repeated.")
+                .withRequiredArg();
+        OptionSpec<String> rewriterArgsOpt = parser.acceptsAll(asList("rewriter-arg"), "An additional argument for every run of the rewriter, e.g. '--threads=4'. May be repeated.")
+                .withRequiredArg();
+        OptionSpec<Long> latencyOpt = parser.acceptsAll(asList("latency"), "The milliseconds the local maven delays every response by.")
+                .withRequiredArg()
+                .ofType(Long.class)
+                .defaultsTo(0L);
+        OptionSpec<Long> bandwidthOpt = parser.acceptsAll(asList("bandwidth"), "The maximum KB per second of each local maven response, 0 for unlimited.")
+                .withRequiredArg()
+                .ofType(Long.class)
+                .defaultsTo(0L);
+        OptionSpec<Path> keyStoreOpt = parser.acceptsAll(asList("keyStore"), "The keystore for the 'sign' scenario.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+        OptionSpec<String> keyAliasOpt = parser.acceptsAll(asList("keyAlias"), "The key alias for the 'sign' scenario.")
+                .withRequiredArg();
+        OptionSpec<String> keyStorePassOpt = parser.acceptsAll(asList("keyStorePass"), "The keystore password for the 'sign' scenario.")
+                .withRequiredArg();
+        OptionSpec<String> keyPassOpt = parser.acceptsAll(asList("keyPass"), "The key password for the 'sign' scenario.")
+                .withRequiredArg();
+        OptionSpec<Path> outputOpt = parser.acceptsAll(asList("o", "output"), "The file to write results to.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter())
+                .defaultsTo(Paths.get("bench-results.json"));
+        OptionSpec<Path> baselineOpt = parser.acceptsAll(asList("baseline"), "The results of a previous build to compare against.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+
+        OptionSet optSet = parser.parse(args);
+        if (optSet.has(helpOpt)) {
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+
+        List<String> scenarios = new ArrayList<>(optSet.valuesOf(scenarioOpt));
+        if (scenarios.isEmpty()) {
+            scenarios.addAll(SCENARIOS.keySet());
+            if (!optSet.has(keyStoreOpt)) {
+                scenarios.remove("sign");
+            }
+        }
+        for (String scenario : scenarios) {
+            if (!SCENARIOS.containsKey(scenario)) {
+                LOGGER.error("Unknown scenario '{}', expected one of {}", scenario, SCENARIOS.keySet());
+                return -1;
+            }
+        }
+        List<String> signArgs = new ArrayList<>();
+        if (scenarios.contains("sign")) {
+            if (!optSet.has(keyStoreOpt) || !optSet.has(keyAliasOpt) || !optSet.has(keyStorePassOpt) || !optSet.has(keyPassOpt)) {
+                LOGGER.error("The 'sign' scenario requires --keyStore, --keyAlias, --keyStorePass and --keyPass.");
+                return -1;
+            }
+            signArgs.addAll(asList(
+                    "--keyStore", optSet.valueOf(keyStoreOpt).toAbsolutePath().toString(),
+                    "--keyAlias", optSet.valueOf(keyAliasOpt),
+                    "--keyStorePass", optSet.valueOf(keyStorePassOpt),
+                    "--keyPass", optSet.valueOf(keyPassOpt)
+            ));
+        }
+
+        Path work = optSet.valueOf(workOpt).toAbsolutePath();
+        Path generated = work.resolve("generated");
+        if (Files.notExists(generated.resolve("repo"))) {
+            LOGGER.info("Generating {} installers into {}", optSet.valueOf(generateOpt), generated);
+            new RepoGenerator(generated, 0, 200, 4096, 0.5, 0.5).generate(optSet.valueOf(generateOpt), 0.4, 50);
+        }
+
+        JsonObject results = new JsonObject();
+        results.addProperty("timestamp", Instant.now().toString());
+        results.addProperty("java", System.getProperty("java.version"));
+        results.addProperty("installers", countInstallers(generated.resolve("repo")));
+        results.addProperty("warm_cache", optSet.has(warmCacheOpt));
+        results.addProperty("latency_ms", optSet.valueOf(latencyOpt));
+        results.addProperty("bandwidth_kb", optSet.valueOf(bandwidthOpt));
+        JsonArray jvmArgs = new JsonArray();
+        optSet.valuesOf(jvmArgsOpt).forEach(jvmArgs::add);
+        results.add("jvm_args", jvmArgs);
+
+        JsonObject scenarioResults = new JsonObject();
+        try (LocalMavenServer server = new LocalMavenServer(generated.resolve("maven"), 0)) {
+            server.setLatency(Duration.ofMillis(optSet.valueOf(latencyOpt)));
+            server.setBandwidth(optSet.valueOf(bandwidthOpt) * 1024);
+
+            int runIdx = 0;
+            for (String scenario : scenarios) {
+                List<String> rewriterArgs = new ArrayList<>(SCENARIOS.get(scenario));
+                if (scenario.equals("sign")) {
+                    rewriterArgs.addAll(signArgs);
+                }
+                rewriterArgs.addAll(optSet.valuesOf(rewriterArgsOpt));
+
+                JsonArray runs = new JsonArray();
+                for (int i = 0; i < optSet.valueOf(iterationsOpt); i++) {
+                    Path runDir = work.resolve("runs").resolve("run-" + runIdx++);
+                    if (Files.exists(runDir)) {
+                        Utils.delete(runDir);
+                    }
+                    Files.createDirectories(runDir);
+                    Path cacheRoot = optSet.has(warmCacheOpt) ? work.resolve("shared") : runDir;
+                    Files.createDirectories(cacheRoot);
+
+                    LOGGER.info("Running scenario '{}' {}/{}..", scenario, i + 1, optSet.valueOf(iterationsOpt));
+                    int requests = server.getRequestCount();
+                    long served = server.getBytesSent();
+                    JsonObject run = run(generated, runDir, cacheRoot, server.getUrl(), optSet.valuesOf(jvmArgsOpt), rewriterArgs);
+                    run.addProperty("maven_requests", server.getRequestCount() - requests);
+                    run.addProperty("maven_bytes", server.getBytesSent() - served);
+                    runs.add(run);
+                    LOGGER.info("  {}ms, {} installers/s, p50 {}ms, p99 {}ms, peak RSS {}MB, {}MB written.",
+                            run.get("wall_ms").getAsLong(),
+                            run.get("installers_per_second").getAsDouble(),
+                            run.getAsJsonObject("latency_ms").get("p50").getAsLong(),
+                            run.getAsJsonObject("latency_ms").get("p99").getAsLong(),
+                            run.get("peak_rss_bytes").getAsLong() / 1024 / 1024,
+                            run.get("bytes_written").getAsLong() / 1024 / 1024);
+                    if (run.get("exit_code").getAsInt() != 0) {
+                        LOGGER.error("Scenario '{}' exited with {}, see {}", scenario, run.get("exit_code").getAsInt(), runDir);
+                    }
+                    // Outputs are only kept for failed runs.
+                    if (run.get("exit_code").getAsInt() == 0 && Files.exists(runDir.resolve("output"))) {
+                        Utils.delete(runDir.resolve("output"));
+                    }
+                }
+                JsonObject result = new JsonObject();
+                JsonArray argsJson = new JsonArray();
+                SCENARIOS.get(scenario).forEach(argsJson::add);
+                optSet.valuesOf(rewriterArgsOpt).forEach(argsJson::add);
+                result.add("args", argsJson);
+                result.add("median", median(runs));
+                result.add("runs", runs);
+                scenarioResults.add(scenario, result);
+            }
+        }
+        results.add("scenarios", scenarioResults);
+
+        Path output = optSet.valueOf(outputOpt);
+        try (Writer writer = Files.newBufferedWriter(Utils.makeParents(output))) {
+            Utils.GSON.toJson(results, writer);
+        }
+        LOGGER.info("Wrote results to {}", output);
+
+        if (optSet.has(baselineOpt)) {
+            JsonObject baseline;
+            try (Reader reader = Files.newBufferedReader(optSet.valueOf(baselineOpt))) {
+                baseline = Utils.GSON.fromJson(reader, JsonObject.class);
+            }
+            compare(baseline, results);
+        }
+        return 0;
+    }
+
+    private static JsonObject run(Path generated, Path runDir, Path cacheRoot, String mavenUrl, List<String> jvmArgs, List<String> rewriterArgs) throws IOException {
+        Path resultFile = runDir.resolve("result.json");
+        Path metricsFile = runDir.resolve("metrics.json");
+        Path log = runDir.resolve("rewriter.log");
+
+        List<String> command = new ArrayList<>();
+        command.add(JavaPathUtils.getJavaExecutable().toAbsolutePath().toString());
+        command.addAll(jvmArgs);
+        command.add("-Dir.mirror_maven=" + mavenUrl);
+        command.add("-Dir.version_manifest=" + generated.resolve("mojang/version_manifest.json").toUri());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MacroBenchmark.class.getName());
+        command.add("child");
+        command.add(resultFile.toString());
+        command.add("--repo");
+        command.add(generated.resolve("repo").toString());
+        command.add("--output");
+        command.add(runDir.resolve("output").toString());
+        command.add("--metrics");
+        command.add(metricsFile.toString());
+        command.addAll(rewriterArgs);
+
+        int exit;
+        try (Writer writer = Files.newBufferedWriter(log)) {
+            exit = Utils.runWaitFor(builder -> {
+                builder.command(command);
+                // The rewriter's cache lives in its working directory.
+                builder.directory(cacheRoot.toFile());
+            }, line -> {
+                try {
+                    writer.write(line);
+                    writer.write('\n');
+                } catch (IOException ignored) {
+                }
+            });
+        }
+
+        JsonObject run = new JsonObject();
+        run.addProperty("exit_code", exit);
+        JsonObject child = Files.exists(resultFile) ? read(resultFile) : new JsonObject();
+        Metrics metrics = Files.exists(metricsFile) ? Metrics.read(metricsFile) : new Metrics();
+
+        long wall = Utils.getAsLong(child, "wall_ms", 0);
+        long installers = metrics.get("versions.processed.v1") + metrics.get("versions.processed.v2");
+        run.addProperty("wall_ms", wall);
+        run.addProperty("cpu_ms", Utils.getAsLong(child, "cpu_ms", -1));
+        run.addProperty("gc_ms", Utils.getAsLong(child, "gc_ms", 0));
+        run.addProperty("installers", installers);
+        run.addProperty("installers_per_second", wall == 0 ? 0 : Math.round(installers * 10000D / wall) / 10D);
+        run.add("latency_ms", metrics.getHistogram("time.process_installer_ms").toJson());
+        run.getAsJsonObject("latency_ms").remove("buckets");
+        run.addProperty("peak_heap_bytes", Utils.getAsLong(child, "peak_heap_bytes", 0));
+        if (child.has("peak_heap_pool_bytes")) {
+            run.add("peak_heap_pool_bytes", child.get("peak_heap_pool_bytes"));
+        }
+        run.addProperty("peak_rss_bytes", Utils.getAsLong(child, "peak_rss_bytes", -1));
+        run.addProperty("bytes_read", metrics.get("installers.bytes_read"));
+        run.addProperty("bytes_written", metrics.get("installers.bytes_written"));
+        run.addProperty("output_bytes", size(runDir.resolve("output")));
+        return run;
+    }
+
+    /**
+     * Runs the rewriter in this JVM, then records what only the JVM itself can measure.
+     */
+    private static int child(String[] args) throws Throwable {
+        Path resultFile = Paths.get(args[0]);
+        String[] rewriterArgs = Arrays.copyOfRange(args, 1, args.length);
+
+        // Heap pools peak at different times, so their peaks do not add up to the heap's, it is sampled instead.
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        AtomicLong peakHeap = new AtomicLong();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Heap-Sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max), 0, HEAP_SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        int exit;
+        try {
+            exit = InstallerRewriter.mainI(rewriterArgs);
+        } finally {
+            sampler.shutdownNow();
+        }
+        long wall = System.nanoTime() - start;
+        peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+
+        JsonObject result = new JsonObject();
+        result.addProperty("exit_code", exit);
+        result.addProperty("wall_ms", TimeUnit.NANOSECONDS.toMillis(wall));
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            result.addProperty("cpu_ms", TimeUnit.NANOSECONDS.toMillis(((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime()));
+        }
+        long gc = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gc += Math.max(0, bean.getCollectionTime());
+        }
+        result.addProperty("gc_ms", gc);
+        result.addProperty("peak_heap_bytes", peakHeap.get());
+        JsonObject pools = new JsonObject();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.addProperty(pool.getName(), pool.getPeakUsage().getUsed());
+            }
+        }
+        result.add("peak_heap_pool_bytes", pools);
+        result.addProperty("peak_rss_bytes", peakRss());
+        try (Writer writer = Files.newBufferedWriter(resultFile)) {
+            Utils.GSON.toJson(result, writer);
+        }
+        return exit;
+    }
+
+    // The high water mark of the resident set, only available on Linux.
+    private static long peakRss() {
+        Path status = Paths.get("/proc/self/status");
+        if (Files.notExists(status)) return -1;
+
+        try (BufferedReader reader = Files.newBufferedReader(status)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmHWM:")) {
+                    String[] split = line.substring(6).trim().split("\\s+");
+                    return Long.parseLong(split[0]) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return -1;
+    }
+
+    private static JsonObject median(JsonArray runs) {
+        JsonObject median = new JsonObject();
+        for (String key : asList("wall_ms", "cpu_ms", "installers_per_second", "peak_heap_bytes", "peak_rss_bytes", "bytes_written")) {
+            List<JsonElement> values = new ArrayList<>();
+            for (JsonElement run : runs) {
+                JsonElement value = run.getAsJsonObject().get(key);
+                // Unavailable measurements are recorded as -1.
+                if (value != null && value.getAsDouble() >= 0) {
+                    values.add(value);
+                }
+            }
+            if (values.isEmpty()) continue;
+            values.sort(Comparator.comparingDouble(JsonElement::getAsDouble));
+            median.add(key, values.get(values.size() / 2));
+        }
+        return median;
+    }
+
+    private static void compare(JsonObject baseline, JsonObject results) {
+        JsonObject before = baseline.getAsJsonObject("scenarios");
+        JsonObject after = results.getAsJsonObject("scenarios");
+        if (before == null) return;
+
+        LOGGER.info("Compared to the baseline of {}:", Utils.getAsString(baseline, "timestamp", "unknown"));
+        for (Map.Entry<String, JsonElement> entry : after.entrySet()) {
+            if (!before.has(entry.getKey())) continue;
+
+            JsonObject b = before.getAsJsonObject(entry.getKey()).getAsJsonObject("median");
+            JsonObject a = entry.getValue().getAsJsonObject().getAsJsonObject("median");
+            LOGGER.info("  {}: wall {}, throughput {}, peak RSS {}, written {}", entry.getKey(),
+                    delta(b, a, "wall_ms"), delta(b, a, "installers_per_second"), delta(b, a, "peak_rss_bytes"), delta(b, a, "bytes_written"));
+        }
+    }
+
+    private static String delta(JsonObject before, JsonObject after, String key) {
+        if (!before.has(key) || !after.has(key)) return "n/a";
+
+        double b = before.get(key).getAsDouble();
+        double a = after.get(key).getAsDouble();
+        if (b == 0) return String.valueOf(a);
+        return String.format("%+.1f%%", (a - b) * 100 / b);
+    }
+
+    private static int countInstallers(Path repo) throws IOException {
+        try (Stream<Path> files = Files.walk(repo)) {
+            return (int) files.filter(e -> e.getFileName().toString().endsWith("-installer.jar")).count();
+        }
+    }
+
+    private static long size(Path dir) throws IOException {
+        if (Files.notExists(dir)) return 0;
+
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(e -> {
+                try {
+                    return Files.size(e);
+                } catch (IOException ex) {
+                    return 0;
+                }
+            }).sum();
+        }
+    }
+
+    @Nullable
+    private static JsonObject read(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file)) {
+            return Utils.GSON.fromJson(reader, JsonObject.class);
+        }
+    }
+}
@@ -0,0 +1,581 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import joptsimple.util.PathConverter;
+import net.covers1624.quack.maven.MavenNotation;
+import net.covers1624.quack.util.MultiHasher;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Writer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Generates a synthetic Forge repository, for measuring the rewriter at scale without the production repository.
+ * <p>
+ * Writes, under the output directory:
+ * <ul>
+ *     <li>{@code repo/}, the {@code net/minecraftforge/forge} module with V1 and V2 installers, their universal jars,
+ *     checksum sidecars and {@code maven-metadata.xml}.</li>
+ *     <li>{@code maven/}, the libraries referenced by the installers and the installer seeds used by {@code --update-installer},
+ *     to be served by {@link LocalMavenServer} in place of the Forge and Mojang mavens.</li>
+ *     <li>{@code mojang/}, a version manifest, Minecraft version jsons and server jars, read through {@code file:} urls.</li>
+ * </ul>
+ * Output is deterministic for a given seed.
+ */
+public class RepoGenerator {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final MavenNotation FORGE = VersionScanner.FORGE;
+    private static final String[] V1_MC_VERSIONS = { "1.6.4", "1.7.10", "1.8.9", "1.10.2", "1.12.2" };
+    private static final String[] V2_MC_VERSIONS = { "1.13.2", "1.14.4", "1.15.2", "1.16.5", "1.17.1" };
+    private static final String[] SEED_VERSIONS = { "1.5", "2.0.24", "2.1.9" };
+    private static final String[] WORDS = {
+            "net", "minecraftforge", "installer", "library", "version", "profile", "client", "server", "download",
+            "artifact", "json", "forge", "mod", "loader", "class", "field", "method", "public", "static", "void"
+    };
+    // A fixed timestamp keeps generated jars identical across runs.
+    private static final long TIME = 1600000000000L;
+
+    private final Path output;
+    private final Random random;
+    private final int entries;
+    private final int entrySize;
+    private final double signedRatio;
+    private final double oldUrlRatio;
+    private final List<MavenNotation> libraries = new ArrayList<>();
+    private final Map<MavenNotation, HashCode> librarySha1 = new LinkedHashMap<>();
+    private final Map<MavenNotation, Integer> librarySize = new LinkedHashMap<>();
+
+    public RepoGenerator(Path output, long seed, int entries, int entrySize, double signedRatio, double oldUrlRatio) {
+        this.output = output;
+        this.random = new Random(seed);
+        this.entries = entries;
+        this.entrySize = entrySize;
+        this.signedRatio = signedRatio;
+        this.oldUrlRatio = oldUrlRatio;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        System.exit(mainI(args));
+    }
+
+    public static int mainI(String[] args) throws Throwable {
+        OptionParser parser = new OptionParser();
+
+        OptionSpec<Void> helpOpt = parser.acceptsAll(asList("h", "help"), "Prints this help.").forHelp();
+
+        OptionSpec<Path> outputOpt = parser.acceptsAll(asList("o", "output"), "The directory to generate into.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+        OptionSpec<Integer> countOpt = parser.acceptsAll(asList("count"), "The number of installers to generate.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(100);
+        OptionSpec<Double> v1RatioOpt = parser.acceptsAll(asList("v1-ratio"), "The fraction of installers, from 0 to 1, using the V1 format.")
+                .withRequiredArg()
+                .ofType(Double.class)
+                .defaultsTo(0.4);
+        OptionSpec<Double> signedRatioOpt = parser.acceptsAll(asList("signed-ratio"), "The fraction of installers, from 0 to 1, with a signed manifest.")
+                .withRequiredArg()
+                .ofType(Double.class)
+                .defaultsTo(0.5);
+        OptionSpec<Double> oldUrlRatioOpt = parser.acceptsAll(asList("old-url-ratio"), "The fraction of library urls, from 0 to 1, on the old files.minecraftforge.net maven.")
+                .withRequiredArg()
+                .ofType(Double.class)
+                .defaultsTo(0.5);
+        OptionSpec<Integer> librariesOpt = parser.acceptsAll(asList("libraries"), "The number of distinct libraries, each installer references up to 10.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(50);
+        OptionSpec<Integer> entriesOpt = parser.acceptsAll(asList("entries"), "The number of filler entries in each installer.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(200);
+        OptionSpec<Integer> entrySizeOpt = parser.acceptsAll(asList("entry-size"), "The average size, in bytes, of filler entries.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(4096);
+        OptionSpec<Long> seedOpt = parser.acceptsAll(asList("seed"), "The random seed.")
+                .withRequiredArg()
+                .ofType(Long.class)
+                .defaultsTo(0L);
+
+        OptionSet optSet = parser.parse(args);
+        if (optSet.has(helpOpt)) {
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+
+        if (!optSet.has(outputOpt)) {
+            LOGGER.error("Expected --output argument.");
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+        if (optSet.valueOf(countOpt) < 1) {
+            LOGGER.error("--count must be at least 1.");
+            return -1;
+        }
+        Path output = optSet.valueOf(outputOpt).toAbsolutePath();
+        if (Files.exists(output.resolve("repo"))) {
+            LOGGER.error("Output already contains a generated repository: {}", output);
+            return -1;
+        }
+
+        RepoGenerator generator = new RepoGenerator(output, optSet.valueOf(seedOpt), optSet.valueOf(entriesOpt), optSet.valueOf(entrySizeOpt),
+                optSet.valueOf(signedRatioOpt), optSet.valueOf(oldUrlRatioOpt));
+        generator.generate(optSet.valueOf(countOpt), optSet.valueOf(v1RatioOpt), optSet.valueOf(librariesOpt));
+
+        LOGGER.info("Generated {} installers in {}", optSet.valueOf(countOpt), output);
+        LOGGER.info("Serve the libraries with 'gradlew benchServe --args=\"--root {}\"', then run the rewriter with:", output.resolve("maven"));
+        LOGGER.info("  -Dir.mirror_maven=<served url> -Dir.version_manifest={} --repo {}", output.resolve("mojang/version_manifest.json").toUri(), output.resolve("repo"));
+        return 0;
+    }
+
+    /**
+     * @param count     The number of installers.
+     * @param v1Ratio   The fraction of V1 installers.
+     * @param libraries The number of distinct libraries.
+     */
+    public void generate(int count, double v1Ratio, int libraries) throws IOException {
+        generateLibraries(libraries);
+        generateSeeds();
+        generateMinecraft();
+
+        int v1Count = (int) Math.round(count * v1Ratio);
+        List<String> versions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            boolean v1 = i < v1Count;
+            // Spread installers over the Minecraft versions of their format, with increasing build numbers.
+            String[] mcVersions = v1 ? V1_MC_VERSIONS : V2_MC_VERSIONS;
+            int index = v1 ? i : i - v1Count;
+            int perMc = Math.max(1, ((v1 ? v1Count : count - v1Count) + mcVersions.length - 1) / mcVersions.length);
+            String mc = mcVersions[Math.min(index / perMc, mcVersions.length - 1)];
+            String version = mc + "-" + (v1 ? 10 : 30) + "." + (index / perMc) + "." + (index % perMc + 1);
+            versions.add(version);
+
+            MavenNotation notation = FORGE.withVersion(version);
+            byte[] universal = universalJar(notation, mc);
+            write(notation.withClassifier("universal").toPath(output.resolve("repo")), universal);
+            Path installer = notation.withClassifier("installer").toPath(output.resolve("repo"));
+            write(installer, v1 ? v1Installer(notation, mc, universal) : v2Installer(notation, mc, universal));
+            writeSidecars(installer);
+            if ((i + 1) % 100 == 0) {
+                LOGGER.info("  {}/{} installers", i + 1, count);
+            }
+        }
+        writeMetadata(output.resolve("repo").resolve(FORGE.toModulePath()), FORGE, versions);
+    }
+
+    private void generateLibraries(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            MavenNotation lib = MavenNotation.parse("net.minecraftforge.synthetic:library" + i + ":1." + random.nextInt(10));
+            Map<String, byte[]> contents = new LinkedHashMap<>();
+            contents.put(JarContents.MANIFEST, manifest(null));
+            for (int j = 0; j < 1 + random.nextInt(20); j++) {
+                contents.put("net/minecraftforge/synthetic/library" + i + "/Class" + j + ".class", classData(entrySize));
+            }
+            byte[] jar = jar(contents);
+            write(lib.toPath(output.resolve("maven")), jar);
+            libraries.add(lib);
+            librarySha1.put(lib, Hashing.sha1().hashBytes(jar));
+            librarySize.put(lib, jar.length);
+        }
+    }
+
+    private void generateSeeds() throws IOException {
+        MavenNotation seedModule = MavenNotation.parse("net.minecraftforge:installer");
+        for (String version : SEED_VERSIONS) {
+            Map<String, byte[]> contents = new LinkedHashMap<>();
+            contents.put(JarContents.MANIFEST, manifest("net.minecraftforge.installer.SimpleInstaller"));
+            for (int j = 0; j < 50; j++) {
+                contents.put("net/minecraftforge/installer/Installer" + j + ".class", classData(entrySize));
+            }
+            contents.put("big_logo.png", binary(entrySize, new byte[] { (byte) 0x89, 0x50, 0x4E, 0x47 }));
+            write(output.resolve("maven").resolve(InstallerUpdater.getSeedPath(version)), jar(contents));
+        }
+        writeMetadata(output.resolve("maven").resolve(seedModule.toModulePath()), seedModule, Arrays.asList(SEED_VERSIONS));
+    }
+
+    private void generateMinecraft() throws IOException {
+        Path mojang = output.resolve("mojang");
+        JsonArray versions = new JsonArray();
+        List<String> mcVersions = new ArrayList<>(asList(V1_MC_VERSIONS));
+        mcVersions.addAll(asList(V2_MC_VERSIONS));
+        for (String mc : mcVersions) {
+            Path serverJar = mojang.resolve("minecraft_server." + mc + ".jar");
+            Map<String, byte[]> contents = new LinkedHashMap<>();
+            contents.put(JarContents.MANIFEST, manifest("net.minecraft.server.MinecraftServer"));
+            contents.put("net/minecraft/server/MinecraftServer.class", classData(entrySize));
+            write(serverJar, jar(contents));
+
+            JsonObject server = new JsonObject();
+            server.addProperty("url", serverJar.toUri().toString());
+            server.addProperty("sha1", Hashing.sha1().hashBytes(Files.readAllBytes(serverJar)).toString());
+            server.addProperty("size", Files.size(serverJar));
+            JsonObject downloads = new JsonObject();
+            downloads.add("server", server);
+            JsonObject json = new JsonObject();
+            json.addProperty("id", mc);
+            json.addProperty("type", "release");
+            json.addProperty("mainClass", "net.minecraft.client.main.Main");
+            json.add("downloads", downloads);
+            json.add("libraries", new JsonArray());
+            Path versionJson = mojang.resolve(mc + ".json");
+            write(versionJson, Utils.GSON.toJson(json).getBytes(StandardCharsets.UTF_8));
+
+            JsonObject info = new JsonObject();
+            info.addProperty("id", mc);
+            info.addProperty("type", "release");
+            info.addProperty("url", versionJson.toUri().toString());
+            versions.add(info);
+        }
+        JsonObject manifest = new JsonObject();
+        manifest.add("versions", versions);
+        write(mojang.resolve("version_manifest.json"), Utils.GSON.toJson(manifest).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private byte[] universalJar(MavenNotation notation, String mc) throws IOException {
+        List<MavenNotation> libs = pickLibraries(notation);
+        StringBuilder classPath = new StringBuilder();
+        for (MavenNotation lib : libs) {
+            classPath.append("libraries/").append(lib.toPath()).append(' ');
+        }
+        classPath.append("minecraft_server.").append(mc).append(".jar");
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "net.minecraftforge.fml.relauncher.ServerLaunchWrapper");
+        manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath.toString());
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put(JarContents.MANIFEST, toBytes(manifest));
+        for (int j = 0; j < Math.max(1, entries / 4); j++) {
+            contents.put("net/minecraftforge/common/Generated" + j + ".class", classData(entrySize));
+        }
+        return jar(contents);
+    }
+
+    private byte[] v1Installer(MavenNotation notation, String mc, byte[] universal) throws IOException {
+        String universalName = notation.withClassifier("universal").toFileName();
+
+        JsonObject install = new JsonObject();
+        install.addProperty("profileName", "Forge");
+        install.addProperty("target", mc + "-Forge" + notation.version.substring(mc.length() + 1));
+        install.addProperty("path", notation.toString());
+        install.addProperty("version", "Forge " + notation.version);
+        install.addProperty("filePath", universalName);
+        install.addProperty("welcome", "Welcome to the simple Forge installer.");
+        install.addProperty("minecraft", mc);
+        install.addProperty("mirrorList", "http://files.minecraftforge.net/mirror-brand.list");
+        install.addProperty("logo", "/big_logo.png");
+
+        JsonArray libs = new JsonArray();
+        JsonObject forgeLib = new JsonObject();
+        forgeLib.addProperty("name", notation.toString());
+        forgeLib.addProperty("url", oldForgeMaven());
+        libs.add(forgeLib);
+        for (MavenNotation lib : pickLibraries(notation)) {
+            JsonObject library = new JsonObject();
+            library.addProperty("name", lib.toString());
+            library.addProperty("url", random.nextDouble() < oldUrlRatio ? oldForgeMaven() : InstallerRewriter.FORGE_MAVEN);
+            JsonArray checksums = new JsonArray();
+            checksums.add(librarySha1.get(lib).toString());
+            library.add("checksums", checksums);
+            library.addProperty("serverreq", true);
+            library.addProperty("clientreq", true);
+            libs.add(library);
+        }
+        JsonObject versionInfo = new JsonObject();
+        versionInfo.addProperty("id", install.get("target").getAsString());
+        versionInfo.addProperty("time", date());
+        versionInfo.addProperty("releaseTime", date());
+        versionInfo.addProperty("type", "release");
+        versionInfo.addProperty("minecraftArguments", "--username ${auth_player_name} --version ${version_name} --tweakClass cpw.mods.fml.common.launcher.FMLTweaker");
+        versionInfo.addProperty("mainClass", "net.minecraft.launchwrapper.Launch");
+        versionInfo.addProperty("inheritsFrom", mc);
+        versionInfo.addProperty("jar", mc);
+        versionInfo.add("libraries", libs);
+
+        JsonObject profile = new JsonObject();
+        profile.add("install", install);
+        profile.add("versionInfo", versionInfo);
+
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("install_profile.json", Utils.GSON.toJson(profile).getBytes(StandardCharsets.UTF_8));
+        contents.put(universalName, universal);
+        return installer(contents);
+    }
+
+    private byte[] v2Installer(MavenNotation notation, String mc, byte[] universal) throws IOException {
+        MavenNotation forgeLib = notation;
+        String forgePath = forgeLib.toPath();
+
+        JsonArray profileLibs = new JsonArray();
+        JsonArray versionLibs = new JsonArray();
+        versionLibs.add(v2Library(forgeLib, forgePath, "", Hashing.sha1().hashBytes(universal), universal.length));
+        for (MavenNotation lib : pickLibraries(notation)) {
+            String url = (random.nextDouble() < oldUrlRatio ? oldForgeMaven() : InstallerRewriter.FORGE_MAVEN) + lib.toPath();
+            JsonObject library = v2Library(lib, lib.toPath(), url, librarySha1.get(lib), librarySize.get(lib));
+            // Installer only libraries are listed in the profile, runtime libraries in the version json.
+            (random.nextBoolean() ? profileLibs : versionLibs).add(library);
+        }
+
+        String id = mc + "-forge-" + notation.version.substring(mc.length() + 1);
+        JsonObject version = new JsonObject();
+        version.addProperty("id", id);
+        version.addProperty("time", date());
+        version.addProperty("releaseTime", date());
+        version.addProperty("type", "release");
+        version.addProperty("mainClass", "cpw.mods.modlauncher.Launcher");
+        version.addProperty("inheritsFrom", mc);
+        version.add("libraries", versionLibs);
+
+        JsonObject profile = new JsonObject();
+        profile.addProperty("spec", 0);
+        profile.addProperty("profile", "forge");
+        profile.addProperty("version", id);
+        profile.addProperty("path", forgeLib.toString());
+        profile.addProperty("minecraft", mc);
+        profile.addProperty("json", "/version.json");
+        profile.addProperty("logo", "/big_logo.png");
+        profile.addProperty("welcome", "Welcome to the simple Forge installer.");
+        // Older installers predate the mirror list.
+        if (random.nextBoolean()) {
+            profile.addProperty("mirrorList", InstallerRewriter.MIRROR_LIST);
+        }
+        profile.add("data", new JsonObject());
+        profile.add("processors", new JsonArray());
+        profile.add("libraries", profileLibs);
+
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("install_profile.json", Utils.GSON.toJson(profile).getBytes(StandardCharsets.UTF_8));
+        contents.put("version.json", Utils.GSON.toJson(version).getBytes(StandardCharsets.UTF_8));
+        contents.put("maven/" + forgePath, universal);
+        return installer(contents);
+    }
+
+    private static JsonObject v2Library(MavenNotation name, String path, String url, HashCode sha1, int size) {
+        JsonObject artifact = new JsonObject();
+        artifact.addProperty("path", path);
+        artifact.addProperty("url", url);
+        artifact.addProperty("sha1", sha1.toString());
+        artifact.addProperty("size", size);
+        JsonObject downloads = new JsonObject();
+        downloads.add("artifact", artifact);
+        JsonObject library = new JsonObject();
+        library.addProperty("name", name.toString());
+        library.add("downloads", downloads);
+        return library;
+    }
+
+    // Adds the installer code, logo and filler entries, and optionally signs the manifest.
+    private byte[] installer(Map<String, byte[]> data) throws IOException {
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put(JarContents.MANIFEST, null);
+        contents.putAll(data);
+        contents.put("big_logo.png", binary(entrySize, new byte[] { (byte) 0x89, 0x50, 0x4E, 0x47 }));
+        for (int i = 0; i < entries; i++) {
+            String name;
+            byte[] bytes;
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                name = "net/minecraftforge/installer/Generated" + i + ".class";
+                bytes = classData(entrySize);
+            } else if (kind < 9) {
+                name = "data/generated" + i + ".txt";
+                bytes = text(entrySize);
+            } else {
+                name = "data/generated" + i + ".png";
+                bytes = binary(entrySize, new byte[] { (byte) 0x89, 0x50, 0x4E, 0x47 });
+            }
+            contents.put(name, bytes);
+        }
+
+        boolean signed = random.nextDouble() < signedRatio;
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "net.minecraftforge.installer.SimpleInstaller");
+        if (signed) {
+            // Digests are real, the signature block is not, nothing verifies it.
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                if (entry.getValue() == null) continue;
+                Attributes attributes = new Attributes();
+                attributes.putValue("SHA-256-Digest", Base64.getEncoder().encodeToString(Hashing.sha256().hashBytes(entry.getValue()).asBytes()));
+                manifest.getEntries().put(entry.getKey(), attributes);
+            }
+        }
+        byte[] manifestBytes = toBytes(manifest);
+        contents.put(JarContents.MANIFEST, manifestBytes);
+        if (signed) {
+            String sf = "Signature-Version: 1.0\r\nSHA-256-Digest-Manifest: "
+                    + Base64.getEncoder().encodeToString(Hashing.sha256().hashBytes(manifestBytes).asBytes()) + "\r\nCreated-By: RepoGenerator\r\n\r\n";
+            contents.put("META-INF/FORGE.SF", sf.getBytes(StandardCharsets.UTF_8));
+            contents.put("META-INF/FORGE.RSA", binary(2048, new byte[] { 0x30, (byte) 0x82 }));
+        }
+        return jar(contents);
+    }
+
+    private List<MavenNotation> pickLibraries(MavenNotation notation) {
+        // Seeded by the version, so the universal jar and installer of a version agree.
+        Random random = new Random(notation.version.hashCode());
+        List<MavenNotation> picked = new ArrayList<>();
+        int count = Math.min(libraries.size(), 1 + random.nextInt(10));
+        while (picked.size() < count) {
+            MavenNotation lib = libraries.get(random.nextInt(libraries.size()));
+            if (!picked.contains(lib)) {
+                picked.add(lib);
+            }
+        }
+        return picked;
+    }
+
+    private String oldForgeMaven() {
+        // Old installers used both protocols.
+        return random.nextBoolean() ? InstallerRewriter.OLD_FORGE_MAVEN : "http://files.minecraftforge.net/maven/";
+    }
+
+    // Class file magic followed by repetitive identifiers, compressing roughly like real bytecode.
+    private byte[] classData(int averageSize) {
+        byte[] text = text(averageSize);
+        text[0] = (byte) 0xCA;
+        text[1] = (byte) 0xFE;
+        text[2] = (byte) 0xBA;
+        text[3] = (byte) 0xBE;
+        return text;
+    }
+
+    private byte[] text(int averageSize) {
+        int size = Math.max(8, averageSize / 2 + random.nextInt(Math.max(1, averageSize)));
+        StringBuilder builder = new StringBuilder(size + 16);
+        while (builder.length() < size) {
+            builder.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(8) == 0 ? '\n' : ' ');
+        }
+        return builder.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Random, incompressible data, behind the given magic.
+    private byte[] binary(int averageSize, byte[] magic) {
+        int size = Math.max(magic.length, averageSize / 2 + random.nextInt(Math.max(1, averageSize)));
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        System.arraycopy(magic, 0, bytes, 0, magic.length);
+        return bytes;
+    }
+
+    private static byte[] manifest(String mainClass) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (mainClass != null) {
+            manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, mainClass);
+        }
+        return toBytes(manifest);
+    }
+
+    private static byte[] toBytes(Manifest manifest) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        manifest.write(bos);
+        return bos.toByteArray();
+    }
+
+    private static byte[] jar(Map<String, byte[]> contents) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (JarOutputStream jos = new JarOutputStream(bos)) {
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                JarEntry jarEntry = new JarEntry(entry.getKey());
+                jarEntry.setTime(TIME);
+                jos.putNextEntry(jarEntry);
+                jos.write(entry.getValue());
+                jos.closeEntry();
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    private static String date() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(TIME));
+    }
+
+    private static void write(Path file, byte[] bytes) throws IOException {
+        Files.write(Utils.makeParents(file), bytes);
+    }
+
+    private static void writeSidecars(Path file) throws IOException {
+        MultiHasher hasher = new MultiHasher(asList(MultiHasher.HashFunc.values()));
+        hasher.load(file);
+        for (Map.Entry<MultiHasher.HashFunc, HashCode> entry : hasher.finish().entrySet()) {
+            Path hashFile = file.resolveSibling(file.getFileName() + "." + entry.getKey().name.toLowerCase());
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(hashFile))) {
+                out.print(entry.getValue().toString());
+            }
+        }
+    }
+
+    private static void writeMetadata(Path moduleFolder, MavenNotation module, List<String> versions) throws IOException {
+        Versioning versioning = new Versioning();
+        versioning.setVersions(new ArrayList<>(versions));
+        versioning.setLatest(versions.get(versions.size() - 1));
+        versioning.setRelease(versions.get(versions.size() - 1));
+        versioning.setLastUpdated(new SimpleDateFormat("yyyyMMddHHmmss").format(new Date(TIME)));
+        Metadata metadata = new Metadata();
+        metadata.setGroupId(module.group);
+        metadata.setArtifactId(module.module);
+        metadata.setVersioning(versioning);
+
+        Path file = moduleFolder.resolve("maven-metadata.xml");
+        try (OutputStream os = Files.newOutputStream(Utils.makeParents(file))) {
+            new MetadataXpp3Writer().write(os, metadata);
+        }
+        writeSidecars(file);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Emits the Java Flight Recorder events for {@link Stage}s, on Java 11 and above.
+ * <p>
+ * Each kind of stage is its own event type, under the 'Installer Rewriter' category in JMC.
+ */
+final class JfrEvents {
+
+    private JfrEvents() {
+    }
+
+    @Nullable
+    static Object begin(Stage.Kind kind) {
+        StageEvent event = create(kind);
+        if (!event.isEnabled()) return null;
+
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object event, Stage stage) {
+        StageEvent e = (StageEvent) event;
+        e.end();
+        if (!e.shouldCommit()) return;
+
+        e.notation = stage.notation;
+        e.detail = stage.detail;
+        e.bytes = stage.bytes;
+        e.cacheHit = stage.cacheHit;
+        e.status = stage.status;
+        e.commit();
+    }
+
+    private static StageEvent create(Stage.Kind kind) {
+        switch (kind) {
+            case VERSION: return new VersionEvent();
+            case LOAD: return new LoadEvent();
+            case PROCESS: return new ProcessEvent();
+            case SAVE: return new SaveEvent();
+            case SIGN: return new SignEvent();
+            case HASH: return new HashEvent();
+            case HTTP_HEAD: return new HttpHeadEvent();
+            case HTTP_GET: return new HttpGetEvent();
+            case TEST_INSTALL: return new TestInstallEvent();
+            case TEST_BOOT: return new TestBootEvent();
+            default: throw new IllegalArgumentException("Unknown stage: " + kind);
+        }
+    }
+
+    @StackTrace(false)
+    abstract static class StageEvent extends Event {
+
+        @Label("Notation")
+        @Description("The maven notation of the version being worked on.")
+        String notation;
+
+        @Label("Detail")
+        @Description("The processor, url or file involved.")
+        String detail;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Cache Hit")
+        boolean cacheHit;
+
+        @Label("Status")
+        @Description("The HTTP status or process exit code, -1 if none.")
+        int status;
+    }
+
+    @Name("net.minecraftforge.ir.Version")
+    @Label("Version")
+    @Category({ "Installer Rewriter", "Rewrite" })
+    static class VersionEvent extends StageEvent { }
+
+    @Name("net.minecraftforge.ir.Load")
+    @Label("Installer Load")
+    @Category({ "Installer Rewriter", "Rewrite" })
+    static class LoadEvent extends StageEvent { }
+
+    @Name("net.minecraftforge.ir.Process")
+    @Label("Installer Process")
+    @Category({ "Installer Rewriter", "Rewrite" })
+    static class ProcessEvent extends StageEvent { }
+
+    @Name("net.minecraftforge.ir.Save")
+    @Label("Installer Save")
+    @Category({ "Installer Rewriter", "Rewrite" })
+    static class SaveEvent extends StageEvent { }
+
+    @Name("net.minecraftforge.ir.Sign")
+    @Label("Installer Sign")
+    @Category({ "Installer Rewriter", "Rewrite" })
+    static class SignEvent extends StageEvent { }
+
+    @Name("net.minecraftforge.ir.Hash")
+    @Label("Sidecar Hashing")
+    @Category({ "Installer Rewriter", "Rewrite" })
+    static class HashEvent extends StageEvent { }
+
+    @Name("net.minecraftforge.ir.HttpHead")
+    @Label("HTTP HEAD")
+    @Category({ "Installer Rewriter", "HTTP" })
+    static class HttpHeadEvent extends StageEvent { }
+
+    @Name("net.minecraftforge.ir.HttpGet")
+    @Label("HTTP GET")
+    @Category({ "Installer Rewriter", "HTTP" })
+    static class HttpGetEvent extends StageEvent { }
+
+    @Name("net.minecraftforge.ir.TestInstall")
+    @Label("Tester Install")
+    @Category({ "Installer Rewriter", "Tester" })
+    static class TestInstallEvent extends StageEvent { }
+
+    @Name("net.minecraftforge.ir.TestBoot")
+    @Label("Tester Boot")
+    @Category({ "Installer Rewriter", "Tester" })
+    static class TestBootEvent extends StageEvent { }
+}
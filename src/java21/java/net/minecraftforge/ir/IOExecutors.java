@@ -0,0 +1,172 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executors for blocking network, file and process I/O, kept off the common pool.
+ * <p>
+ * This copy is used on Java 21 and above, and runs each task on its own virtual thread,
+ * so any number of tasks may block at once without tuning a pool.
+ */
+public final class IOExecutors {
+
+    private static final ExecutorService IO = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("IO-", 1).factory());
+
+    private IOExecutors() {
+    }
+
+    /**
+     * A shared executor, for I/O tasks which are not limited in number, e.g. pumping the output of a process.
+     *
+     * @return The executor.
+     */
+    public static ExecutorService io() {
+        return IO;
+    }
+
+    /**
+     * An executor which runs at most {@code concurrency} tasks at once.
+     * It must be shut down once no longer needed.
+     *
+     * @param name        The name of its threads.
+     * @param concurrency The number of tasks run at once.
+     * @return The executor.
+     */
+    public static ExecutorService newBounded(String name, int concurrency) {
+        return new Bounded(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory()), concurrency);
+    }
+
+    /**
+     * @return If tasks are run on virtual threads.
+     */
+    public static boolean isVirtual() {
+        return true;
+    }
+
+    /**
+     * Every task gets a virtual thread straight away, which waits its turn for a permit.
+     * <p>
+     * Tasks still waiting are returned by {@link #shutdownNow}, as for any executor, and cancelled if they are
+     * {@link Future}s, e.g. from {@link #submit}. Tasks of a {@link CompletableFuture} can not be cancelled from
+     * here, they are returned like any other.
+     */
+    private static class Bounded extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+        // Tasks which have not started, whoever removes a task decides its fate.
+        private final Set<Runnable> waiting = ConcurrentHashMap.newKeySet();
+
+        private Bounded(ExecutorService delegate, int concurrency) {
+            this.delegate = delegate;
+            permits = new Semaphore(concurrency, true);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            waiting.add(command);
+            try {
+                delegate.execute(() -> run(command));
+            } catch (RejectedExecutionException e) {
+                waiting.remove(command);
+                throw e;
+            }
+        }
+
+        private void run(Runnable command) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                // Interrupted before the task got a turn, unless shutdownNow already returned it.
+                if (waiting.remove(command)) {
+                    abandon(command);
+                }
+                return;
+            }
+            try {
+                if (!waiting.remove(command)) return;
+                command.run();
+            } finally {
+                permits.release();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            List<Runnable> notRun = new ArrayList<>();
+            for (Runnable command : waiting) {
+                if (waiting.remove(command)) {
+                    notRun.add(command);
+                    if (command instanceof Future && !(command instanceof CompletableFuture.AsynchronousCompletionTask)) {
+                        ((Future<?>) command).cancel(false);
+                    }
+                }
+            }
+            // Threads of tasks which have not started only ever wait for a permit.
+            delegate.shutdownNow();
+            return notRun;
+        }
+
+        /**
+         * Fails a task which was interrupted while waiting, so nothing waits on it forever.
+         * Tasks which can not be cancelled are run interrupted, failing at their first interruptible wait.
+         */
+        private static void abandon(Runnable command) {
+            if (command instanceof Future && !(command instanceof CompletableFuture.AsynchronousCompletionTask)) {
+                ((Future<?>) command).cancel(false);
+                return;
+            }
+            Thread.currentThread().interrupt();
+            command.run();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir.json;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import net.covers1624.quack.gson.MavenNotationAdapter;
+import net.covers1624.quack.maven.MavenNotation;
+import net.minecraftforge.ir.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link JsonModelAdapters} against Gson's reflective adapters, on synthetic
+ * Minecraft version jsons and V1 install profiles of increasing size.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (1)
+public class JsonModelBenchmark {
+
+    // As Utils.GSON, without the model adapters.
+    private static final Gson REFLECTIVE = new GsonBuilder()
+            .registerTypeAdapter(MavenNotation.class, new MavenNotationAdapter())
+            .setPrettyPrinting()
+            .disableHtmlEscaping()
+            .create();
+
+    @Param ({ "50", "500" })
+    public int libraries;
+
+    private String versionJson;
+    private String v1ProfileJson;
+    private Version version;
+
+    @Setup
+    public void setup() {
+        version = new Version();
+        version.id = "1.12.2";
+        version.time = version.releaseTime = "2017-09-18T08:39:46+00:00";
+        version.type = "release";
+        version.mainClass = "net.minecraft.client.main.Main";
+        version.minecraftArguments = "--username ${auth_player_name} --version ${version_name}";
+        Version.Download client = new Version.Download();
+        client.url = "https://launcher.mojang.com/v1/objects/0f275bc1547d01fa5f56ba34bdc87d981ee12daf/client.jar";
+        client.sha1 = "0f275bc1547d01fa5f56ba34bdc87d981ee12daf";
+        client.size = 10180113;
+        version.getDownloads().put("client", client);
+        version.getDownloads().put("server", client);
+
+        V1InstallProfile profile = new V1InstallProfile();
+        profile.install = new V1InstallProfile.Install();
+        profile.install.filePath = "forge-1.12.2-14.23.5.2855-universal.jar";
+        profile.versionInfo = new V1InstallProfile.VersionInfo();
+        profile.versionInfo.id = "1.12.2-forge1.12.2-14.23.5.2855";
+        profile.versionInfo.inheritsFrom = "1.12.2";
+        profile.versionInfo.mainClass = "net.minecraft.launchwrapper.Launch";
+        profile.versionInfo.optionals = new JsonArray();
+
+        for (int i = 0; i < libraries; i++) {
+            MavenNotation name = MavenNotation.parse("com.example.group" + i % 10 + ":library-" + i + ":1." + i);
+            Version.Library library = new Version.Library();
+            library.name = name;
+            library.downloads = new Version.Downloads();
+            library.downloads.artifact = artifact(name);
+            if (i % 5 == 0) {
+                library.downloads.getClassifiers().put("natives-linux", artifact(name.withClassifier("natives-linux")));
+                library.downloads.getClassifiers().put("natives-windows", artifact(name.withClassifier("natives-windows")));
+            }
+            version.getLibraries().add(library);
+
+            V1InstallProfile.Library v1Library = new V1InstallProfile.Library();
+            v1Library.name = name;
+            v1Library.url = "https://maven.minecraftforge.net/";
+            v1Library.checksums = new ArrayList<>();
+            v1Library.checksums.add("da39a3ee5e6b4b0d3255bfef95601890afd80709");
+            v1Library.serverreq = true;
+            v1Library.clientreq = i % 2 == 0;
+            if (i % 5 == 0) {
+                v1Library.natives = new JsonObject();
+                v1Library.natives.addProperty("linux", "natives-linux");
+            }
+            profile.versionInfo.libraries.add(v1Library);
+        }
+        versionJson = REFLECTIVE.toJson(version);
+        v1ProfileJson = REFLECTIVE.toJson(profile);
+
+        // Both paths must agree, or the comparison means nothing.
+        checkRoundTrip(versionJson, Version.class);
+        checkRoundTrip(v1ProfileJson, V1InstallProfile.class);
+    }
+
+    private static void checkRoundTrip(String json, Class<?> type) {
+        if (!json.equals(Utils.GSON.toJson(Utils.GSON.fromJson(json, type))) || !json.equals(REFLECTIVE.toJson(Utils.GSON.fromJson(json, type)))) {
+            throw new IllegalStateException("Streaming adapter for " + type.getSimpleName() + " does not round-trip.");
+        }
+    }
+
+    private static Version.LibraryDownload artifact(MavenNotation name) {
+        Version.LibraryDownload artifact = new Version.LibraryDownload();
+        artifact.path = name.toPath();
+        artifact.url = "https://libraries.minecraft.net/" + artifact.path;
+        artifact.sha1 = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+        artifact.size = 123456;
+        return artifact;
+    }
+
+    @Benchmark
+    public Version readVersionReflective() {
+        return REFLECTIVE.fromJson(versionJson, Version.class);
+    }
+
+    @Benchmark
+    public Version readVersionStreaming() {
+        return Utils.GSON.fromJson(versionJson, Version.class);
+    }
+
+    @Benchmark
+    public V1InstallProfile readV1ProfileReflective() {
+        return REFLECTIVE.fromJson(v1ProfileJson, V1InstallProfile.class);
+    }
+
+    @Benchmark
+    public V1InstallProfile readV1ProfileStreaming() {
+        return Utils.GSON.fromJson(v1ProfileJson, V1InstallProfile.class);
+    }
+
+    @Benchmark
+    public String writeVersionReflective() {
+        return REFLECTIVE.toJson(version);
+    }
+
+    @Benchmark
+    public String writeVersionStreaming() {
+        return Utils.GSON.toJson(version);
+    }
+
+    @Benchmark
+    public String writeVersionCompact() {
+        return Utils.COMPACT_GSON.toJson(version);
+    }
+}
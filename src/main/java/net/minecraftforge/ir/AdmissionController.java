@@ -0,0 +1,145 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Limits concurrently processed installers to an estimated heap budget.
+ * <p>
+ * {@link JarContents} holds every entry of an installer uncompressed in memory, so the
+ * footprint of an installer is estimated from the uncompressed sizes in its central directory,
+ * without inflating anything. Json entries are weighted more heavily, as they are parsed
+ * into object trees several times their size.
+ * <p>
+ * An installer whose estimate exceeds the entire budget is only admitted once nothing else is running.
+ */
+public class AdmissionController {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    // Baseline for the installer's own bookkeeping, processor state, output buffers.
+    private static final long BASE_COST = 1024 * 1024;
+    // Gson object trees are significantly larger than their source.
+    private static final int JSON_FACTOR = 8;
+    // Deflate ratio assumed for entries which do not declare their uncompressed size.
+    private static final int UNKNOWN_SIZE_FACTOR = 4;
+
+    private final long budget;
+    private final Metrics metrics;
+    private long inUse;
+    private int active;
+
+    public AdmissionController(long budget, Metrics metrics) {
+        this.budget = budget;
+        this.metrics = metrics;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return The estimated footprint of the installers currently admitted.
+     */
+    public synchronized long getInUse() {
+        return inUse;
+    }
+
+    /**
+     * Estimates the in memory footprint of processing the given installer.
+     *
+     * @param jar The installer jar.
+     * @return The estimated footprint in bytes.
+     */
+    public static long estimate(Path jar) throws IOException {
+        long total = BASE_COST;
+        try (ZipFile zf = new ZipFile(jar.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zf.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) continue;
+
+                long size = entry.getSize();
+                if (size < 0) {
+                    size = Math.max(0, entry.getCompressedSize()) * UNKNOWN_SIZE_FACTOR;
+                }
+                total += entry.getName().endsWith(".json") ? size * JSON_FACTOR : size;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Blocks until the given estimate fits within the budget.
+     *
+     * @param estimate The estimated footprint.
+     * @return The permit, which must be closed once processing has finished.
+     */
+    public Permit acquire(long estimate) throws InterruptedException {
+        long start = System.nanoTime();
+        synchronized (this) {
+            while (active > 0 && inUse + estimate > budget) {
+                wait();
+            }
+            inUse += estimate;
+            active++;
+        }
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        metrics.increment("admission.admitted");
+        metrics.add("admission.queue_wait_ms", waited);
+        metrics.max("admission.queue_wait_max_ms", waited);
+        metrics.max("admission.estimate_max_bytes", estimate);
+        if (estimate > budget) {
+            LOGGER.warn("Installer estimated at {}MB exceeds the entire heap budget of {}MB, processing alone.", estimate / 1024 / 1024, budget / 1024 / 1024);
+        }
+        return new Permit(estimate);
+    }
+
+    private synchronized void release(long estimate) {
+        inUse -= estimate;
+        active--;
+        notifyAll();
+    }
+
+    public class Permit implements AutoCloseable {
+
+        private final long estimate;
+        private boolean closed;
+
+        private Permit(long estimate) {
+            this.estimate = estimate;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            release(estimate);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of reusable byte arrays, handed out through per-installer {@link Arena}s.
+ * <p>
+ * Arrays are bucketed into size classes a quarter of a power of two apart, so a
+ * presized request wastes at most a quarter of its size. Arrays larger than
+ * {@link #MAX_POOLED} are never pooled. The total size of idle arrays is capped,
+ * anything returned beyond that is left for the garbage collector.
+ */
+public class BufferPool {
+
+    public static final int MIN_CLASS = 512;
+    public static final int MAX_POOLED = 64 * 1024 * 1024;
+
+    public static final BufferPool SHARED = new BufferPool(Math.min(256L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8));
+
+    private final long maxRetained;
+    private final AtomicLong retained = new AtomicLong();
+    private final Map<Integer, Queue<byte[]>> pools = new ConcurrentHashMap<>();
+
+    public BufferPool(long maxRetained) {
+        this.maxRetained = maxRetained;
+    }
+
+    public Arena newArena() {
+        return new Arena();
+    }
+
+    /**
+     * Rounds the given size up to its size class.
+     *
+     * @param size The size.
+     * @return The size class.
+     */
+    static int sizeClass(int size) {
+        if (size <= MIN_CLASS) return MIN_CLASS;
+        if (size > MAX_POOLED) return size;
+
+        int step = Integer.highestOneBit(size - 1) / 4;
+        return (size + step - 1) / step * step;
+    }
+
+    private byte[] poll(int sizeClass) {
+        Queue<byte[]> pool = pools.get(sizeClass);
+        byte[] buf = pool != null ? pool.poll() : null;
+        if (buf != null) {
+            retained.addAndGet(-buf.length);
+        }
+        return buf;
+    }
+
+    private void offer(byte[] buf) {
+        if (buf.length > MAX_POOLED || buf.length != sizeClass(buf.length)) return;
+        if (retained.addAndGet(buf.length) > maxRetained) {
+            retained.addAndGet(-buf.length);
+            return;
+        }
+        pools.computeIfAbsent(buf.length, e -> new ConcurrentLinkedQueue<>()).offer(buf);
+    }
+
+    /**
+     * A region of a byte array.
+     */
+    public static final class Slice {
+
+        public final byte[] array;
+        public final int length;
+
+        public Slice(byte[] array, int length) {
+            this.array = array;
+            this.length = length;
+        }
+
+        public static Slice of(byte[] array) {
+            return new Slice(array, array.length);
+        }
+
+        public byte[] toByteArray() {
+            byte[] copy = new byte[length];
+            System.arraycopy(array, 0, copy, 0, length);
+            return copy;
+        }
+    }
+
+    /**
+     * Tracks the arrays taken from the pool for a single installer, returning all of them when closed.
+     * <p>
+     * An Arena is not thread safe.
+     */
+    public final class Arena implements AutoCloseable {
+
+        private final Set<byte[]> outstanding = Collections.newSetFromMap(new IdentityHashMap<>());
+        private long allocatedBytes;
+        private long reusedBytes;
+
+        private Arena() {
+        }
+
+        /**
+         * Takes an array of at least the given size from the pool.
+         *
+         * @param size The minimum size.
+         * @return The array, contents undefined.
+         */
+        public byte[] allocate(int size) {
+            int sizeClass = sizeClass(size);
+            byte[] buf = poll(sizeClass);
+            if (buf != null) {
+                reusedBytes += buf.length;
+            } else {
+                buf = new byte[sizeClass];
+                allocatedBytes += buf.length;
+            }
+            outstanding.add(buf);
+            return buf;
+        }
+
+        /**
+         * Returns an array to the pool early. Arrays not allocated by this arena are ignored.
+         *
+         * @param buf The array.
+         */
+        public void free(byte[] buf) {
+            if (outstanding.remove(buf)) {
+                offer(buf);
+            }
+        }
+
+        /**
+         * Reads the stream fully into a pooled array.
+         *
+         * @param is       The stream.
+         * @param sizeHint The expected size, or {@code -1} if unknown.
+         * @return The slice.
+         */
+        public Slice read(InputStream is, long sizeHint) throws IOException {
+            Staging staging = staging(sizeHint >= 0 && sizeHint < Integer.MAX_VALUE ? (int) sizeHint : 8192);
+            int len;
+            while ((len = is.read(staging.buf, staging.count, staging.buf.length - staging.count)) != -1) {
+                staging.count += len;
+                if (staging.count == staging.buf.length) {
+                    // Probe for EOF before growing, presized reads should fill the buffer exactly.
+                    int next = is.read();
+                    if (next == -1) break;
+                    staging.write(next);
+                }
+            }
+            return staging.toSlice();
+        }
+
+        public Staging staging(int initialSize) {
+            return new Staging(Math.max(initialSize, 1));
+        }
+
+        /**
+         * @return The number of bytes freshly allocated by this arena.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * @return The number of bytes this arena reused from the pool.
+         */
+        public long getReusedBytes() {
+            return reusedBytes;
+        }
+
+        @Override
+        public void close() {
+            for (byte[] buf : outstanding) {
+                offer(buf);
+            }
+            outstanding.clear();
+        }
+
+        /**
+         * An {@link OutputStream} staging data in pooled arrays, replacing {@link java.io.ByteArrayOutputStream}.
+         */
+        public final class Staging extends OutputStream {
+
+            private byte[] buf;
+            private int count;
+
+            private Staging(int initialSize) {
+                buf = allocate(initialSize);
+            }
+
+            private void ensureCapacity(int min) {
+                if (min <= buf.length) return;
+
+                byte[] newBuf = allocate(Math.max(min, buf.length * 2));
+                System.arraycopy(buf, 0, newBuf, 0, count);
+                free(buf);
+                buf = newBuf;
+            }
+
+            @Override
+            public void write(int b) {
+                ensureCapacity(count + 1);
+                buf[count++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                ensureCapacity(count + len);
+                System.arraycopy(b, off, buf, count, len);
+                count += len;
+            }
+
+            public int size() {
+                return count;
+            }
+
+            /**
+             * The staged data. The returned slice remains owned by the arena.
+             *
+             * @return The slice.
+             */
+            public Slice toSlice() {
+                return new Slice(buf, count);
+            }
+        }
+    }
+}
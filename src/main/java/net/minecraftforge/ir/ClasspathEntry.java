@@ -25,7 +25,7 @@ import net.covers1624.quack.maven.MavenNotation;
  * <p>
  * Created by covers1624 on 22/5/21.
  *
- * @see Utils#parseManifestClasspath
+ * @see ManifestClasspath
  */
 public interface ClasspathEntry {
 
@@ -41,6 +41,11 @@ public interface ClasspathEntry {
      */
     String toPath();
 
+    /**
+     * @return A copy of this entry, which can be modified independently.
+     */
+    ClasspathEntry copy();
+
     class LibraryClasspathEntry implements ClasspathEntry {
 
         public boolean modified;
@@ -60,6 +65,13 @@ public interface ClasspathEntry {
             return "libraries/" + notation.toPath();
         }
 
+        @Override
+        public LibraryClasspathEntry copy() {
+            LibraryClasspathEntry copy = new LibraryClasspathEntry(notation);
+            copy.modified = modified;
+            return copy;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -100,6 +112,13 @@ public interface ClasspathEntry {
             return path;
         }
 
+        @Override
+        public StringClasspathEntry copy() {
+            StringClasspathEntry copy = new StringClasspathEntry(path);
+            copy.modified = modified;
+            return copy;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
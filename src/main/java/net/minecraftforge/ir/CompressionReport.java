@@ -0,0 +1,111 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import net.covers1624.quack.maven.MavenNotation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records, for each saved installer, the size and CPU time of the chosen {@link CompressionStrategy}
+ * against the {@link CompressionStrategy#DEFAULT default} strategy, which is measured without being written.
+ */
+public class CompressionReport {
+
+    private final CompressionStrategy strategy;
+    private final Map<String, JsonObject> installers = new ConcurrentSkipListMap<>();
+    private final Metrics totals = new Metrics();
+
+    public CompressionReport(CompressionStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * @param installer  The installer.
+     * @param inputBytes The size of the installer before it was rewritten.
+     * @param stats      The statistics the installer was saved with.
+     * @param baseline   The statistics of the default strategy.
+     */
+    void add(MavenNotation installer, long inputBytes, JarWriter.Stats stats, JarWriter.Stats baseline) {
+        JsonObject json = new JsonObject();
+        json.addProperty("input_bytes", inputBytes);
+        json.addProperty("output_bytes", stats.size);
+        json.addProperty("default_bytes", baseline.size);
+        json.addProperty("saved_bytes", baseline.size - stats.size);
+        json.addProperty("cpu_ms", TimeUnit.NANOSECONDS.toMillis(stats.cpuNanos));
+        json.addProperty("default_cpu_ms", TimeUnit.NANOSECONDS.toMillis(baseline.cpuNanos));
+        json.addProperty("entries", stats.entries);
+        json.addProperty("stored_entries", stats.storedEntries);
+        json.addProperty("uncompressed_bytes", stats.rawBytes);
+        installers.put(installer.toString(), json);
+
+        totals.add("input_bytes", inputBytes);
+        totals.add("output_bytes", stats.size);
+        totals.add("default_bytes", baseline.size);
+        totals.add("cpu_ns", stats.cpuNanos);
+        totals.add("default_cpu_ns", baseline.cpuNanos);
+    }
+
+    public long getSavedBytes() {
+        return totals.get("default_bytes") - totals.get("output_bytes");
+    }
+
+    public long getExtraCpuMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totals.get("cpu_ns") - totals.get("default_cpu_ns"));
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("strategy", strategy.toString());
+
+        JsonObject total = new JsonObject();
+        total.addProperty("installers", installers.size());
+        total.addProperty("input_bytes", totals.get("input_bytes"));
+        total.addProperty("output_bytes", totals.get("output_bytes"));
+        total.addProperty("default_bytes", totals.get("default_bytes"));
+        total.addProperty("saved_bytes", getSavedBytes());
+        total.addProperty("cpu_ms", TimeUnit.NANOSECONDS.toMillis(totals.get("cpu_ns")));
+        total.addProperty("default_cpu_ms", TimeUnit.NANOSECONDS.toMillis(totals.get("default_cpu_ns")));
+        json.add("total", total);
+
+        JsonArray list = new JsonArray();
+        installers.forEach((k, v) -> {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("installer", k);
+            v.entrySet().forEach(e -> entry.add(e.getKey(), e.getValue()));
+            list.add(entry);
+        });
+        json.add("installers", list);
+        return json;
+    }
+
+    public void write(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(Utils.makeParents(file))) {
+            Utils.GSON.toJson(toJson(), writer);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Decides how each entry of a saved installer is compressed.
+ */
+public enum CompressionStrategy {
+    /**
+     * Deflates every entry at the default level, exactly as {@link java.util.jar.JarOutputStream} would.
+     */
+    DEFAULT,
+    /**
+     * Stores entries which are already compressed, or which deflate would not shrink.
+     * Everything else is deflated at the default level.
+     */
+    STORE_COMPRESSED,
+    /**
+     * As {@link #STORE_COMPRESSED}, additionally deflating text and class entries at the maximum level.
+     */
+    MAX;
+
+    // Formats which are compressed themselves, a second deflate pass only costs time.
+    private static final String[] COMPRESSED_EXTENSIONS = {
+            ".jar", ".zip", ".gz", ".xz", ".lzma", ".7z", ".bz2", ".png", ".jpg", ".jpeg", ".gif", ".ico"
+    };
+    private static final byte[][] COMPRESSED_MAGIC = {
+            { 0x50, 0x4B, 0x03, 0x04 },                                 // zip, jar
+            { 0x50, 0x4B, 0x05, 0x06 },                                 // empty zip
+            { 0x1F, (byte) 0x8B },                                      // gzip
+            { (byte) 0xFD, 0x37, 0x7A, 0x58, 0x5A, 0x00 },              // xz
+            { 0x37, 0x7A, (byte) 0xBC, (byte) 0xAF, 0x27, 0x1C },       // 7z
+            { (byte) 0x89, 0x50, 0x4E, 0x47 },                          // png
+            { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF },                  // jpeg
+    };
+    // Text and bytecode, which deflate well and benefit from the slower levels.
+    private static final String[] TEXT_EXTENSIONS = {
+            ".class", ".json", ".txt", ".xml", ".properties", ".MF", ".SF", ".cfg", ".csv", ".srg", ".tsrg", ".html", ".css", ".js"
+    };
+
+    /**
+     * Parses a strategy from its command line name, e.g. {@code store-compressed}.
+     *
+     * @param name The name.
+     * @return The strategy.
+     */
+    public static CompressionStrategy parse(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown compression strategy '" + name + "', expected one of " + Arrays.toString(names()));
+        }
+    }
+
+    public static String[] names() {
+        return Arrays.stream(values()).map(CompressionStrategy::toString).toArray(String[]::new);
+    }
+
+    /**
+     * Creates the {@link JarWriter.Entry} to write the given entry with.
+     *
+     * @param name The entry name.
+     * @param data The entry data, {@code null} for directories.
+     * @param time The entry timestamp.
+     * @return The entry.
+     */
+    JarWriter.Entry entry(String name, @Nullable BufferPool.Slice data, long time) {
+        if (this == DEFAULT)
+            return new JarWriter.Entry(name, data, time);
+
+        if (data == null || data.length == 0 || isCompressed(name, data))
+            return new JarWriter.Entry(name, data, time, ZipEntry.STORED, 0, false);
+
+        int level = this == MAX && endsWithAny(name, TEXT_EXTENSIONS) ? Deflater.BEST_COMPRESSION : Deflater.DEFAULT_COMPRESSION;
+        return new JarWriter.Entry(name, data, time, ZipEntry.DEFLATED, level, true);
+    }
+
+    static boolean isCompressed(String name, BufferPool.Slice data) {
+        if (endsWithAny(name, COMPRESSED_EXTENSIONS))
+            return true;
+        if (endsWithAny(name, TEXT_EXTENSIONS))
+            return false;
+
+        for (byte[] magic : COMPRESSED_MAGIC) {
+            if (startsWith(data, magic))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean endsWithAny(String name, String[] extensions) {
+        for (String ext : extensions) {
+            if (name.regionMatches(true, name.length() - ext.length(), ext, 0, ext.length()))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean startsWith(BufferPool.Slice data, byte[] magic) {
+        if (data.length < magic.length)
+            return false;
+        for (int i = 0; i < magic.length; i++) {
+            if (data.array[i] != magic[i])
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import joptsimple.util.PathConverter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+
+import static java.util.Arrays.asList;
+
+/**
+ * An index of every library referenced by the processed installers.
+ * <p>
+ * For each library, keyed by its maven coordinate, records the installers referencing it, the urls
+ * it is referenced through, its path in the maven layout and whether it exists in the local repository.
+ * Filled concurrently by {@link DependencyLister} during the main pass, exported with {@code --deps-index},
+ * and queried afterwards with the {@code deps} sub-command of {@link InstallerRewriter}.
+ */
+public class DependencyIndex {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    @Nullable
+    private final Path repo;
+    private final Map<String, Library> libraries = new ConcurrentHashMap<>();
+
+    /**
+     * @param repo The local repository to check for artifacts, {@code null} for an index which is only read.
+     */
+    public DependencyIndex(@Nullable Path repo) {
+        this.repo = repo;
+    }
+
+    /**
+     * Records a reference to a library.
+     *
+     * @param coordinate The library's maven coordinate.
+     * @param path       The library's path in the maven layout.
+     * @param installer  The installer referencing it.
+     * @param url        The url it is referenced through, {@code null} if it is implied by the installer.
+     */
+    public void add(String coordinate, String path, String installer, @Nullable String url) {
+        Library library = libraries.computeIfAbsent(coordinate, e -> {
+            boolean local = repo != null && Files.exists(repo.resolve(path));
+            return new Library(path, local);
+        });
+        library.installers.add(installer);
+        if (url != null) {
+            library.urls.add(url);
+        }
+    }
+
+    public Map<String, Library> getLibraries() {
+        return new TreeMap<>(libraries);
+    }
+
+    public void merge(DependencyIndex other) {
+        other.libraries.forEach((k, v) -> {
+            Library library = libraries.computeIfAbsent(k, e -> new Library(v.path, v.local));
+            library.installers.addAll(v.installers);
+            library.urls.addAll(v.urls);
+            // Shards may run against different copies of the repository, present in any is enough.
+            library.local |= v.local;
+        });
+    }
+
+    public JsonObject toJson() {
+        JsonObject libs = new JsonObject();
+        getLibraries().forEach((k, v) -> libs.add(k, v.toJson()));
+        JsonObject json = new JsonObject();
+        json.add("libraries", libs);
+        return json;
+    }
+
+    public static DependencyIndex fromJson(JsonObject json) {
+        DependencyIndex index = new DependencyIndex(null);
+        if (json.has("libraries")) {
+            for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject("libraries").entrySet()) {
+                index.libraries.put(entry.getKey(), Library.fromJson(entry.getValue().getAsJsonObject()));
+            }
+        }
+        return index;
+    }
+
+    public void write(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(Utils.makeParents(file))) {
+            Utils.GSON.toJson(toJson(), writer);
+        }
+    }
+
+    public static DependencyIndex read(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file)) {
+            return fromJson(Utils.GSON.fromJson(reader, JsonObject.class));
+        }
+    }
+
+    public static void main(String[] args) throws Throwable {
+        System.exit(mainI(args));
+    }
+
+    /**
+     * Queries previously exported indexes, printing the matching libraries.
+     */
+    public static int mainI(String[] args) throws Throwable {
+        OptionParser parser = new OptionParser();
+
+        OptionSpec<Void> helpOpt = parser.acceptsAll(asList("h", "help"), "Prints this help.").forHelp();
+
+        OptionSpec<Path> indexOpt = parser.acceptsAll(asList("index"), "An index written by --deps-index. May be repeated, all are merged.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+        OptionSpec<String> libraryOpt = parser.acceptsAll(asList("library"), "Only libraries whose coordinate matches this glob or exact coordinate. May be repeated.")
+                .withRequiredArg();
+        OptionSpec<String> installerOpt = parser.acceptsAll(asList("installer"), "Only libraries referenced by an installer matching this maven range, glob or exact version. May be repeated.")
+                .withRequiredArg();
+        OptionSpec<String> hostOpt = parser.acceptsAll(asList("host"), "Only libraries referenced through a url on this host. May be repeated.")
+                .withRequiredArg();
+        OptionSpec<Void> missingOpt = parser.acceptsAll(asList("missing"), "Only libraries which do not exist in the local repository.");
+        OptionSpec<Void> pathsOpt = parser.acceptsAll(asList("paths"), "Only print the maven paths of matching libraries, e.g. for mirroring.");
+        OptionSpec<Void> jsonOpt = parser.acceptsAll(asList("json"), "Print matching libraries as json.");
+
+        OptionSet optSet = parser.parse(args);
+        if (optSet.has(helpOpt)) {
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+
+        if (!optSet.has(indexOpt)) {
+            LOGGER.error("Expected at least one --index argument.");
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+
+        VersionFilter libraryFilter;
+        VersionFilter installerFilter;
+        try {
+            libraryFilter = VersionFilter.parse(optSet.valuesOf(libraryOpt));
+            installerFilter = VersionFilter.parse(optSet.valuesOf(installerOpt));
+        } catch (IllegalArgumentException e) {
+            LOGGER.error(e.getMessage());
+            return -1;
+        }
+        Set<String> hosts = optSet.valuesOf(hostOpt).stream().map(String::toLowerCase).collect(Collectors.toSet());
+        boolean missing = optSet.has(missingOpt);
+
+        DependencyIndex index = new DependencyIndex(null);
+        for (Path file : optSet.valuesOf(indexOpt)) {
+            index.merge(read(file));
+        }
+
+        JsonObject json = new JsonObject();
+        int matched = 0;
+        for (Map.Entry<String, Library> entry : index.getLibraries().entrySet()) {
+            Library library = entry.getValue();
+            if (!libraryFilter.test(entry.getKey())) continue;
+            if (missing && library.local) continue;
+            if (!installerFilter.isEmpty() && library.installers.stream().map(DependencyIndex::version).noneMatch(installerFilter)) continue;
+            if (!hosts.isEmpty() && library.urls.stream().map(DependencyIndex::host).noneMatch(hosts::contains)) continue;
+
+            matched++;
+            if (optSet.has(jsonOpt)) {
+                json.add(entry.getKey(), library.toJson());
+            } else if (optSet.has(pathsOpt)) {
+                System.out.println(library.path);
+            } else {
+                System.out.println(entry.getKey() + (library.local ? "" : " (missing)") + " referenced by " + library.installers.size() + " installers");
+                for (String url : library.urls) {
+                    System.out.println("  " + url);
+                }
+            }
+        }
+        if (optSet.has(jsonOpt)) {
+            System.out.println(Utils.GSON.toJson(json));
+        }
+        LOGGER.info("{} of {} libraries matched.", matched, index.libraries.size());
+        return 0;
+    }
+
+    // Installers are recorded as 'group:module:version'.
+    private static String version(String installer) {
+        return installer.substring(installer.lastIndexOf(':') + 1);
+    }
+
+    @Nullable
+    private static String host(String url) {
+        try {
+            return new URL(url).getHost().toLowerCase();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    public static class Library {
+
+        public final String path;
+        private volatile boolean local;
+        private final Set<String> installers = new ConcurrentSkipListSet<>();
+        private final Set<String> urls = new ConcurrentSkipListSet<>();
+
+        private Library(String path, boolean local) {
+            this.path = path;
+            this.local = local;
+        }
+
+        public boolean isLocal() {
+            return local;
+        }
+
+        public Collection<String> getInstallers() {
+            return installers;
+        }
+
+        public Collection<String> getUrls() {
+            return urls;
+        }
+
+        private JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("path", path);
+            json.addProperty("local", local);
+            JsonArray urls = new JsonArray();
+            this.urls.forEach(urls::add);
+            json.add("urls", urls);
+            JsonArray installers = new JsonArray();
+            this.installers.forEach(installers::add);
+            json.add("installers", installers);
+            return json;
+        }
+
+        private static Library fromJson(JsonObject json) {
+            Library library = new Library(Utils.getAsString(json, "path"), json.has("local") && json.get("local").getAsBoolean());
+            if (json.has("urls")) {
+                json.getAsJsonArray("urls").forEach(e -> library.urls.add(e.getAsString()));
+            }
+            if (json.has("installers")) {
+                json.getAsJsonArray("installers").forEach(e -> library.installers.add(e.getAsString()));
+            }
+            return library;
+        }
+    }
+}
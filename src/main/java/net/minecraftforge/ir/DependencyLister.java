@@ -19,39 +19,120 @@
 package net.minecraftforge.ir;
 
 import static net.minecraftforge.ir.InstallerRewriter.FORGE_MAVEN;
-import static net.minecraftforge.ir.InstallerRewriter.OLD_FORGE_MAVEN;
+import static net.minecraftforge.ir.Utils.getAsInt;
 import static net.minecraftforge.ir.Utils.getAsString;
 
+import java.util.EnumSet;
 import java.util.Set;
 
+import org.jetbrains.annotations.Nullable;
+
 import com.google.gson.JsonObject;
 
 import net.covers1624.quack.maven.MavenNotation;
 
-class DependencyLister extends MavenUrlProcessor {
+/**
+ * Lists the Forge maven dependencies of installers, and adds every library to the {@link DependencyIndex}.
+ * <p>
+ * Never changes the documents. Dependencies are listed as if {@link MavenUrlProcessor} had run,
+ * the index records urls as the installer holds them, so after {@link MavenUrlProcessor} when both run.
+ */
+class DependencyLister implements LibraryProcessor {
+    private static final Set<LibraryPass.Document> READS = EnumSet.allOf(LibraryPass.Document.class);
+    private static final Set<LibraryPass.Document> WRITES = EnumSet.noneOf(LibraryPass.Document.class);
+
     private final Set<String> deps;
+    @Nullable
+    private final DependencyIndex index;
     DependencyLister(Set<String> deps) {
+        this(deps, null);
+    }
+
+    DependencyLister(Set<String> deps, @Nullable DependencyIndex index) {
         this.deps = deps;
+        this.index = index;
     }
 
     @Override
-    protected boolean rewriteUrl(MavenNotation notation, JsonObject json) {
-        if (!json.has("url"))
+    public Set<LibraryPass.Document> getReads() {
+        return READS;
+    }
+
+    @Override
+    public Set<LibraryPass.Document> getWrites() {
+        return WRITES;
+    }
+
+    @Override
+    public void register(LibraryPass.Traversal traversal) {
+        if (traversal.getFormat() == InstallerFormat.V2 && getAsInt(traversal.getProfile(), "spec") != 0)
+            return;
+
+        MavenNotation installer = traversal.getInstaller();
+        traversal.onUrl(json -> {
+            addDependency(json);
             return false;
+        });
+        if (index != null) {
+            traversal.onLibrary(lib -> {
+                indexLibrary(installer, lib);
+                return false;
+            });
+        }
+    }
 
-        String url = getAsString(json, "url");
+    private void indexLibrary(MavenNotation installer, JsonObject lib) {
+        String name = getAsString(lib, "name", null);
+        if (name == null)
+            return;
+        name = MavenUrlProcessor.fixName(name);
+
+        MavenNotation notation = MavenNotation.parse(name);
+        String owner = installer.group + ':' + installer.module + ':' + installer.version;
+        boolean referenced = false;
+
+        String url = getAsString(lib, "url", null);
+        if (url != null && !url.isEmpty()) {
+            // Legacy libraries name the repository, not the artifact.
+            index.add(name, notation.toPath(), owner, url.endsWith("/") ? url + notation.toPath() : url);
+            referenced = true;
+        }
+        JsonObject downloads = lib.has("downloads") ? lib.getAsJsonObject("downloads") : null;
+        if (downloads != null && downloads.has("artifact")) {
+            referenced |= addDownload(name, notation, owner, downloads.getAsJsonObject("artifact"));
+        }
+        if (downloads != null && downloads.has("classifiers")) {
+            JsonObject classifiers = downloads.getAsJsonObject("classifiers");
+            for (String key : classifiers.keySet()) {
+                MavenNotation classified = notation.withClassifier(key);
+                addDownload(classified.toString(), classified, owner, classifiers.getAsJsonObject(key));
+            }
+        }
+        // Without any url, the launcher resolves it from Mojang's maven.
+        if (!referenced)
+            index.add(name, notation.toPath(), owner, null);
+    }
+
+    private boolean addDownload(String coordinate, MavenNotation notation, String owner, JsonObject download) {
+        String url = getAsString(download, "url", null);
         if (url == null || url.isEmpty())
             return false;
+        index.add(coordinate, getAsString(download, "path", notation.toPath()), owner, url);
+        return true;
+    }
 
-        if (url.startsWith("http://"))
-            url = "https://" + url.substring(7);
+    private void addDependency(JsonObject json) {
+        if (!json.has("url"))
+            return;
 
-        if (url.startsWith(OLD_FORGE_MAVEN))
-            url = FORGE_MAVEN + url.substring(OLD_FORGE_MAVEN.length());
+        String url = getAsString(json, "url");
+        if (url == null || url.isEmpty())
+            return;
 
+        url = InstallerV2Processor.rewriteUrl(url);
         if (url.startsWith(FORGE_MAVEN)) {
             if ("https://maven.minecraftforge.net/".equals(url)) {
-                String name = getAsString(json, "name");
+                String name = MavenUrlProcessor.fixName(getAsString(json, "name"));
 
                 if (!name.startsWith("net.minecraftforge:forge:") &&
                     !name.startsWith("net.minecraftforge:minecraftforge:"))
@@ -71,12 +152,5 @@ class DependencyLister extends MavenUrlProcessor {
                 deps.add(group + ':' + name + ':' + ver);
             }
         }
-
-        return false;
     }
-
-    @Override
-    protected void writeProfile(JarContents content, JsonObject install, MavenNotation notation) {}
-    @Override
-    protected void writeVersion(JarContents content, String name, JsonObject version) {}
 }
@@ -0,0 +1,168 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.gson.JsonObject;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import joptsimple.util.PathConverter;
+import joptsimple.util.PathProperties;
+import net.covers1624.quack.maven.MavenNotation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Counts the installer formats of every selected version, without loading the installers.
+ * <p>
+ * Only the install profile of each installer is inflated, and only its top level keys are read,
+ * see {@link InstallerFormat#detectInstallerFormat(java.io.File)}.
+ */
+public class FormatCensus {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String MISSING = "MISSING";
+    private static final String UNKNOWN = "UNKNOWN";
+
+    public static void main(String[] args) throws Throwable {
+        System.exit(mainI(args));
+    }
+
+    public static int mainI(String[] args) throws Throwable {
+        OptionParser parser = new OptionParser();
+
+        OptionSpec<Void> helpOpt = parser.acceptsAll(asList("h", "help"), "Prints this help.").forHelp();
+
+        OptionSpec<Path> repoPathOpt = parser.acceptsAll(asList("r", "repo"), "The repository path on disk.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter(PathProperties.DIRECTORY_EXISTING));
+        OptionSpec<String> modulesOpt = parser.acceptsAll(asList("module"), "The modules to count, either 'group:module' or a module within net.minecraftforge. May be repeated. Defaults to forge.")
+                .withRequiredArg();
+        OptionSpec<String> versionsOpt = parser.acceptsAll(asList("versions"), "Only count versions matching this maven range, glob or exact version. May be repeated.")
+                .withRequiredArg();
+        OptionSpec<Integer> threadsOpt = parser.acceptsAll(asList("threads"), "The number of installers read concurrently.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSpec<Path> outputOpt = parser.acceptsAll(asList("o", "output"), "Writes the format of every version to this json file.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+        OptionSpec<Path> shardWeightsOpt = parser.acceptsAll(asList("shard-weights"), "Writes the installer size of every version to this json file, shared by every --shard of a run.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+
+        OptionSet optSet = parser.parse(args);
+        if (optSet.has(helpOpt)) {
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+
+        if (!optSet.has(repoPathOpt)) {
+            LOGGER.error("Expected --repo argument.");
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+        Path repoPath = optSet.valueOf(repoPathOpt);
+
+        List<MavenNotation> modules = optSet.valuesOf(modulesOpt).stream()
+                .map(VersionScanner::parseModule)
+                .collect(Collectors.toList());
+        if (modules.isEmpty()) {
+            modules.add(VersionScanner.FORGE);
+        }
+        VersionFilter filter;
+        try {
+            filter = VersionFilter.parse(optSet.valuesOf(versionsOpt));
+        } catch (IllegalArgumentException e) {
+            LOGGER.error(e.getMessage());
+            return -1;
+        }
+
+        long start = System.nanoTime();
+        List<MavenNotation> versions = new VersionScanner(repoPath, modules, filter).scan();
+        LOGGER.info("Detecting the format of {} installers..", versions.size());
+        Map<MavenNotation, String> formats = detect(repoPath, versions, optSet.valueOf(threadsOpt));
+
+        Map<String, Integer> counts = new TreeMap<>();
+        formats.values().forEach(e -> counts.merge(e, 1, Integer::sum));
+        LOGGER.info("Counted {} versions in {}ms:", formats.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        counts.forEach((format, count) -> LOGGER.info("  {}: {}", format, count));
+
+        if (optSet.has(outputOpt)) {
+            JsonObject json = new JsonObject();
+            formats.forEach((notation, format) -> json.addProperty(notation.toString(), format));
+            try (Writer writer = Files.newBufferedWriter(Utils.makeParents(optSet.valueOf(outputOpt)))) {
+                Utils.GSON.toJson(json, writer);
+            }
+        }
+        if (optSet.has(shardWeightsOpt)) {
+            Shard.writeWeights(Shard.snapshotWeights(versions, repoPath), optSet.valueOf(shardWeightsOpt));
+        }
+        return 0;
+    }
+
+    /**
+     * @param repo     The repository.
+     * @param versions The versions.
+     * @param threads  The number of installers read concurrently.
+     * @return The format name of each version, in order, or {@link #MISSING} / {@link #UNKNOWN}.
+     */
+    private static Map<MavenNotation, String> detect(Path repo, List<MavenNotation> versions, int threads) throws InterruptedException {
+        ExecutorService executor = IOExecutors.newBounded("Census", threads);
+        try {
+            List<Future<String>> futures = new ArrayList<>(versions.size());
+            for (MavenNotation version : versions) {
+                futures.add(executor.submit(() -> {
+                    Path installer = version.withClassifier("installer").toPath(repo);
+                    if (Files.notExists(installer)) return MISSING;
+
+                    InstallerFormat format = InstallerFormat.detectInstallerFormat(installer.toFile());
+                    return format != null ? format.name() : UNKNOWN;
+                }));
+            }
+            Map<MavenNotation, String> formats = new LinkedHashMap<>();
+            for (int i = 0; i < versions.size(); i++) {
+                try {
+                    formats.put(versions.get(i), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            return formats;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent histogram of non-negative values, with a fixed footprint.
+ * <p>
+ * Values below 16 are exact, larger values fall into one of 16 buckets per power of two,
+ * so reported percentiles are within about 6% of the recorded value.
+ * Histograms merge exactly, like the other {@link Metrics}.
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        value = Math.max(0, value);
+        buckets.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        min.accumulateAndGet(value, Math::min);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public void merge(Histogram other) {
+        if (other.count.get() == 0) return;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.buckets.get(i);
+            if (c != 0) {
+                buckets.addAndGet(i, c);
+            }
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        min.accumulateAndGet(other.min.get(), Math::min);
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMin() {
+        return count.get() == 0 ? 0 : min.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100.
+     * @return The upper bound of the bucket holding the percentile, capped to the largest recorded value.
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100D));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("count", getCount());
+        json.addProperty("min", getMin());
+        json.addProperty("max", getMax());
+        json.addProperty("mean", count.get() == 0 ? 0 : sum.get() / count.get());
+        json.addProperty("p50", getPercentile(50));
+        json.addProperty("p90", getPercentile(90));
+        json.addProperty("p99", getPercentile(99));
+        json.addProperty("p999", getPercentile(99.9));
+        json.addProperty("sum", getSum());
+        // Keyed by the smallest value of each bucket.
+        JsonObject buckets = new JsonObject();
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = this.buckets.get(i);
+            if (c != 0) {
+                buckets.addProperty(Long.toString(lowerBound(i)), c);
+            }
+        }
+        json.add("buckets", buckets);
+        return json;
+    }
+
+    public static Histogram fromJson(JsonObject json) {
+        Histogram histogram = new Histogram();
+        if (json.has("buckets")) {
+            for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject("buckets").entrySet()) {
+                histogram.buckets.addAndGet(index(Long.parseLong(entry.getKey())), entry.getValue().getAsLong());
+            }
+        }
+        histogram.count.set(Utils.getAsLong(json, "count", 0));
+        histogram.sum.set(Utils.getAsLong(json, "sum", 0));
+        histogram.max.set(Utils.getAsLong(json, "max", 0));
+        if (histogram.count.get() != 0) {
+            histogram.min.set(Utils.getAsLong(json, "min", 0));
+        }
+        return histogram;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        int exp = index / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exp - SUB_BITS);
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        int exp = index / SUB_BUCKETS + SUB_BITS - 1;
+        return lowerBound(index) + (1L << (exp - SUB_BITS)) - 1;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per host network telemetry of every call made through {@link Utils#HTTP_CLIENT}.
+ * <p>
+ * Records DNS, connect, time to first byte and total call time histograms, bytes in and out
+ * (headers and bodies), status codes, retries, failures and how often conditional requests were answered with a 304.
+ * Summarized with {@link #logSummary} and added to the run's {@link Metrics} by {@link #export},
+ * at the end of a run.
+ */
+public class HttpTelemetry implements EventListener.Factory {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    @Override
+    public EventListener create(Call call) {
+        return new Listener(host(call.request().url()));
+    }
+
+    /**
+     * Adds everything recorded so far to the given metrics, as {@code http.<metric>.<host>}.
+     *
+     * @param metrics The metrics.
+     */
+    public void export(Metrics metrics) {
+        hosts.forEach((name, host) -> {
+            metrics.add("http.calls." + name, host.calls.get());
+            metrics.add("http.failures." + name, host.failures.get());
+            metrics.add("http.retries." + name, host.retries.get());
+            metrics.add("http.bytes_in." + name, host.bytesIn.get());
+            metrics.add("http.bytes_out." + name, host.bytesOut.get());
+            metrics.add("http.conditional." + name, host.conditional.get());
+            metrics.add("http.conditional_hits." + name, host.conditionalHits.get());
+            host.statuses.forEach((status, count) -> metrics.add("http.status." + status + "." + name, count.get()));
+            metrics.getHistogram("http.dns_ms." + name).merge(host.dns);
+            metrics.getHistogram("http.connect_ms." + name).merge(host.connect);
+            metrics.getHistogram("http.ttfb_ms." + name).merge(host.ttfb);
+            metrics.getHistogram("http.total_ms." + name).merge(host.total);
+        });
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset() {
+        hosts.clear();
+    }
+
+    public void logSummary() {
+        if (hosts.isEmpty()) return;
+
+        LOGGER.info("Network summary:");
+        new TreeMap<>(hosts).forEach((name, host) -> {
+            long conditional = host.conditional.get();
+            LOGGER.info("  {}: {} calls, {} failed, {} retries, {}KB in, {}KB out, statuses {}",
+                    name, host.calls.get(), host.failures.get(), host.retries.get(),
+                    host.bytesIn.get() / 1024, host.bytesOut.get() / 1024, new TreeMap<>(host.statuses));
+            LOGGER.info("  {}: total p50 {}ms p99 {}ms, ttfb p50 {}ms p99 {}ms, connect p50 {}ms ({} connections), dns p50 {}ms, conditional hits {}/{}",
+                    name, host.total.getPercentile(50), host.total.getPercentile(99),
+                    host.ttfb.getPercentile(50), host.ttfb.getPercentile(99),
+                    host.connect.getPercentile(50), host.connect.getCount(),
+                    host.dns.getPercentile(50), host.conditionalHits.get(), conditional);
+        });
+    }
+
+    private Host host(HttpUrl url) {
+        // Only non default ports are named, e.g. a local maven.
+        String name = url.port() == HttpUrl.defaultPort(url.scheme()) ? url.host() : url.host() + ":" + url.port();
+        return hosts.computeIfAbsent(name, e -> new Host());
+    }
+
+    private static long millis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static class Host {
+
+        private final Histogram dns = new Histogram();
+        private final Histogram connect = new Histogram();
+        private final Histogram ttfb = new Histogram();
+        private final Histogram total = new Histogram();
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong bytesIn = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+        private final AtomicLong conditional = new AtomicLong();
+        private final AtomicLong conditionalHits = new AtomicLong();
+        private final Map<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * The state of a single call. OkHttp delivers a call's events sequentially.
+     */
+    private class Listener extends EventListener {
+
+        private final Host host;
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long requestStart;
+        private boolean conditional;
+        // An attempt failed, the next one is a retry.
+        private boolean attemptFailed;
+
+        private Listener(Host host) {
+            this.host = host;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            callStart = System.nanoTime();
+            host.calls.incrementAndGet();
+            Request request = call.request();
+            conditional = request.header("If-Modified-Since") != null || request.header("If-None-Match") != null;
+            if (conditional) {
+                host.conditional.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            host.dns.record(millis(dnsStart));
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            retry();
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, @Nullable Protocol protocol) {
+            host.connect.record(millis(connectStart));
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, @Nullable Protocol protocol, IOException ioe) {
+            attemptFailed = true;
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            retry();
+            requestStart = System.nanoTime();
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            host.bytesOut.addAndGet(request.headers().byteCount());
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            host.bytesOut.addAndGet(byteCount);
+        }
+
+        @Override
+        public void requestFailed(Call call, IOException ioe) {
+            attemptFailed = true;
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            host.ttfb.record(millis(requestStart));
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            host.bytesIn.addAndGet(response.headers().byteCount());
+            host.statuses.computeIfAbsent(response.code(), e -> new AtomicLong()).incrementAndGet();
+            if (conditional && response.code() == 304) {
+                host.conditionalHits.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            host.bytesIn.addAndGet(byteCount);
+        }
+
+        @Override
+        public void responseFailed(Call call, IOException ioe) {
+            attemptFailed = true;
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            host.total.record(millis(callStart));
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            host.failures.incrementAndGet();
+            host.total.record(millis(callStart));
+        }
+
+        private void retry() {
+            if (attemptFailed) {
+                attemptFailed = false;
+                host.retries.incrementAndGet();
+            }
+        }
+    }
+}
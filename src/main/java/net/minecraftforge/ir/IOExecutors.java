@@ -0,0 +1,75 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for blocking network, file and process I/O, kept off the common pool.
+ * <p>
+ * This copy is used on Java 8 through 20 and runs tasks on daemon platform threads.
+ * The copy in {@code src/java21} replaces it on Java 21 and above, and runs each task on a virtual thread.
+ */
+public final class IOExecutors {
+
+    private static final ExecutorService IO = Executors.newCachedThreadPool(factory("IO"));
+
+    private IOExecutors() {
+    }
+
+    /**
+     * A shared executor, for I/O tasks which are not limited in number, e.g. pumping the output of a process.
+     *
+     * @return The executor.
+     */
+    public static ExecutorService io() {
+        return IO;
+    }
+
+    /**
+     * An executor which runs at most {@code concurrency} tasks at once.
+     * It must be shut down once no longer needed.
+     *
+     * @param name        The name of its threads.
+     * @param concurrency The number of tasks run at once.
+     * @return The executor.
+     */
+    public static ExecutorService newBounded(String name, int concurrency) {
+        return Executors.newFixedThreadPool(concurrency, factory(name));
+    }
+
+    /**
+     * @return If tasks are run on virtual threads.
+     */
+    public static boolean isVirtual() {
+        return false;
+    }
+
+    private static ThreadFactory factory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
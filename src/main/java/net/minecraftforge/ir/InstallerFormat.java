@@ -18,14 +18,22 @@
  */
 package net.minecraftforge.ir;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
 /**
  * Created by covers1624 on 30/4/21.
  */
@@ -34,19 +42,78 @@ public enum InstallerFormat {
     V1,
     ;
     private static final Logger LOGGER = LogManager.getLogger();
+    private static final String PROFILE = "install_profile.json";
 
+    /**
+     * Detects the format of a loaded installer.
+     * A malformed install profile throws a {@link JsonSyntaxException}, as parsing it with Gson would.
+     *
+     * @param jar The installer.
+     * @return The format, or {@code null} if it has no install profile or reading it failed.
+     */
     public static InstallerFormat detectInstallerFormat(JarContents jar) {
-        try (InputStream is = jar.getInput("install_profile.json")) {
+        try (InputStream is = jar.getInput(PROFILE)) {
             if (is == null)
                 return null;
 
-            @SuppressWarnings("unchecked")
-            Map<String, ?> map = Utils.GSON.fromJson(new InputStreamReader(is), Map.class);
-
-            return map.containsKey("install") && map.containsKey("versionInfo") ? V1 : V2;
+            return detect(is);
         } catch (IOException e) {
             LOGGER.error("Failed to parse install_profile.json", e);
             return null;
         }
     }
+
+    /**
+     * Detects the format of an installer jar on disk, only inflating {@code install_profile.json}.
+     * Unlike {@link #detectInstallerFormat(JarContents)}, a malformed install profile is logged and returns {@code null},
+     * so a census counts it instead of failing.
+     *
+     * @param jar The installer jar.
+     * @return The format, or {@code null} if it has no readable install profile.
+     */
+    public static InstallerFormat detectInstallerFormat(File jar) {
+        try (ZipFile zf = new ZipFile(jar)) {
+            ZipEntry entry = zf.getEntry(PROFILE);
+            if (entry == null)
+                return null;
+
+            try (InputStream is = zf.getInputStream(entry)) {
+                return detect(is);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to parse install_profile.json of {}", jar, e);
+            return null;
+        }
+    }
+
+    /**
+     * Detects the format from the top level keys of an install profile, without building the json tree.
+     * V1 profiles list {@code install} before the embedded {@code versionInfo}, so reading stops before it.
+     *
+     * @param is The install profile.
+     * @return The format.
+     * @throws JsonSyntaxException If the install profile is not a json object.
+     */
+    static InstallerFormat detect(InputStream is) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        // Matches Gson.fromJson.
+        reader.setLenient(true);
+        try {
+            reader.beginObject();
+            boolean install = false;
+            boolean versionInfo = false;
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                install |= name.equals("install");
+                versionInfo |= name.equals("versionInfo");
+                if (install && versionInfo)
+                    return V1;
+                reader.skipValue();
+            }
+            return V2;
+        } catch (MalformedJsonException | EOFException | IllegalStateException e) {
+            // Gson reports these as syntax errors, rather than I/O errors.
+            throw new JsonSyntaxException(e);
+        }
+    }
 }
@@ -25,6 +25,7 @@ import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import joptsimple.util.PathConverter;
+import joptsimple.util.PathProperties;
 import net.covers1624.quack.io.IOUtils;
 import net.covers1624.quack.maven.MavenNotation;
 import net.covers1624.quack.util.JavaPathUtils;
@@ -34,7 +35,6 @@ import okhttp3.Request;
 import okhttp3.Response;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.maven.artifact.versioning.ComparableVersion;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
@@ -44,7 +44,11 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.*;
 import java.nio.file.attribute.FileTime;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static java.util.Arrays.asList;
@@ -58,7 +62,8 @@ public class InstallerRewriter {
 
     public static final Logger LOGGER = LogManager.getLogger();
 
-    public static final URL VERSION_MANIFEST = sneaky(() -> new URL("https://launchermeta.mojang.com/mc/game/version_manifest.json"));
+    // May be overridden to benchmark or test against a local copy, see LocalMavenServer in src/bench.
+    public static final URL VERSION_MANIFEST = sneaky(() -> new URL(System.getProperty("ir.version_manifest", "https://launchermeta.mojang.com/mc/game/version_manifest.json")));
 
     public static final String FORGE_MAVEN = "https://maven.minecraftforge.net/";
     public static final String OLD_FORGE_MAVEN = "https://files.minecraftforge.net/maven/";
@@ -70,6 +75,11 @@ public class InstallerRewriter {
     // If this system property is provided, InstallerRewriter will favor using this repository over
     // the Mojang and Forge mavens. This is intended purely for running installers with the InstallerTester sub-program.
     public static final String FORCED_MAVEN = System.getProperty("ir.forced_maven");
+    // If this system property is provided, everything requested from the Forge and Mojang mavens is fetched from this repository
+    // instead, the urls written to installers are unchanged. This is intended for benchmarking against the LocalMavenServer in src/bench.
+    public static final String MIRROR_MAVEN = Optional.ofNullable(System.getProperty("ir.mirror_maven"))
+            .map(e -> e.endsWith("/") ? e : e + "/")
+            .orElse(null);
     public static final String[] MAVENS = SneakyUtils.sneaky(() -> {
         List<String> mavens = new ArrayList<>();
         if (FORCED_MAVEN != null) {
@@ -93,13 +103,15 @@ public class InstallerRewriter {
 
     public static final Path RUN_DIR = Paths.get(".").toAbsolutePath().normalize();
     public static final Path CACHE_DIR = RUN_DIR.resolve("cache");
+    // The repository each V1 library was found in, kept across runs.
+    public static final RepositoryDecisions REPOSITORY_DECISIONS = new RepositoryDecisions(CACHE_DIR.resolve("repository_decisions.json"), MAVENS);
 
     private static final Map<InstallerFormat, InstallerProcessor> PROCESSORS = ImmutableMap.of(
             InstallerFormat.V1, new InstallerV1Processor(),
             InstallerFormat.V2, new InstallerV2Processor()
     );
 
-    private static final List<MultiHasher.HashFunc> HASH_FUNCS = Arrays.asList(
+    static final List<MultiHasher.HashFunc> HASH_FUNCS = Arrays.asList(
             MultiHasher.HashFunc.MD5,
             MultiHasher.HashFunc.SHA1,
             MultiHasher.HashFunc.SHA256,
@@ -107,13 +119,37 @@ public class InstallerRewriter {
     );
 
     //Speeeeeeed.
-    private static final Map<String, Boolean> recentHeadRequests = new HashMap<>();
+    private static final Map<String, Boolean> recentHeadRequests = new ConcurrentHashMap<>();
+
+    public static final Metrics METRICS = new Metrics();
+
+    // Set by RewriteDaemon, state which is expensive to load is then kept between runs.
+    static volatile boolean resident;
+    @Nullable
+    private static InstallerUpdater residentUpdater;
 
     public static void main(String[] args) throws Throwable {
         System.exit(mainI(args));
     }
 
     public static int mainI(String[] args) throws Throwable {
+        if (args.length > 0 && args[0].equals("merge")) {
+            return ShardMerger.mainI(Arrays.copyOfRange(args, 1, args.length));
+        }
+        if (args.length > 0 && args[0].equals("deps")) {
+            return DependencyIndex.mainI(Arrays.copyOfRange(args, 1, args.length));
+        }
+        if (args.length > 0 && args[0].equals("prefetch")) {
+            return Prefetcher.mainI(Arrays.copyOfRange(args, 1, args.length));
+        }
+        if (args.length > 0 && args[0].equals("census")) {
+            return FormatCensus.mainI(Arrays.copyOfRange(args, 1, args.length));
+        }
+
+        if (args.length > 0 && args[0].equals("daemon")) {
+            return RewriteDaemon.mainI(Arrays.copyOfRange(args, 1, args.length));
+        }
+
         OptionParser parser = new OptionParser();
 
         OptionSpec<Void> helpOpt = parser.acceptsAll(asList("h", "help"), "Prints this help.").forHelp();
@@ -166,12 +202,96 @@ public class InstallerRewriter {
         OptionSpec<Void> updateInstallerOpt = parser.acceptsAll(asList("update-installer"), "Updates the installer's executible code to the latest version for the major version used."); // Stupid name...
         OptionSpec<Void> convert1To2Opt     = parser.acceptsAll(asList("convert-legacy"), "Attempts to convert the legacy 1.x installer data to 2.x compatible version");
 
+        // Compression:
+        OptionSpec<String> compressionOpt = parser.acceptsAll(asList("compression"), "How saved installers are compressed, one of " + Arrays.toString(CompressionStrategy.names()) + ". 'store-compressed' stores already compressed entries, 'max' additionally deflates text and classes at the maximum level.")
+                .withRequiredArg()
+                .defaultsTo(CompressionStrategy.DEFAULT.toString());
+        OptionSpec<Path> compressionReportOpt = parser.acceptsAll(asList("compression-report"), "The file to write the per installer size and CPU time of --compression, compared to the default, to.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+
+        // Version selection:
+        OptionSpec<String> modulesOpt = parser.acceptsAll(asList("module"), "The modules to process, either 'group:module' or a module within net.minecraftforge. May be repeated. Defaults to forge.")
+                .withRequiredArg();
+        OptionSpec<String> versionsOpt = parser.acceptsAll(asList("versions"), "Only process versions matching this maven range (e.g. '[1.12.2-14.23.5.2800,)'), glob (e.g. '1.16.5-*') or exact version. May be repeated.")
+                .withRequiredArg();
+        OptionSpec<String> shardOpt = parser.acceptsAll(asList("shard"), "Only process shard 'i' of 'N' ('i/N', 1 based) of the selected versions. Shards are deterministic across machines, as long as the repository's version folders do not change between their scans.")
+                .withRequiredArg();
+        OptionSpec<Path> shardWeightsOpt = parser.acceptsAll(asList("shard-weights"), "Balances --shard by the installer sizes in this file, written by 'census --shard-weights' before any shard runs. Otherwise every version weighs the same.")
+                .availableIf(shardOpt)
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter(PathProperties.FILE_EXISTING));
+
+        OptionSpec<Path> queueOpt = parser.acceptsAll(asList("queue"), "A directory, possibly on a shared filesystem, used as a work queue between several concurrent InstallerRewriter processes.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+        OptionSpec<Integer> leaseTimeOpt = parser.acceptsAll(asList("lease-time"), "The number of seconds a --queue lease is valid for without a heartbeat.")
+                .availableIf(queueOpt)
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(300);
+
+        OptionSpec<Void> watchOpt = parser.acceptsAll(asList("watch"), "Instead of processing existing versions, waits for new or re-uploaded versions to be published and processes each once its installer and checksums are complete. Runs until stopped.");
+        OptionSpec<Integer> watchPollOpt = parser.acceptsAll(asList("watch-poll"), "Lists the module folders every this many seconds for --watch, instead of watching for changes. For network filesystems.")
+                .availableIf(watchOpt)
+                .withRequiredArg()
+                .ofType(Integer.class);
+        OptionSpec<Long> watchSettleOpt = parser.acceptsAll(asList("watch-settle"), "The milliseconds a new installer and its checksums must be unchanged for, before --watch processes it.")
+                .availableIf(watchOpt)
+                .withRequiredArg()
+                .ofType(Long.class)
+                .defaultsTo(2000L);
+
+        // Concurrency:
+        OptionSpec<Integer> threadsOpt = parser.acceptsAll(asList("threads"), "The number of versions to process concurrently.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(1);
+        OptionSpec<Long> heapBudgetOpt = parser.acceptsAll(asList("heap-budget"), "The estimated heap, in megabytes, concurrently processed installers may use. Defaults to 60% of the max heap.")
+                .withRequiredArg()
+                .ofType(Long.class);
+
+        // Outputs:
+        OptionSpec<Path> depsOutputOpt = parser.acceptsAll(asList("deps-output"), "The file to write the list of Forge maven dependencies to, otherwise printed.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+        OptionSpec<Path> depsIndexOpt = parser.acceptsAll(asList("deps-index"), "The file to write an index of every referenced library to, queried with the 'deps' sub-command.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+        OptionSpec<Path> metricsOutputOpt = parser.acceptsAll(asList("metrics"), "The file to write run metrics to.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+        OptionSpec<Path> traceOpt = parser.acceptsAll(asList("trace"), "The file to write a Chrome trace-event timeline of processing to, viewable in Perfetto or chrome://tracing.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+
         OptionSet optSet = parser.parse(args);
         if (optSet.has(helpOpt)) {
             parser.printHelpOn(System.err);
             return -1;
         }
 
+        if (optSet.valueOf(threadsOpt) < 1) {
+            LOGGER.error("--threads must be at least 1.");
+            return -1;
+        }
+
+        if (optSet.has(shardOpt) && optSet.has(queueOpt)) {
+            LOGGER.error("--shard and --queue can not be used together.");
+            return -1;
+        }
+
+        boolean watch = optSet.has(watchOpt);
+        if (watch && (optSet.has(shardOpt) || optSet.has(queueOpt))) {
+            LOGGER.error("--watch can not be used with --shard or --queue.");
+            return -1;
+        }
+        if (watch && optSet.has(traceOpt)) {
+            // A trace is only complete once closed, which a watch never is.
+            LOGGER.error("--watch can not be used with --trace.");
+            return -1;
+        }
+
         boolean dryRun = optSet.has(dryRunOpt);
         boolean inPlace = optSet.has(inPlaceOpt);
 
@@ -224,179 +344,426 @@ public class InstallerRewriter {
         }
         InstallerUpdater instUpdater = null;
         if (!dryRun && optSet.has(updateInstallerOpt)) {
-            instUpdater = new InstallerUpdater();
-            if (!instUpdater.loadInstallerData(CACHE_DIR)) {
+            instUpdater = loadInstallerUpdater();
+            if (instUpdater == null) {
                 return -1;
             }
         }
 
-        MavenNotation forgeNotation = MavenNotation.parse("net.minecraftforge:forge");
-
-        Path moduleFolder = repoPath.resolve(forgeNotation.toModulePath());
-
-        if (Files.notExists(moduleFolder)) {
-            LOGGER.error("Provided repo does not contain forge.");
+        List<MavenNotation> modules = optSet.valuesOf(modulesOpt).stream()
+                .map(VersionScanner::parseModule)
+                .collect(Collectors.toList());
+        if (modules.isEmpty()) {
+            modules.add(VersionScanner.FORGE);
+        }
+        VersionFilter filter;
+        Shard shard = null;
+        CompressionStrategy compression;
+        try {
+            compression = CompressionStrategy.parse(optSet.valueOf(compressionOpt));
+            filter = VersionFilter.parse(optSet.valuesOf(versionsOpt));
+            if (optSet.has(shardOpt)) {
+                shard = Shard.parse(optSet.valueOf(shardOpt));
+            }
+        } catch (IllegalArgumentException e) {
+            LOGGER.error(e.getMessage());
             return -1;
         }
+        VersionScanner scanner = new VersionScanner(repoPath, modules, filter);
 
-        LOGGER.info("Reading sub-folders of {}", forgeNotation);
-        List<String> folderVersions = Files.list(moduleFolder)
-                .filter(Files::isDirectory)
-                .map(Path::getFileName)
-                .map(Path::toString)
-                .collect(Collectors.toList());
+        for (MavenNotation module : modules) {
+            if (Files.notExists(scanner.getModuleFolder(module))) {
+                LOGGER.error("Provided repo does not contain {}.", module);
+                return -1;
+            }
+        }
 
         if (optSet.has(validateMetadataOpt)) {
-            LOGGER.info("");
-            LOGGER.info("Reading maven-metadata.xml");
-            List<String> versions = Utils.parseVersions(moduleFolder.resolve("maven-metadata.xml"));
-            Set<String> versionSet = new HashSet<>(versions);
-            Set<String> folderVersionSet = new HashSet<>(folderVersions);
-
-            LOGGER.info("Checking for mismatches..");
-            Set<String> missingMetadata = Sets.difference(folderVersionSet, versionSet);
-            Set<String> missingFolder = Sets.difference(versionSet, folderVersionSet);
-
-            //Validate all versions are accounted for.
-            if (!missingMetadata.isEmpty() || !missingFolder.isEmpty()) {
-                LOGGER.warn("Found mismatch between maven-metadata and version folder list.");
-                if (!missingMetadata.isEmpty()) {
-                    LOGGER.warn("Missing in maven-metadata, but exist as folders:");
-                    for (String version : missingMetadata) {
-                        LOGGER.warn(" {}", version);
+            for (MavenNotation module : modules) {
+                validateMetadata(scanner, module);
+            }
+        }
+
+        LOGGER.info("");
+
+        List<MavenNotation> versions = Collections.emptyList();
+        if (!watch) {
+            LOGGER.info("Reading sub-folders of {}", modules);
+            versions = scanner.scan();
+            if (!filter.isEmpty()) {
+                LOGGER.info("Selected {} versions.", versions.size());
+            }
+            if (shard != null) {
+                versions = shard.select(versions, optSet.has(shardWeightsOpt) ? Shard.readWeights(optSet.valueOf(shardWeightsOpt)) : null);
+                LOGGER.info("Shard {} has {} versions.", shard, versions.size());
+            }
+        }
+
+        RewriteContext ctx = new RewriteContext();
+        ctx.signProps = signProps;
+        ctx.repo = repoPath;
+        ctx.backupPath = backupPath;
+        ctx.outputPath = outputPath;
+        ctx.instUpdater = instUpdater;
+        ctx.mavenUrlFix = mavenUrlChange;
+        ctx.convert1To2 = convert1To2;
+        ctx.dryRun = dryRun;
+        ctx.deps = Collections.synchronizedSet(new TreeSet<>());
+        ctx.depsIndex = optSet.has(depsIndexOpt) ? new DependencyIndex(repoPath) : null;
+        ctx.compression = compression;
+        ctx.compressionReport = optSet.has(compressionReportOpt) ? new CompressionReport(compression) : null;
+
+        long heapBudget = optSet.has(heapBudgetOpt)
+                ? optSet.valueOf(heapBudgetOpt) * 1024 * 1024
+                : (long) (Runtime.getRuntime().maxMemory() * 0.6);
+        AdmissionController admission = new AdmissionController(heapBudget, METRICS);
+        int threads = optSet.valueOf(threadsOpt);
+        if (threads > 1) {
+            LOGGER.info("Processing with {} threads, within a heap budget of {}MB.", threads, heapBudget / 1024 / 1024);
+        }
+
+        if (watch) {
+            Duration pollInterval = optSet.has(watchPollOpt) ? Duration.ofSeconds(optSet.valueOf(watchPollOpt)) : null;
+            try (VersionWatcher watcher = new VersionWatcher(repoPath, scanner, filter, Duration.ofMillis(optSet.valueOf(watchSettleOpt)), pollInterval)) {
+                LOGGER.info("Watching {} for new versions..", modules);
+                Set<String> printedDeps = new HashSet<>();
+                while (true) {
+                    List<MavenNotation> ready = watcher.awaitReady();
+                    try (VersionPipeline pipeline = new VersionPipeline(threads, admission)) {
+                        for (int x = 0; x < ready.size(); x++) {
+                            MavenNotation version = ready.get(x);
+                            int idx = x;
+                            int total = ready.size();
+                            pipeline.submit(installerPath(ctx, version), () -> {
+                                // A broken upload must not stop the watch, the watcher offers it again once it changes.
+                                try {
+                                    processVersion(ctx, version, idx, total);
+                                    watcher.processed(version);
+                                } catch (Exception e) {
+                                    LOGGER.error("Failed to process {}", version, e);
+                                }
+                            }, null);
+                        }
+                        pipeline.await();
+                    }
+                    // Outputs are rewritten after every batch, as the watch only ends when stopped.
+                    REPOSITORY_DECISIONS.save();
+                    if (optSet.has(depsOutputOpt)) {
+                        writeDeps(ctx.deps, optSet.valueOf(depsOutputOpt));
+                    } else {
+                        synchronized (ctx.deps) {
+                            ctx.deps.stream().filter(printedDeps::add).forEach(System.out::println);
+                        }
+                    }
+                    if (ctx.depsIndex != null) {
+                        ctx.depsIndex.write(optSet.valueOf(depsIndexOpt));
+                    }
+                    // Exported and forgotten per batch, so the metrics add up to the whole watch.
+                    Utils.HTTP_TELEMETRY.logSummary();
+                    Utils.HTTP_TELEMETRY.export(METRICS);
+                    Utils.HTTP_TELEMETRY.reset();
+                    if (optSet.has(metricsOutputOpt)) {
+                        METRICS.write(optSet.valueOf(metricsOutputOpt));
+                    }
+                    if (ctx.compressionReport != null) {
+                        ctx.compressionReport.write(optSet.valueOf(compressionReportOpt));
                     }
                 }
-                if (!missingFolder.isEmpty()) {
-                    LOGGER.warn("Missing in folder but exist in maven-metadata:");
-                    for (String version : missingFolder) {
-                        LOGGER.warn(" {}", version);
+            }
+        }
+
+        LOGGER.info("Processing versions..");
+        try (Trace trace = optSet.has(traceOpt) ? Trace.start(optSet.valueOf(traceOpt)) : null;
+             VersionPipeline pipeline = new VersionPipeline(threads, admission)) {
+            if (trace != null) {
+                trace.addCounter("versions_queued", pipeline::getQueued);
+                trace.addCounter("versions_running", pipeline::getRunning);
+                trace.addCounter("versions_completed", pipeline::getCompleted);
+                trace.addCounter("admitted_mb", () -> admission.getInUse() / 1024 / 1024);
+            }
+            if (optSet.has(queueOpt)) {
+                try (WorkQueue queue = new WorkQueue(optSet.valueOf(queueOpt), Duration.ofSeconds(optSet.valueOf(leaseTimeOpt)))) {
+                    List<MavenNotation> pending = versions;
+                    while (!pending.isEmpty()) {
+                        // Versions currently leased by other workers, revisited in case their worker dies.
+                        List<MavenNotation> leased = new ArrayList<>();
+                        for (int x = 0; x < pending.size(); x++) {
+                            MavenNotation version = pending.get(x);
+                            if (queue.isDone(version)) continue;
+
+                            WorkQueue.Lease lease = queue.tryClaim(version);
+                            if (lease == null) {
+                                leased.add(version);
+                                continue;
+                            }
+                            int idx = x;
+                            int total = pending.size();
+                            pipeline.submit(installerPath(ctx, version), () -> {
+                                processVersion(ctx, version, idx, total);
+                                queue.complete(lease);
+                            }, () -> queue.release(lease));
+                        }
+                        pending = leased;
+                        if (!pending.isEmpty()) {
+                            LOGGER.info("Waiting on {} versions leased by other workers..", pending.size());
+                            Thread.sleep(queue.getLeaseTime().toMillis() / 3);
+                        }
                     }
+                    pipeline.await();
+                }
+            } else {
+                for (int x = 0; x < versions.size(); x++) {
+                    MavenNotation version = versions.get(x);
+                    int idx = x;
+                    int total = versions.size();
+                    pipeline.submit(installerPath(ctx, version), () -> processVersion(ctx, version, idx, total), null);
                 }
+                pipeline.await();
             }
         }
+        Set<String> deps = ctx.deps;
 
-        LOGGER.info("");
+        if (optSet.has(depsOutputOpt)) {
+            writeDeps(deps, optSet.valueOf(depsOutputOpt));
+        } else {
+            deps.forEach(System.out::println);
+        }
+        if (ctx.depsIndex != null) {
+            LOGGER.info("Indexed {} libraries.", ctx.depsIndex.getLibraries().size());
+            ctx.depsIndex.write(optSet.valueOf(depsIndexOpt));
+        }
+        REPOSITORY_DECISIONS.save();
+        Utils.HTTP_TELEMETRY.logSummary();
+        Utils.HTTP_TELEMETRY.export(METRICS);
+        if (optSet.has(metricsOutputOpt)) {
+            METRICS.write(optSet.valueOf(metricsOutputOpt));
+        }
+        if (ctx.compressionReport != null) {
+            LOGGER.info("Compression '{}' saved {} bytes over the default, for {}ms of additional CPU time.", compression, ctx.compressionReport.getSavedBytes(), ctx.compressionReport.getExtraCpuMillis());
+            ctx.compressionReport.write(optSet.valueOf(compressionReportOpt));
+        }
 
-        LOGGER.info("Sorting version lists..");
-        folderVersions.sort(Comparator.comparing(ComparableVersion::new));
+        return 0;
+    }
 
-        LOGGER.info("Processing versions..");
-        Set<String> deps = new TreeSet<>();
-        for (int x = 0; x < folderVersions.size(); x++) {
-            processVersion(signProps, forgeNotation.withVersion(folderVersions.get(x)),
-                repoPath, backupPath, outputPath,
-                instUpdater, mavenUrlChange, convert1To2,
-                x, folderVersions.size(), dryRun, deps);
+    /**
+     * Loads the installer seeds, latest installers and blacklists used by {@code --update-installer}.
+     * When {@link #resident}, they are only loaded once.
+     *
+     * @return The updater, or {@code null} if loading failed.
+     */
+    @Nullable
+    static synchronized InstallerUpdater loadInstallerUpdater() {
+        if (residentUpdater != null) return residentUpdater;
+
+        InstallerUpdater updater = new InstallerUpdater();
+        if (!updater.loadInstallerData(CACHE_DIR)) return null;
+        if (resident) {
+            residentUpdater = updater;
         }
+        return updater;
+    }
 
-        deps.forEach(System.out::println);
+    /**
+     * Forgets everything kept between runs, so it is loaded or requested again.
+     */
+    static synchronized void dropResidentState() {
+        residentUpdater = null;
+        recentHeadRequests.clear();
+        Utils.forgetRecentDownloads();
+    }
 
-        return 0;
+    static int getRecentHeadRequestCount() {
+        return recentHeadRequests.size();
+    }
+
+    static synchronized boolean hasResidentUpdater() {
+        return residentUpdater != null;
+    }
+
+    public static void writeDeps(Set<String> deps, Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Utils.makeParents(file)))) {
+            deps.forEach(out::println);
+        }
+    }
+
+    private static void validateMetadata(VersionScanner scanner, MavenNotation module) throws IOException {
+        LOGGER.info("");
+        LOGGER.info("Reading maven-metadata.xml for {}", module);
+        List<String> versions = Utils.parseVersions(scanner.getModuleFolder(module).resolve("maven-metadata.xml"));
+        Set<String> versionSet = new HashSet<>(versions);
+        Set<String> folderVersionSet = new HashSet<>(scanner.listAll(module));
+
+        LOGGER.info("Checking for mismatches..");
+        Set<String> missingMetadata = Sets.difference(folderVersionSet, versionSet);
+        Set<String> missingFolder = Sets.difference(versionSet, folderVersionSet);
+
+        //Validate all versions are accounted for.
+        if (!missingMetadata.isEmpty() || !missingFolder.isEmpty()) {
+            LOGGER.warn("Found mismatch between maven-metadata and version folder list.");
+            if (!missingMetadata.isEmpty()) {
+                LOGGER.warn("Missing in maven-metadata, but exist as folders:");
+                for (String version : missingMetadata) {
+                    LOGGER.warn(" {}", version);
+                }
+            }
+            if (!missingFolder.isEmpty()) {
+                LOGGER.warn("Missing in folder but exist in maven-metadata:");
+                for (String version : missingFolder) {
+                    LOGGER.warn(" {}", version);
+                }
+            }
+        }
+    }
+
+    private static Path installerPath(RewriteContext ctx, MavenNotation notation) {
+        return notation.withClassifier("installer").toPath(ctx.repo);
     }
 
-    private static void processVersion(SignProps signProps, MavenNotation notation, Path repo,
-        @Nullable Path backupPath, @Nullable Path outputPath,
-        InstallerUpdater instUpdater, boolean mavenUrlFix, boolean convert1To2,
-        int idx, int total, boolean dryRun, Set<String> deps
-    ) throws IOException {
+    private static void processVersion(RewriteContext ctx, MavenNotation notation, int idx, int total) throws IOException {
+        SignProps signProps = ctx.signProps;
+        Path backupPath = ctx.backupPath;
+        Path outputPath = ctx.outputPath;
+        InstallerUpdater instUpdater = ctx.instUpdater;
+        boolean dryRun = ctx.dryRun;
         boolean inPlace = backupPath != null;
 
         MavenNotation installer = notation.withClassifier("installer");
-        Path repoInstallerPath = installer.toPath(repo);
+        Path repoInstallerPath = installerPath(ctx, notation);
 
         if (Files.notExists(repoInstallerPath)) {
             LOGGER.warn("[{}/{}] Missing installer for: {}", idx, total, notation);
+            METRICS.increment("versions.missing_installer");
             return;
         }
         //LOGGER.info("");
 
-        JarContents contents = JarContents.loadJar(repoInstallerPath.toFile());
-
-        //Attempt to detect the installer format.
-        InstallerFormat format = InstallerFormat.detectInstallerFormat(contents);
-        if (format == null) {
-            LOGGER.error("Unable to detect installer format for {}", notation);
-            return;
-        }
-        LOGGER.info("[{}/{}] Found {} installer jar for: {}", idx, total, format, notation);
-
-        if (inPlace && !dryRun) {
-            //Move windows installers if found
-            MavenNotation winNotation = installer.withClassifier("installer-win").withExtension("exe");
-            Path winFile = winNotation.toPath(repo);
-            if (Files.exists(winFile)) {
-                moveWithAssociated(winFile, winNotation.toPath(backupPath));
+        long start = System.nanoTime();
+        try (Stage version = Stage.begin(Stage.Kind.VERSION, installer); JarContents contents = load(installer, repoInstallerPath)) {
+            long inputSize = Files.size(repoInstallerPath);
+            METRICS.add("installers.bytes_read", inputSize);
+
+            //Attempt to detect the installer format.
+            InstallerFormat format = InstallerFormat.detectInstallerFormat(contents);
+            if (format == null) {
+                LOGGER.error("Unable to detect installer format for {}", notation);
+                METRICS.increment("versions.unknown_format");
+                return;
             }
-
-            //Move javadoc zips.. Its 10 GB of useless space.
-            MavenNotation docNotation = installer.withClassifier("javadoc").withExtension("zip");
-            Path docFile = docNotation.toPath(repo);
-            if (Files.exists(docFile)) {
-                moveWithAssociated(docFile, docNotation.toPath(backupPath));
+            METRICS.increment("versions.processed." + format.name().toLowerCase(Locale.ROOT));
+            version.detail(format);
+            LOGGER.info("[{}/{}] Found {} installer jar for: {}", idx, total, format, notation);
+
+            //LOGGER.info("[{}/{}] Processing {}..", idx, total, notation);
+
+            InstallerFormat originalFormat = format;
+            //if (instUpdater != null)
+            //    format = instUpdater.pre(installer, contents, format);
+            // Library processors share a single traversal of the jsons. The installer update leaves libraries alone,
+            // so dependencies are listed in the same traversal, unless a conversion changes the jsons in between.
+            List<LibraryProcessor> libraryProcessors = new ArrayList<>();
+            if (ctx.mavenUrlFix)
+                libraryProcessors.add(new MavenUrlProcessor());
+            if (ctx.deps != null && !ctx.convert1To2)
+                libraryProcessors.add(new DependencyLister(ctx.deps, ctx.depsIndex));
+            if (!libraryProcessors.isEmpty())
+                format = process(new LibraryPass(libraryProcessors), installer, contents, format);
+            if (ctx.convert1To2)
+                format = process(PROCESSORS.get(format), installer, contents, format);
+            if (instUpdater != null) {
+                try (Stage stage = Stage.begin(Stage.Kind.PROCESS, installer)) {
+                    stage.detail("InstallerUpdater");
+                    format = instUpdater.post(installer, contents, format, originalFormat);
+                }
             }
-        }
-
-        //LOGGER.info("[{}/{}] Processing {}..", idx, total, notation);
-
-        InstallerFormat originalFormat = format;
-        //if (instUpdater != null)
-        //    format = instUpdater.pre(installer, contents, format);
-        if (mavenUrlFix)
-            format = new MavenUrlProcessor().process(installer, contents, format);
-        if (convert1To2)
-            format = PROCESSORS.get(format).process(installer, contents, format);
-        if (instUpdater != null)
-            format = instUpdater.post(installer, contents, format, originalFormat);
-        if (deps != null)
-            new DependencyLister(deps).process(installer, contents, format);
-
-        if (contents.changed() && !dryRun) {
-            LOGGER.info("[{}/{}] Contents Changed, saving file", idx, total);
-            FileTime timestamp = Files.getLastModifiedTime(repoInstallerPath);
-            Path output = null;
-            if (inPlace) {
-                output = installer.toPath(repo);
-                Path backupFile = installer.toPath(backupPath);
-                moveWithAssociated(repoInstallerPath, backupFile);
-            } else {
-                output = installer.toPath(outputPath);
+            if (ctx.deps != null && ctx.convert1To2)
+                process(new DependencyLister(ctx.deps, ctx.depsIndex), installer, contents, format);
+
+            boolean save = contents.changed() && !dryRun;
+            FileTime timestamp = save ? Files.getLastModifiedTime(repoInstallerPath) : null;
+            if (inPlace && !dryRun) {
+                // Everything leaving the version folder is moved as a single batch, listing the folder once.
+                Relocator relocator = new Relocator(repoInstallerPath.getParent(), installer.toPath(backupPath).getParent());
+                //Move windows installers if found
+                relocator.add(installer.withClassifier("installer-win").withExtension("exe").toFileName());
+                //Move javadoc zips.. Its 10 GB of useless space.
+                relocator.add(installer.withClassifier("javadoc").withExtension("zip").toFileName());
+                if (save) {
+                    relocator.add(repoInstallerPath.getFileName().toString());
+                }
+                relocator.execute();
             }
-            contents.save(output.toFile());
-            Files.setLastModifiedTime(output, timestamp);
 
-            if (signProps != null) {
-                signJar(signProps, output);
-            }
+            if (save) {
+                LOGGER.info("[{}/{}] Contents Changed, saving file", idx, total);
+                Path output = inPlace ? repoInstallerPath : installer.toPath(outputPath);
+                JarWriter.Stats stats;
+                try (Stage stage = Stage.begin(Stage.Kind.SAVE, installer).detail(ctx.compression)) {
+                    stats = contents.save(output.toFile(), ctx.compression);
+                    stage.bytes(stats.size);
+                }
+                Files.setLastModifiedTime(output, timestamp);
+                METRICS.add("compression.cpu_ms", TimeUnit.NANOSECONDS.toMillis(stats.cpuNanos));
+                METRICS.add("compression.stored_entries", stats.storedEntries);
+                if (ctx.compressionReport != null) {
+                    JarWriter.Stats baseline = ctx.compression == CompressionStrategy.DEFAULT ? stats : contents.measure(CompressionStrategy.DEFAULT);
+                    ctx.compressionReport.add(installer, inputSize, stats, baseline);
+                    METRICS.add("compression.saved_bytes", baseline.size - stats.size);
+                    LOGGER.info("[{}/{}] Compressed to {} bytes, {} bytes less than the default, in {}ms of CPU time.", idx, total, stats.size, baseline.size - stats.size, TimeUnit.NANOSECONDS.toMillis(stats.cpuNanos));
+                }
 
-            MultiHasher hasher = new MultiHasher(HASH_FUNCS);
-            hasher.load(output);
-            MultiHasher.HashResult result = hasher.finish();
-            for (Map.Entry<MultiHasher.HashFunc, HashCode> entry : result.entrySet()) {
-                Path hashFile = output.resolveSibling(output.getFileName() + "." + entry.getKey().name.toLowerCase());
-                try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(hashFile))) {
-                    out.print(entry.getValue().toString());
-                    out.flush();
+                if (signProps != null) {
+                    try (Stage stage = Stage.begin(Stage.Kind.SIGN, installer)) {
+                        stage.status(signJar(signProps, output));
+                    }
                 }
-                Files.setLastModifiedTime(hashFile, timestamp);
+
+                try (Stage stage = Stage.begin(Stage.Kind.HASH, installer)) {
+                    MultiHasher hasher = new MultiHasher(HASH_FUNCS);
+                    hasher.load(output);
+                    MultiHasher.HashResult result = hasher.finish();
+                    for (Map.Entry<MultiHasher.HashFunc, HashCode> entry : result.entrySet()) {
+                        Path hashFile = output.resolveSibling(output.getFileName() + "." + entry.getKey().name.toLowerCase());
+                        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(hashFile))) {
+                            out.print(entry.getValue().toString());
+                            out.flush();
+                        }
+                        Files.setLastModifiedTime(hashFile, timestamp);
+                    }
+                    stage.bytes(Files.size(output));
+                }
+                METRICS.increment("versions.changed");
+                METRICS.add("installers.bytes_written", Files.size(output));
             }
+            long elapsed = System.nanoTime() - start;
+            METRICS.add("time.process_ms", TimeUnit.NANOSECONDS.toMillis(elapsed));
+            METRICS.max("time.process_max_ms", TimeUnit.NANOSECONDS.toMillis(elapsed));
+            METRICS.record("time.process_installer_ms", TimeUnit.NANOSECONDS.toMillis(elapsed));
+
+            METRICS.add("buffers.allocated_bytes", contents.getAllocatedBytes());
+            METRICS.add("buffers.reused_bytes", contents.getReusedBytes());
+            METRICS.max("buffers.per_installer_max_bytes", contents.getAllocatedBytes() + contents.getReusedBytes());
+            LOGGER.debug("[{}/{}] Buffers: {} bytes allocated, {} bytes reused.", idx, total, contents.getAllocatedBytes(), contents.getReusedBytes());
         }
         //LOGGER.info("[{}/{}] Processing finished!", idx, total);
     }
 
-    public static void moveWithAssociated(Path from, Path to) throws IOException {
-        Utils.makeParents(to);
-        Files.move(from, to);
-        String theFileName = from.getFileName().toString();
-        List<Path> associated = Files.list(from.getParent())
-                .filter(e -> e.getFileName().toString().startsWith(theFileName))
-                .collect(Collectors.toList());
-        for (Path assoc : associated) {
-            Files.move(assoc, to.resolveSibling(assoc.getFileName()));
+    private static JarContents load(MavenNotation installer, Path path) throws IOException {
+        try (Stage stage = Stage.begin(Stage.Kind.LOAD, installer)) {
+            stage.bytes(Files.size(path));
+            return JarContents.loadJar(path.toFile());
         }
     }
 
-    public static void signJar(SignProps props, Path jarToSign) throws IOException {
-        runWaitFor("Sign", builder -> {
+    private static InstallerFormat process(InstallerProcessor processor, MavenNotation installer, JarContents contents, InstallerFormat format) throws IOException {
+        try (Stage stage = Stage.begin(Stage.Kind.PROCESS, installer)) {
+            stage.detail(processor instanceof LibraryPass ? processor : processor.getClass().getSimpleName());
+            return processor.process(installer, contents, format);
+        }
+    }
+
+    public static int signJar(SignProps props, Path jarToSign) throws IOException {
+        return runWaitFor("Sign", builder -> {
             builder.command(asList(
                     JavaPathUtils.getJarSignerExecutable().toAbsolutePath().toString(),
                     "-keystore",
@@ -421,20 +788,88 @@ public class InstallerRewriter {
             }
         }
 
+        try (Stage stage = Stage.begin(Stage.Kind.HTTP_HEAD, null).detail(url)) {
+            Boolean recent = recentHeadRequests.get(url.toString());
+            if (recent != null) {
+                stage.cacheHit(true);
+                return recent;
+            }
+            Request request = new Request.Builder()
+                    .url(Utils.mirror(url))
+                    .head()
+                    .header("User-Agent", Utils.USER_AGENT)
+                    .build();
+            try (Response response = Utils.HTTP_CLIENT.newCall(request).execute()) {
+                stage.status(response.code());
+                recent = response.isSuccessful();
+                recentHeadRequests.put(url.toString(), recent);
+                return recent;
+            }
+        }
+    }
+
+    /**
+     * As {@link #headRequest}, without blocking.
+     * <p>
+     * Cancelling the returned future cancels the request.
+     *
+     * @param url The url.
+     * @return A future completed with whether the url exists.
+     */
+    public static CompletableFuture<Boolean> headRequestAsync(URL url) {
+        if (url.getProtocol().equals("file")) {
+            try {
+                return CompletableFuture.completedFuture(headRequest(url));
+            } catch (IOException e) {
+                CompletableFuture<Boolean> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                return future;
+            }
+        }
+
         Boolean recent = recentHeadRequests.get(url.toString());
         if (recent != null) {
-            return recent;
+            return CompletableFuture.completedFuture(recent);
         }
         Request request = new Request.Builder()
-                .url(url)
+                .url(Utils.mirror(url))
                 .head()
                 .header("User-Agent", Utils.USER_AGENT)
                 .build();
-        try (Response response = Utils.HTTP_CLIENT.newCall(request).execute()) {
-            recent = response.isSuccessful();
-            recentHeadRequests.put(url.toString(), recent);
-            return recent;
-        }
+        Stage stage = Stage.beginDetached(Stage.Kind.HTTP_HEAD, null).detail(url);
+        CompletableFuture<Boolean> future = Utils.enqueue(request, response -> {
+            stage.status(response.code());
+            boolean exists = response.isSuccessful();
+            recentHeadRequests.put(url.toString(), exists);
+            return exists;
+        });
+        future.whenComplete((r, t) -> stage.close());
+        return future;
+    }
+
+    /**
+     * Everything needed to process a single version, shared by all versions of a run.
+     */
+    public static class RewriteContext {
+
+        public SignProps signProps = null;
+        public Path repo = null;
+        @Nullable
+        public Path backupPath = null;
+        @Nullable
+        public Path outputPath = null;
+        @Nullable
+        public InstallerUpdater instUpdater = null;
+        public boolean mavenUrlFix = false;
+        public boolean convert1To2 = false;
+        public boolean dryRun = false;
+        @Nullable
+        public Set<String> deps = null;
+        @Nullable
+        public DependencyIndex depsIndex = null;
+        public CompressionStrategy compression = CompressionStrategy.DEFAULT;
+        @Nullable
+        public CompressionReport compressionReport = null;
     }
 
     public static class SignProps {
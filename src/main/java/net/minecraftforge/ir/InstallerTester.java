@@ -210,22 +210,25 @@ public class InstallerTester {
             Files.copy(serverJar, installDirectory.resolve(name), StandardCopyOption.REPLACE_EXISTING);
         }
 
-        int installerExit = Utils.runWaitFor(builder -> {
-            builder.command(asList(
-                    JavaPathUtils.getJavaExecutable().toAbsolutePath().toString(),
-                    "-jar",
-                    installerPath.toAbsolutePath().toString(),
-                    "--installServer",
-                    installDirectory.toAbsolutePath().toString(),
-                    "--mirror",
-                    "https://maven-proxy.covers1624.net/"
-            ));
-            builder.directory(installDirectory.toFile());
-        }, line -> {
-            report.installLog.add(line);
-            LOGGER.debug("Installer: {}", line);
-        });
-        report.installSuccess = installerExit == 0;
+        try (Stage stage = Stage.begin(Stage.Kind.TEST_INSTALL, notation)) {
+            int installerExit = Utils.runWaitFor(builder -> {
+                builder.command(asList(
+                        JavaPathUtils.getJavaExecutable().toAbsolutePath().toString(),
+                        "-jar",
+                        installerPath.toAbsolutePath().toString(),
+                        "--installServer",
+                        installDirectory.toAbsolutePath().toString(),
+                        "--mirror",
+                        "https://maven-proxy.covers1624.net/"
+                ));
+                builder.directory(installDirectory.toFile());
+            }, line -> {
+                report.installLog.add(line);
+                LOGGER.debug("Installer: {}", line);
+            });
+            stage.status(installerExit);
+            report.installSuccess = installerExit == 0;
+        }
 
         Path eula = installDirectory.resolve("eula.txt");
         Files.write(eula, Collections.singletonList("eula=true"));
@@ -241,6 +244,8 @@ public class InstallerTester {
         ));
         procBuilder.redirectErrorStream(true);
         procBuilder.directory(installDirectory.toFile());
+        // Ends once the server has started, or is considered crashed.
+        Stage boot = Stage.begin(Stage.Kind.TEST_BOOT, notation);
         Process process = procBuilder.start();
         AtomicBoolean finishedStarting = new AtomicBoolean(false);
         AtomicLong lastOutput = new AtomicLong(System.currentTimeMillis());
@@ -257,10 +262,10 @@ public class InstallerTester {
                     LOGGER.debug("Server: {}", line);
                 }
             }
-        }));
+        }), IOExecutors.io());
         ProcessUtils.onExit(process).thenRunAsync(() -> {
             if (!stdoutFuture.isDone()) stdoutFuture.cancel(true);
-        });
+        }, IOExecutors.io());
 
         PrintWriter outWriter = new PrintWriter(process.getOutputStream(), true);
 
@@ -283,6 +288,7 @@ public class InstallerTester {
 
             Thread.sleep(200);
         }
+        boot.detail(failed ? "Failed" : "Started").close();
 
         if (!failed) {
             report.runSuccess = true;
@@ -18,7 +18,6 @@
  */
 package net.minecraftforge.ir;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -104,7 +103,13 @@ class InstallerUpdater {
         return true;
     }
 
-    private List<String> getVersions(Path cache) {
+    /**
+     * Downloads the installer's maven-metadata.xml, listing every installer seed.
+     *
+     * @param cache The cache directory.
+     * @return The versions, ordered by {@link ComparableVersion}, or {@code null} if the metadata could not be read.
+     */
+    static List<String> getVersions(Path cache) {
         String root = "net/minecraftforge/installer/";
         String metadataPath = root + "maven-metadata.xml";
         Path metadataFile = cache.resolve(metadataPath);
@@ -129,12 +134,23 @@ class InstallerUpdater {
         }
     }
 
-    private boolean processSeed(Path cache, String version) {
+    /**
+     * @param version The installer version.
+     * @return The path of the installer seed within the maven, or {@code null} if the version is not used as a seed.
+     */
+    static String getSeedPath(String version) {
         // 1.5-snapshot is a snapshot and honestly dont think it was used either, so maybe TODO?
         if (version.endsWith("-SNAPSHOT"))
+            return null;
+
+        return ("1.0".equals(version) ? PATH10 : PATH).replace("{VERSION}", version);
+    }
+
+    private boolean processSeed(Path cache, String version) {
+        String path = getSeedPath(version);
+        if (path == null)
             return true;
 
-        String path = ("1.0".equals(version) ? PATH10 : PATH).replace("{VERSION}", version);
         Path target = cache.resolve(path);
         try {
             Utils.downloadFile(new URL(InstallerRewriter.FORGE_MAVEN + path), cache.resolve(path));
@@ -217,14 +233,14 @@ class InstallerUpdater {
             }
 
             if (changed) {
-                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                BufferPool.Arena.Staging os = jar.newStaging(1024);
                 try {
                     oman.write(os);
                     os.flush();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
-                jar.write(MANIFEST, os.toByteArray());
+                jar.write(MANIFEST, os);
 
                 List<String> files = jar.getFiles().stream()
                 .filter(JarContents::isSignature)
@@ -18,6 +18,7 @@
  */
 package net.minecraftforge.ir;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Table;
@@ -46,6 +47,8 @@ import java.nio.file.FileSystem;
 import java.nio.file.attribute.FileTime;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.jar.Attributes;
 import java.util.stream.Collectors;
 
@@ -515,11 +518,33 @@ public class InstallerV1Processor implements InstallerProcessor {
     }
 
     // Try and find a maven repository that has the given library.
+    //  All repositories are queried at once, the first in order of preference which has the library wins.
     public static String findFirstMaven(V1InstallProfile.Library library, String[] mavens) throws IOException {
+        String coordinate = library.name.toString();
+        String remembered = REPOSITORY_DECISIONS.get(coordinate, mavens);
+        if (remembered != null) {
+            METRICS.increment("repository.remembered");
+            return remembered;
+        }
+
+        List<CompletableFuture<Boolean>> requests = new ArrayList<>(mavens.length);
         for (String maven : mavens) {
-            if (headRequest(library.name.toURL(maven))) {
-                return maven;
+            requests.add(headRequestAsync(library.name.toURL(maven)));
+        }
+        try {
+            for (int i = 0; i < mavens.length; i++) {
+                if (requests.get(i).join()) {
+                    METRICS.increment("repository.resolved");
+                    REPOSITORY_DECISIONS.put(coordinate, mavens, mavens[i]);
+                    return mavens[i];
+                }
             }
+        } catch (CompletionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw e;
+        } finally {
+            // Lower priority requests are no longer needed once a higher priority repository has answered.
+            requests.forEach(e -> e.cancel(true));
         }
         String s = Arrays.stream(mavens).collect(Collectors.joining("\n\t", "\t", "\n\n"));
         throw new IllegalStateException("Could not find a repository for '" + library.name + "'. Searched: \n" + s);
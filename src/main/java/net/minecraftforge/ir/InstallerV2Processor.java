@@ -18,29 +18,33 @@
  */
 package net.minecraftforge.ir;
 
+import com.google.common.base.Throwables;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import net.covers1624.quack.io.CopyingFileVisitor;
-import net.covers1624.quack.io.IOUtils;
 import net.covers1624.quack.maven.MavenNotation;
 import net.covers1624.quack.util.HashUtils;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.regex.Pattern;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static java.util.Objects.requireNonNull;
 import static net.minecraftforge.ir.InstallerRewriter.*;
@@ -48,116 +52,97 @@ import static net.minecraftforge.ir.Utils.getAsInt;
 import static net.minecraftforge.ir.Utils.getAsString;
 
 /**
- * Installer V2 only needs to be copied over.
+ * Installer V2 only needs its libraries checked, their urls moved to the new maven
+ * and their hashes and sizes corrected.
  * <p>
  * Created by covers1624 on 1/5/21.
  */
 @SuppressWarnings ("UnstableApiUsage")
-public class InstallerV2Processor implements InstallerProcessor {
+public class InstallerV2Processor implements LibraryProcessor {
 
     private static final Logger LOGGER = LogManager.getLogger();
     private static final HashFunction SHA1 = Hashing.sha1();
-
-    // Exclude any classes and the META-INF folder from being copied over.
-    private static final Pattern PATTERN = Pattern.compile("^/META-INF/.*$|/.*.class$");
+    private static final Set<LibraryPass.Document> DOCUMENTS = EnumSet.allOf(LibraryPass.Document.class);
 
     @Override
-    public InstallerFormat process(MavenNotation installer, JarContents content, InstallerFormat format) throws IOException {
-        return format;
-        /*
-        Pair<Path, Path> pathPair = ctx.getFile(ctx.installer);
-        try (FileSystem oldFs = IOUtils.getJarFileSystem(pathPair.getLeft(), true);
-             FileSystem newFs = IOUtils.getJarFileSystem(pathPair.getRight(), true)
-        ) {
-            Path oldJarRoot = oldFs.getPath("/");
-            Path newJarRoot = newFs.getPath("/");
-            // Copy everything that is not matched by the regex above.
-            Files.walkFileTree(oldJarRoot, new CopyingFileVisitor(oldJarRoot, newJarRoot, e -> !PATTERN.matcher("/" + e.toString()).find()));
-
-            Path profileJson = newJarRoot.resolve("install_profile.json");
-            if (!Files.exists(profileJson)) {
-                LOGGER.error("Missing install_profile.json {}", ctx.notation);
-                return false;
-            }
-
-            byte[] bytes = rewriteInstallProfile(ctx.notation, Files.newInputStream(profileJson), newJarRoot);
-            if (bytes != null) {
-                LOGGER.debug("Updating install_profile.json for {}", ctx.notation);
-                Files.delete(profileJson);
-                Files.write(profileJson, bytes);
-                return true;
-            }
-            return false;
-        }
-        */
+    public Set<LibraryPass.Document> getReads() {
+        return DOCUMENTS;
     }
 
-    // We don't use the object representation of these jsons as we don't want to accidentally nuke data from them.
-    public byte[] rewriteInstallProfile(MavenNotation notation, InputStream is, Path jarRoot) throws IOException {
-        JsonObject install;
-        try (Reader reader = new InputStreamReader(is)) {
-            install = Utils.GSON.fromJson(reader, JsonObject.class);
-        }
-        if (getAsInt(install, "spec") != 0) throw new IllegalStateException("Expected spec 0?");
-        boolean changes = false;
+    @Override
+    public Set<LibraryPass.Document> getWrites() {
+        return DOCUMENTS;
+    }
 
-        // Rewrite the 'json'.
-        String json = getAsString(install, "json");
-        Path versionJson = jarRoot.resolve(json);
-        if (!Files.exists(versionJson)) {
-            throw new RuntimeException("Missing version json: " + json);
-        }
-        byte[] bytes = rewriteVersionJson(notation, Files.newInputStream(versionJson), jarRoot);
-        if (bytes != null) {
-            LOGGER.debug("Updating json {}.", json);
-            Files.delete(versionJson);
-            Files.write(versionJson, bytes);
-        }
+    @Override
+    public void register(LibraryPass.Traversal traversal) {
+        if (traversal.getFormat() != InstallerFormat.V2) return;
+        if (getAsInt(traversal.getProfile(), "spec") != 0) throw new IllegalStateException("Expected spec 0?");
 
+        MavenNotation notation = traversal.getInstaller();
+        JarContents content = traversal.getContent();
         // Ensure Mirror List exists and is updated.
-        String mirrorList = getAsString(install, "mirrorList", null);
-        if (mirrorList == null) {
-            LOGGER.debug("Adding Mirror List to {}", notation);
-            install.addProperty("mirrorList", MIRROR_LIST);
-            changes = true;
-        } else {
+        traversal.onDocument(LibraryPass.Document.PROFILE, install -> {
+            String mirrorList = getAsString(install, "mirrorList", null);
+            if (mirrorList == null) {
+                LOGGER.debug("Adding Mirror List to {}", notation);
+                install.addProperty("mirrorList", MIRROR_LIST);
+                return true;
+            }
             if (!mirrorList.equals(MIRROR_LIST)) {
                 LOGGER.debug("Updating Mirror List from {} to {}", mirrorList, MIRROR_LIST);
                 install.addProperty("mirrorList", MIRROR_LIST);
-                changes = true;
+                return true;
             }
+            return false;
+        });
+        // Every library download of a document is started before its libraries are visited,
+        // each library then only waits for its own.
+        Map<Path, PendingDownload> started = new HashMap<>();
+        for (LibraryPass.Document document : DOCUMENTS) {
+            traversal.onDocument(document, json -> {
+                startDownloads(json.getAsJsonArray("libraries"), started);
+                return false;
+            });
         }
-
-        // Process all referenced libraries.
-        for (JsonElement library : install.getAsJsonArray("libraries")) {
-            if (!library.isJsonObject()) throw new RuntimeException("Expected JsonObject.");
-            changes |= rewriteLibrary(library.getAsJsonObject(), notation, jarRoot);
-        }
-        if (!changes) return null;
-
-        return Utils.GSON.toJson(install).getBytes(StandardCharsets.UTF_8);
+        traversal.onLibrary(lib -> {
+            try {
+                return rewriteLibrary(lib, notation, content, started);
+            } catch (IOException | RuntimeException e) {
+                started.values().forEach(d -> d.future.cancel(true));
+                throw e;
+            }
+        });
     }
 
-    public byte[] rewriteVersionJson(MavenNotation notation, InputStream is, Path jarRoot) throws IOException {
-        JsonObject version;
-        try (Reader reader = new InputStreamReader(is)) {
-            version = Utils.GSON.fromJson(reader, JsonObject.class);
-        }
-        boolean changes = false;
-
-        // Process all referenced libraries.
-        for (JsonElement library : version.getAsJsonArray("libraries")) {
-            if (!library.isJsonObject()) throw new RuntimeException("Expected JsonObject.");
-            changes |= rewriteLibrary(library.getAsJsonObject(), notation, jarRoot);
+    private static void startDownloads(@Nullable JsonArray libraries, Map<Path, PendingDownload> started) {
+        if (libraries == null) return;
+
+        for (JsonElement library : libraries) {
+            // Malformed libraries are left for rewriteLibrary to report.
+            if (!library.isJsonObject()) continue;
+            JsonObject downloads = library.getAsJsonObject().getAsJsonObject("downloads");
+            if (downloads == null || !downloads.has("artifact")) continue;
+            JsonObject artifact = downloads.getAsJsonObject("artifact");
+            String url = rewriteUrl(getAsString(artifact, "url", ""));
+            String path = getAsString(artifact, "path", null);
+            if (url.isEmpty() || path == null) continue;
+
+            Path artifactPath = InstallerRewriter.CACHE_DIR.resolve(path);
+            if (started.containsKey(artifactPath)) continue;
+            try {
+                started.put(artifactPath, new PendingDownload(url, Utils.downloadFileAsync(new URL(url), artifactPath, false)));
+            } catch (MalformedURLException ignored) {
+            }
         }
-
-        if (!changes) return null;
-
-        return Utils.GSON.toJson(version).getBytes(StandardCharsets.UTF_8);
     }
 
     // Rewrite the library entry.
-    public static boolean rewriteLibrary(JsonObject lib, MavenNotation notation, Path jarRoot) throws IOException {
+    public static boolean rewriteLibrary(JsonObject lib, MavenNotation notation, JarContents content) throws IOException {
+        return rewriteLibrary(lib, notation, content, Collections.emptyMap());
+    }
+
+    private static boolean rewriteLibrary(JsonObject lib, MavenNotation notation, JarContents content, Map<Path, PendingDownload> started) throws IOException {
         boolean changes = false;
         MavenNotation name = MavenNotation.parse(getAsString(lib, "name"));
         JsonObject downloads = requireNonNull(lib.getAsJsonObject("downloads"));
@@ -170,35 +155,43 @@ public class InstallerV2Processor implements InstallerProcessor {
 
         //Rewrite the URL to the new maven.
         String origUrl = url;
-        if (url.startsWith("http://")) {
-            url = "https://" + url.substring(7);
-        }
-        if (url.startsWith(OLD_FORGE_MAVEN)) {
-            url = FORGE_MAVEN + url.substring(OLD_FORGE_MAVEN.length());
-        }
+        url = rewriteUrl(url);
         if (!origUrl.equals(url)) {
             LOGGER.debug("Rewrote URL from {} to {} in {}", origUrl, url, notation);
             artifact.addProperty("url", url);
             changes = true;
         }
 
-        // Resolve the artifacts path.
-        Path artifactPath;
+        // Compute sha1 and length of the artifact.
+        HashCode computedHash;
+        int computedLength;
         if (url.isEmpty()) {
-            artifactPath = jarRoot.resolve("maven/" + path);
-            if (!Files.exists(artifactPath)) {
-                throw new RuntimeException("Provided artifact does not exist in /maven: " + artifactPath);
+            String entry = "maven/" + path;
+            if (!content.contains(entry)) {
+                throw new RuntimeException("Provided artifact does not exist in /maven: " + entry);
+            }
+            try (HashingInputStream is = new HashingInputStream(SHA1, content.getInput(entry))) {
+                computedLength = Math.toIntExact(ByteStreams.exhaust(is));
+                computedHash = is.hash();
             }
         } else {
             // Download the artifact if necessary
-            artifactPath = InstallerRewriter.CACHE_DIR.resolve(path);
-            Utils.downloadFile(new URL(url), artifactPath);
+            Path artifactPath = InstallerRewriter.CACHE_DIR.resolve(path);
+            PendingDownload pending = started.get(artifactPath);
+            if (pending != null && pending.url.equals(url)) {
+                try {
+                    pending.future.join();
+                } catch (CompletionException e) {
+                    Throwables.propagateIfPossible(e.getCause(), IOException.class);
+                    throw e;
+                }
+            } else {
+                Utils.downloadFile(new URL(url), artifactPath);
+            }
+            computedHash = HashUtils.hash(SHA1, artifactPath);
+            computedLength = Math.toIntExact(Files.size(artifactPath));
         }
 
-        // Compute sha1 and length of the artifact.
-        HashCode computedHash = HashUtils.hash(SHA1, artifactPath);
-        int computedLength = Math.toIntExact(Files.size(artifactPath));
-
         // Validate the artifact hash matches.
         if (!HashUtils.equals(computedHash, expectedSha1)) {
             LOGGER.warn("Corrected incorrect hash for {}, From: {}, To: {}", name, expectedSha1, computedHash);
@@ -214,4 +207,26 @@ public class InstallerV2Processor implements InstallerProcessor {
         }
         return changes;
     }
+
+    // Moves library urls to https, and off the old Forge maven.
+    static String rewriteUrl(String url) {
+        if (url.startsWith("http://")) {
+            url = "https://" + url.substring(7);
+        }
+        if (url.startsWith(OLD_FORGE_MAVEN)) {
+            url = FORGE_MAVEN + url.substring(OLD_FORGE_MAVEN.length());
+        }
+        return url;
+    }
+
+    private static class PendingDownload {
+
+        private final String url;
+        private final CompletableFuture<Void> future;
+
+        private PendingDownload(String url, CompletableFuture<Void> future) {
+            this.url = url;
+            this.future = future;
+        }
+    }
 }
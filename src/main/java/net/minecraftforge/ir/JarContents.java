@@ -19,9 +19,7 @@
 package net.minecraftforge.ir;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -36,7 +34,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.jar.Attributes;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
@@ -51,42 +48,45 @@ import com.google.common.hash.Hashing;
 
 import net.covers1624.quack.util.HashUtils;
 
-class JarContents {
+class JarContents implements AutoCloseable {
     private static final Logger LOGGER = LogManager.getLogger();
     private static final long DEFAULT_TIME = 1337; // Some JREs don't support time of 0, so use this
     static final String MANIFEST = "META-INF/MANIFEST.MF";
     private static final HashFunction SHA256 = Hashing.sha256();
 
     static JarContents loadJar(File path) throws IOException {
-        Map<String, byte[]> data = new HashMap<>();
-        Map<String, Long> timestamps = new HashMap<>();
+        JarContents ret = new JarContents(BufferPool.SHARED.newArena());
         if (!path.exists())
-            return new JarContents(data, timestamps);
+            return ret;
 
         try (ZipFile zf = new ZipFile(path)) {
             Enumeration<? extends ZipEntry> enu = zf.entries();
             while (enu.hasMoreElements()) {
                 ZipEntry ent = enu.nextElement();
                 String name = ent.getName();
-                timestamps.put(name, ent.getTime());
+                ret.timestamps.put(name, ent.getTime());
                 if (ent.isDirectory())
                     continue;
                 try (InputStream is = zf.getInputStream(ent)) {
-                    data.put(name, Utils.toBytes(is));
+                    // Presized from the central directory, so most entries are read straight into a single buffer.
+                    ret.data.put(name, ret.arena.read(is, ent.getSize()));
                 }
             }
+        } catch (IOException | RuntimeException e) {
+            ret.close();
+            throw e;
         }
 
-        return new JarContents(data, timestamps);
+        return ret;
     }
 
-    private final Map<String, byte[]> data;
-    private final Map<String, Long> timestamps;
+    private final BufferPool.Arena arena;
+    private final Map<String, BufferPool.Slice> data = new HashMap<>();
+    private final Map<String, Long> timestamps = new HashMap<>();
     private boolean changed = false;
 
-    private JarContents(Map<String, byte[]> data, Map<String, Long> timestamps) {
-        this.data = data;
-        this.timestamps = timestamps;
+    private JarContents(BufferPool.Arena arena) {
+        this.arena = arena;
     }
 
     static String sanitize(String path) {
@@ -106,8 +106,33 @@ class JarContents {
     }
 
     InputStream getInput(String name) {
-        byte[] d = this.data.get(sanitize(name));
-        return d == null ? null : new ByteArrayInputStream(d);
+        BufferPool.Slice d = this.data.get(sanitize(name));
+        return d == null ? null : new ByteArrayInputStream(d.array, 0, d.length);
+    }
+
+    /**
+     * Creates a staging stream for new entry data, backed by this jar's buffers.
+     * The result is given to {@link #write(String, BufferPool.Arena.Staging)}.
+     *
+     * @param sizeHint The expected size.
+     * @return The staging stream.
+     */
+    BufferPool.Arena.Staging newStaging(int sizeHint) {
+        return arena.staging(sizeHint);
+    }
+
+    /**
+     * @return The number of bytes of buffers freshly allocated for this jar.
+     */
+    long getAllocatedBytes() {
+        return arena.getAllocatedBytes();
+    }
+
+    /**
+     * @return The number of bytes of buffers this jar reused from the pool.
+     */
+    long getReusedBytes() {
+        return arena.getReusedBytes();
     }
 
     long getTime(String name) {
@@ -124,79 +149,112 @@ class JarContents {
         }
     }
 
-    byte[] delete(String name) {
+    void delete(String name) {
         name = sanitize(name);
         if (contains(name))
             changed = true;
         this.timestamps.remove(name);
-        return this.data.remove(name);
+        free(this.data.remove(name));
     }
 
     void write(String name, byte[] data) {
-        write(name, data, getTime(name));
+        write(name, BufferPool.Slice.of(data), getTime(name));
+    }
+
+    void write(String name, BufferPool.Arena.Staging staging) {
+        write(name, staging.toSlice(), getTime(name));
     }
 
-    void write(String name, byte[] data, long timestamp) {
+    void write(String name, BufferPool.Slice data, long timestamp) {
         name = sanitize(name);
-        this.data.put(name, data);
+        free(this.data.put(name, data));
         this.timestamps.put(name, timestamp);
         changed = true;
     }
 
-    void save(File target) throws IOException {
+    private void free(BufferPool.Slice slice) {
+        if (slice != null)
+            arena.free(slice.array);
+    }
+
+    /**
+     * Returns all buffers held by this jar to the pool, the jar must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        this.data.clear();
+        this.timestamps.clear();
+        arena.close();
+    }
+
+    JarWriter.Stats save(File target) throws IOException {
+        return save(target, CompressionStrategy.DEFAULT);
+    }
+
+    JarWriter.Stats save(File target, CompressionStrategy compression) throws IOException {
         if (changed())
             cleanSignatures();
 
         if (!target.getParentFile().exists())
             target.getParentFile().mkdirs();
 
-        try (FileOutputStream fos = new FileOutputStream(target);
-             JarOutputStream out = new JarOutputStream(fos)
-            ) {
-            List<String> files = new ArrayList<>(this.data.keySet());
-            Collections.sort(files, (l, r) -> {
-                if (l.equals(MANIFEST))
-                    return r.equals(MANIFEST) ? 0 : -1;
-                if (r.equals(MANIFEST))
-                    return l.equals(MANIFEST) ? 0 :  1;
-                return l.compareTo(r);
-            });
-
-            Set<String> dirs = new HashSet<String>();
-            for (String file : files) {
-                makeDirectory(out, dirs, file);
-                ZipEntry entry = new ZipEntry(file);
-                entry.setTime(getTime(file));
-                out.putNextEntry(entry);
-                out.write(this.data.get(file));
-            }
+        return JarWriter.write(target, entries(compression), arena);
+    }
+
+    /**
+     * Compresses this jar as {@link #save} would, without writing it.
+     *
+     * @param compression The compression strategy.
+     * @return The statistics the jar would be saved with.
+     */
+    JarWriter.Stats measure(CompressionStrategy compression) {
+        return JarWriter.measure(entries(compression), arena);
+    }
 
-            out.flush();
+    private List<JarWriter.Entry> entries(CompressionStrategy compression) {
+        List<String> files = new ArrayList<>(this.data.keySet());
+        Collections.sort(files, (l, r) -> {
+            if (l.equals(MANIFEST))
+                return r.equals(MANIFEST) ? 0 : -1;
+            if (r.equals(MANIFEST))
+                return l.equals(MANIFEST) ? 0 :  1;
+            return l.compareTo(r);
+        });
+
+        List<JarWriter.Entry> entries = new ArrayList<>();
+        Set<String> dirs = new HashSet<String>();
+        for (String file : files) {
+            makeDirectory(entries, dirs, file, compression);
+            entries.add(compression.entry(file, this.data.get(file), getTime(file)));
         }
+        return entries;
     }
 
-    private void makeDirectory(JarOutputStream out, Set<String> added, String path) throws IOException {
+    private void makeDirectory(List<JarWriter.Entry> entries, Set<String> added, String path, CompressionStrategy compression) {
         if (added.contains(path))
             return;
         int idx = path.lastIndexOf('/');
         if (idx == path.length() - 1) {
             int sidx = path.lastIndexOf('/', idx - 1);
             if (sidx != -1)
-                makeDirectory(out, added, path.substring(0, sidx + 1));
+                makeDirectory(entries, added, path.substring(0, sidx + 1), compression);
 
-            ZipEntry entry = new ZipEntry(path);
-            entry.setTime(getTime(path));
-            out.putNextEntry(entry);
+            entries.add(compression.entry(path, null, getTime(path)));
             added.add(path);
         } else if (idx != -1) {
-            makeDirectory(out, added, path.substring(0, idx + 1));
+            makeDirectory(entries, added, path.substring(0, idx + 1), compression);
         }
     }
 
     void merge(JarContents other, boolean overwrite) {
         for (String file : other.data.keySet()) {
-            if (overwrite || !this.data.containsKey(file))
-                write(file, other.data.get(file), other.getTime(file));
+            if (overwrite || !this.data.containsKey(file)) {
+                // Copied, each jar owns its own buffers.
+                BufferPool.Slice src = other.data.get(file);
+                byte[] copy = arena.allocate(src.length);
+                System.arraycopy(src.array, 0, copy, 0, src.length);
+                write(file, new BufferPool.Slice(copy, src.length), other.getTime(file));
+            }
         }
         for (String file : other.timestamps.keySet()) {
             if (!file.endsWith("/"))
@@ -277,10 +335,10 @@ class JarContents {
                 if (attrs.isEmpty())
                     itr.remove();
             }
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            BufferPool.Arena.Staging os = newStaging(1024);
             mf.write(os);
             os.flush();
-            this.write(MANIFEST, os.toByteArray());
+            this.write(MANIFEST, os);
 
             List<String> files = this.data.keySet().stream()
             .filter(JarContents::isSignature)
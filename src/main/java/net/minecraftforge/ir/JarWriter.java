@@ -0,0 +1,520 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes jars, deflating independent entries concurrently on the common {@link ForkJoinPool}.
+ * <p>
+ * Each entry is deflated on its own into a raw deflate stream, after which the local headers,
+ * data descriptors and central directory are assembled sequentially, laid out exactly as
+ * {@link JarOutputStream} would. For the same entries, order and compression level, the output
+ * is byte-identical to writing them through a JarOutputStream.
+ * <p>
+ * Each entry carries its own compression method and level, see {@link CompressionStrategy}.
+ * <p>
+ * Jars which would need Zip64 extensions, or timestamps DOS time can't represent past 2099,
+ * are rare enough that they are simply handed to a JarOutputStream.
+ */
+class JarWriter {
+
+    private static final int LOCSIG = 0x04034b50;
+    private static final int EXTSIG = 0x08074b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int LOCHDR = 30;
+    private static final int EXTHDR = 16;
+    private static final int CENHDR = 46;
+    private static final int ENDHDR = 22;
+
+    private static final int JAR_MAGIC = 0xCAFE;
+    private static final int EXTID_EXTT = 0x5455;
+    private static final int EXTT_FLAG_LMT = 0x1;
+    private static final int EXTT_LEN = 9; // headid(2) + size(2) + flag(1) + mtime(4)
+
+    // Names are always UTF-8, deflated sizes are always written to a data descriptor.
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final long DOSTIME_BEFORE_1980 = (1 << 21) | (1 << 16);
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    private static final int ZIP64_COUNT = 0xFFFF;
+
+    // Ranges of entries smaller than this are deflated on a single thread, not worth splitting further.
+    private static final long SPLIT_SIZE = 256 * 1024;
+    private static final int COPY_SIZE = 64 * 1024;
+    // DeflaterOutputStream's default buffer size.
+    private static final int STREAM_BUFFER = 512;
+
+    private static final BufferPool.Slice EMPTY = BufferPool.Slice.of(new byte[0]);
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Writes the given entries to the target, in order.
+     *
+     * @param target  The jar to write.
+     * @param entries The entries.
+     * @param arena   The arena to take output buffers from.
+     * @return The compression statistics.
+     */
+    static Stats write(File target, List<Entry> entries, BufferPool.Arena arena) throws IOException {
+        for (Entry entry : entries) {
+            if (!fitsDosTime(entry.time)) {
+                return writeSequential(target, entries);
+            }
+        }
+
+        try {
+            Stats stats = compress(entries, arena);
+            if (stats.size >= ZIP64_LIMIT || entries.size() >= ZIP64_COUNT) {
+                return writeSequential(target, entries);
+            }
+
+            try (ZipOut out = new ZipOut(new BufferedOutputStream(new FileOutputStream(target), COPY_SIZE))) {
+                long[] offsets = new long[entries.size()];
+                for (int i = 0; i < entries.size(); i++) {
+                    offsets[i] = out.written;
+                    writeLocal(out, entries.get(i), i == 0);
+                }
+                long cenOffset = out.written;
+                for (int i = 0; i < entries.size(); i++) {
+                    writeCentral(out, entries.get(i), i == 0, offsets[i]);
+                }
+                long cenLength = out.written - cenOffset;
+
+                out.writeInt(ENDSIG);
+                out.writeShort(0);                  // number of this disk
+                out.writeShort(0);                  // central directory start disk
+                out.writeShort(entries.size());     // number of directory entries on disk
+                out.writeShort(entries.size());     // total number of directory entries
+                out.writeInt(cenLength);
+                out.writeInt(cenOffset);
+                out.writeShort(0);                  // comment length
+            }
+            return stats;
+        } finally {
+            release(entries, arena);
+        }
+    }
+
+    /**
+     * Compresses the given entries without writing them, to find the size they would be written at.
+     *
+     * @param entries The entries.
+     * @param arena   The arena to take output buffers from.
+     * @return The compression statistics.
+     */
+    static Stats measure(List<Entry> entries, BufferPool.Arena arena) {
+        try {
+            return compress(entries, arena);
+        } finally {
+            release(entries, arena);
+        }
+    }
+
+    /**
+     * Writes the given entries through a {@link JarOutputStream}, the reference for {@link #write}.
+     */
+    static Stats writeSequential(File target, List<Entry> entries) throws IOException {
+        long start = cpuTime();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(target))) {
+            for (Entry entry : entries) {
+                ZipEntry ze = new ZipEntry(entry.name);
+                ze.setTime(entry.time);
+                ze.setMethod(entry.method);
+                if (entry.method == ZipEntry.STORED) {
+                    CRC32 crc = new CRC32();
+                    crc.update(entry.data.array, 0, entry.data.length);
+                    ze.setSize(entry.data.length);
+                    ze.setCrc(crc.getValue());
+                } else {
+                    out.setLevel(entry.level);
+                }
+                out.putNextEntry(ze);
+                out.write(entry.data.array, 0, entry.data.length);
+            }
+            out.flush();
+        }
+        Stats stats = new Stats();
+        for (Entry entry : entries) {
+            stats.add(entry, entry.method == ZipEntry.STORED ? entry.data.length : -1);
+        }
+        stats.size = target.length();
+        stats.cpuNanos = cpuTime() - start;
+        return stats;
+    }
+
+    private static Stats compress(List<Entry> entries, BufferPool.Arena arena) {
+        // Output buffers are taken up front, arenas are not thread safe.
+        for (Entry entry : entries) {
+            if (entry.method == ZipEntry.DEFLATED) {
+                entry.out = arena.allocate(deflateBound(entry.data.length));
+            }
+        }
+        LongAdder cpuNanos = new LongAdder();
+        ForkJoinPool.commonPool().invoke(new DeflateTask(entries, 0, entries.size(), cpuNanos));
+
+        Stats stats = new Stats();
+        stats.cpuNanos = cpuNanos.sum();
+        stats.size = ENDHDR;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            stats.add(entry, entry.csize);
+            stats.size += LOCHDR + CENHDR + (entry.nameBytes().length + extraLength(entry, i == 0)) * 2L + entry.csize;
+            if (entry.isDeflated()) {
+                stats.size += EXTHDR;
+            }
+        }
+        return stats;
+    }
+
+    private static void release(List<Entry> entries, BufferPool.Arena arena) {
+        for (Entry entry : entries) {
+            if (entry.out != null) {
+                arena.free(entry.out);
+            }
+            entry.out = null;
+        }
+    }
+
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private static void writeLocal(ZipOut out, Entry entry, boolean first) throws IOException {
+        byte[] name = entry.nameBytes();
+        out.writeInt(LOCSIG);
+        out.writeShort(entry.version());
+        out.writeShort(entry.flags());
+        out.writeShort(entry.isDeflated() ? ZipEntry.DEFLATED : ZipEntry.STORED);
+        out.writeInt(dosTime(entry.time));
+        if (entry.isDeflated()) {
+            out.writeInt(0);                        // crc-32, size and compressed size follow the data
+            out.writeInt(0);
+            out.writeInt(0);
+        } else {
+            out.writeInt(entry.crc);
+            out.writeInt(entry.csize);
+            out.writeInt(entry.data.length);
+        }
+        out.writeShort(name.length);
+        out.writeShort(extraLength(entry, first));
+        out.write(name);
+        writeExtra(out, entry, first);
+
+        out.write(entry.isDeflated() ? entry.out : entry.data.array, 0, entry.csize);
+
+        if (entry.isDeflated()) {
+            out.writeInt(EXTSIG);
+            out.writeInt(entry.crc);
+            out.writeInt(entry.csize);
+            out.writeInt(entry.data.length);
+        }
+    }
+
+    private static void writeCentral(ZipOut out, Entry entry, boolean first, long offset) throws IOException {
+        byte[] name = entry.nameBytes();
+        out.writeInt(CENSIG);
+        out.writeShort(entry.version());            // version made by
+        out.writeShort(entry.version());            // version needed to extract
+        out.writeShort(entry.flags());
+        out.writeShort(entry.isDeflated() ? ZipEntry.DEFLATED : ZipEntry.STORED);
+        out.writeInt(dosTime(entry.time));
+        out.writeInt(entry.crc);
+        out.writeInt(entry.csize);
+        out.writeInt(entry.data.length);
+        out.writeShort(name.length);
+        out.writeShort(extraLength(entry, first));
+        out.writeShort(0);                          // comment length
+        out.writeShort(0);                          // starting disk number
+        out.writeShort(0);                          // internal file attributes
+        out.writeInt(0);                            // external file attributes
+        out.writeInt(offset);
+        out.write(name);
+        writeExtra(out, entry, first);
+    }
+
+    // ZipOutputStream writes the extended timestamp ahead of the entry's own extra, which is only ever the jar magic.
+    private static int extraLength(Entry entry, boolean first) {
+        return (needsExtendedTime(entry.time) ? EXTT_LEN : 0) + (first ? 4 : 0);
+    }
+
+    private static void writeExtra(ZipOut out, Entry entry, boolean first) throws IOException {
+        if (needsExtendedTime(entry.time)) {
+            out.writeShort(EXTID_EXTT);
+            out.writeShort(EXTT_LEN - 4);
+            out.write(EXTT_FLAG_LMT);
+            out.writeInt(TimeUnit.MILLISECONDS.toSeconds(entry.time));
+        }
+        if (first) {
+            out.writeShort(JAR_MAGIC);
+            out.writeShort(0);
+        }
+    }
+
+    private static LocalDateTime toLocal(long time) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+    }
+
+    // Mirrors ZipEntry.setTime, which only records an extended timestamp outside of 1980-2099.
+    private static boolean needsExtendedTime(long time) {
+        int year = toLocal(time).getYear();
+        return year < 1980 || year > 2099;
+    }
+
+    private static boolean fitsDosTime(long time) {
+        return toLocal(time).getYear() <= 2099;
+    }
+
+    private static long dosTime(long time) {
+        LocalDateTime ldt = toLocal(time);
+        if (ldt.getYear() < 1980) return DOSTIME_BEFORE_1980;
+        return (ldt.getYear() - 1980) << 25 | ldt.getMonthValue() << 21 | ldt.getDayOfMonth() << 16
+                | ldt.getHour() << 11 | ldt.getMinute() << 5 | ldt.getSecond() >> 1;
+    }
+
+    // zlib's deflateBound, plus slack for the raw stream's final block.
+    private static int deflateBound(int len) {
+        return len + (len >> 12) + (len >> 14) + (len >> 25) + 64;
+    }
+
+    /**
+     * Compression statistics of a written jar.
+     */
+    static final class Stats {
+
+        int entries;
+        int storedEntries;
+        long rawBytes;
+        long compressedBytes;
+        long size;
+        long cpuNanos;
+
+        // Entries written by a JarOutputStream don't report their compressed size.
+        private void add(Entry entry, long csize) {
+            entries++;
+            rawBytes += entry.data.length;
+            if (csize >= 0) {
+                compressedBytes += csize;
+            }
+            if (entry.method == ZipEntry.STORED || entry.stored) {
+                storedEntries++;
+            }
+        }
+    }
+
+    /**
+     * An entry to write. Directories are entries with no data, named with a trailing slash.
+     */
+    static final class Entry {
+
+        final String name;
+        final BufferPool.Slice data;
+        final long time;
+        final int method;
+        final int level;
+        final boolean storeIfLarger;
+
+        private byte[] nameBytes;
+        private byte[] out;
+        private int csize;
+        private long crc;
+        private boolean stored;
+
+        /**
+         * An entry deflated at the default level, as by {@link JarOutputStream}.
+         */
+        Entry(String name, @Nullable BufferPool.Slice data, long time) {
+            this(name, data, time, ZipEntry.DEFLATED, Deflater.DEFAULT_COMPRESSION, false);
+        }
+
+        /**
+         * @param method        Either {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}.
+         * @param level         The {@link Deflater} level for deflated entries.
+         * @param storeIfLarger If a deflated entry should be stored instead when deflating does not shrink it.
+         */
+        Entry(String name, @Nullable BufferPool.Slice data, long time, int method, int level, boolean storeIfLarger) {
+            this.name = name;
+            this.data = data != null ? data : EMPTY;
+            this.time = time;
+            this.method = method;
+            this.level = level;
+            this.storeIfLarger = storeIfLarger;
+        }
+
+        private boolean isDeflated() {
+            return method == ZipEntry.DEFLATED && !stored;
+        }
+
+        private int version() {
+            return isDeflated() ? VERSION_DEFLATED : VERSION_STORED;
+        }
+
+        private int flags() {
+            return isDeflated() ? FLAG_UTF8 | FLAG_DATA_DESCRIPTOR : FLAG_UTF8;
+        }
+
+        private byte[] nameBytes() {
+            if (nameBytes == null) {
+                nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            }
+            return nameBytes;
+        }
+
+        private void compress() {
+            CRC32 crc32 = new CRC32();
+            crc32.update(data.array, 0, data.length);
+            crc = crc32.getValue();
+            stored = false;
+            if (method == ZipEntry.STORED) {
+                csize = data.length;
+                return;
+            }
+
+            // Driven like DeflaterOutputStream, feeding everything before finishing, so the output matches.
+            // Stored deflate blocks are sized by the space available, so level 0 also needs its buffer size.
+            int chunk = level == Deflater.NO_COMPRESSION ? STREAM_BUFFER : Integer.MAX_VALUE;
+            Deflater def = new Deflater(level, true);
+            try {
+                def.setInput(data.array, 0, data.length);
+                int n = 0;
+                while (!def.needsInput()) {
+                    n = deflateInto(def, n, chunk);
+                }
+                def.finish();
+                while (!def.finished()) {
+                    n = deflateInto(def, n, chunk);
+                }
+                csize = n;
+            } finally {
+                def.end();
+            }
+            if (storeIfLarger && csize >= data.length) {
+                stored = true;
+                csize = data.length;
+            }
+        }
+
+        private int deflateInto(Deflater def, int n, int chunk) {
+            if (n == out.length) {
+                // Only if the bound is wrong, the grown array is simply left to the garbage collector.
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            return n + def.deflate(out, n, Math.min(chunk, out.length - n));
+        }
+    }
+
+    private static final class DeflateTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Entry> entries;
+        private final int from;
+        private final int to;
+        private final LongAdder cpuNanos;
+
+        private DeflateTask(List<Entry> entries, int from, int to, LongAdder cpuNanos) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+            this.cpuNanos = cpuNanos;
+        }
+
+        @Override
+        protected void compute() {
+            long size = 0;
+            for (int i = from; i < to; i++) {
+                size += entries.get(i).data.length;
+            }
+            if (to - from <= 1 || size < SPLIT_SIZE) {
+                long start = cpuTime();
+                for (int i = from; i < to; i++) {
+                    entries.get(i).compress();
+                }
+                cpuNanos.add(cpuTime() - start);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new DeflateTask(entries, from, mid, cpuNanos), new DeflateTask(entries, mid, to, cpuNanos));
+        }
+    }
+
+    private static final class ZipOut implements AutoCloseable {
+
+        private final OutputStream out;
+        private long written;
+
+        private ZipOut(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(int b) throws IOException {
+            out.write(b);
+            written++;
+        }
+
+        void write(byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+        }
+
+        void writeShort(int v) throws IOException {
+            write(v & 0xFF);
+            write((v >>> 8) & 0xFF);
+        }
+
+        void writeInt(long v) throws IOException {
+            writeShort((int) (v & 0xFFFF));
+            writeShort((int) ((v >>> 16) & 0xFFFF));
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
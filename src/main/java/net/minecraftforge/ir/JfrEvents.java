@@ -0,0 +1,45 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Emits the Java Flight Recorder events for {@link Stage}s.
+ * <p>
+ * This copy is used on Java 8, which has no event API, and emits nothing.
+ * The copy in {@code src/java11} replaces it on Java 11 and above.
+ */
+final class JfrEvents {
+
+    private JfrEvents() {
+    }
+
+    /**
+     * @param kind The kind of stage.
+     * @return The begun event, or {@code null} if it is not enabled.
+     */
+    @Nullable
+    static Object begin(Stage.Kind kind) {
+        return null;
+    }
+
+    static void commit(Object event, Stage stage) {
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import static net.minecraftforge.ir.Utils.getAsString;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import net.covers1624.quack.maven.MavenNotation;
+
+/**
+ * Runs the visitors of several {@link LibraryProcessor}s in a single traversal of each json document.
+ * <p>
+ * Each library is visited by every registered visitor, in registration order, before moving on to the next,
+ * so later visitors see the changes of earlier ones. A document is only parsed if some processor reads it,
+ * and only written back if a processor declaring it as written changed it.
+ */
+public class LibraryPass implements InstallerProcessor {
+    private static final Logger LOGGER = LogManager.getLogger();
+    static final String INSTALL_PROFILE = "install_profile.json";
+
+    private final List<LibraryProcessor> processors;
+
+    public LibraryPass(List<LibraryProcessor> processors) {
+        this.processors = processors;
+    }
+
+    @Override
+    public InstallerFormat process(MavenNotation installer, JarContents content, InstallerFormat format) throws IOException {
+        if (processors.isEmpty())
+            return format;
+        if (!content.contains(INSTALL_PROFILE)) {
+            LOGGER.error("Missing {} in {}", INSTALL_PROFILE, installer);
+            return format;
+        }
+
+        JsonObject profile = readJson(content, INSTALL_PROFILE);
+        Traversal traversal = new Traversal(installer, content, format, profile);
+        for (LibraryProcessor processor : processors) {
+            traversal.current = processor;
+            processor.register(traversal);
+        }
+        if (traversal.steps.isEmpty())
+            return format;
+
+        String versionName = null;
+        JsonObject version = null;
+        if (format == InstallerFormat.V1) {
+            // The version json is embedded in the profile.
+            if (!profile.has("install")) throw new IllegalStateException("Invalid V1 install_profile.json, missing install entry");
+            if (!profile.has("versionInfo")) throw new IllegalStateException("Invalid V1 install_profile.json, missing versionInfo entry");
+            version = profile.getAsJsonObject("versionInfo");
+        } else if (traversal.reads(Document.VERSION)) {
+            versionName = getAsString(profile, "json");
+            if (!content.contains(versionName))
+                throw new RuntimeException("Missing version json: " + versionName);
+            version = readJson(content, versionName);
+        }
+
+        boolean profileChanged = traversal.visit(Document.PROFILE, profile, format == InstallerFormat.V2 ? profile.getAsJsonArray("libraries") : null);
+        boolean versionChanged = version != null && traversal.visit(Document.VERSION, version, version.getAsJsonArray("libraries"));
+
+        if (format == InstallerFormat.V1) {
+            profileChanged |= versionChanged;
+        } else if (versionChanged) {
+            LOGGER.debug("Updating json {}.", versionName);
+            writeJson(content, versionName, version);
+        }
+        if (profileChanged) {
+            LOGGER.debug("Updating {} for {}", INSTALL_PROFILE, installer);
+            writeJson(content, INSTALL_PROFILE, profile);
+        }
+        return format;
+    }
+
+    @Override
+    public String toString() {
+        return processors.stream()
+                .map(e -> e.getClass().getSimpleName())
+                .collect(Collectors.joining(", ", "LibraryPass[", "]"));
+    }
+
+    static JsonObject readJson(JarContents content, String name) throws IOException {
+        try (Reader reader = new InputStreamReader(content.getInput(name), StandardCharsets.UTF_8)) {
+            return Utils.GSON.fromJson(reader, JsonObject.class);
+        }
+    }
+
+    // Serialized straight into the jar's buffers, sized from the existing entry.
+    static void writeJson(JarContents content, String name, JsonObject json) throws IOException {
+        int sizeHint = 8192;
+        try (InputStream is = content.getInput(name)) {
+            if (is != null)
+                sizeHint = Math.max(sizeHint, is.available());
+        }
+        BufferPool.Arena.Staging staging = content.newStaging(sizeHint);
+        try (Writer writer = new OutputStreamWriter(staging, StandardCharsets.UTF_8)) {
+            Utils.GSON.toJson(json, writer);
+        }
+        content.write(name, staging);
+    }
+
+    /**
+     * The json documents of an installer.
+     * For V1 installers, the version json is the profile's {@code versionInfo}.
+     */
+    public enum Document {
+        PROFILE,
+        VERSION
+    }
+
+    public interface Visitor {
+
+        /**
+         * @param json The document, library or url holder.
+         * @return If the json was changed.
+         */
+        boolean visit(JsonObject json) throws IOException;
+    }
+
+    /**
+     * The traversal of a single installer, visitors are registered with it.
+     */
+    public static class Traversal {
+
+        private final MavenNotation installer;
+        private final JarContents content;
+        private final InstallerFormat format;
+        private final JsonObject profile;
+        private final List<Step> steps = new ArrayList<>();
+        private LibraryProcessor current;
+
+        private Traversal(MavenNotation installer, JarContents content, InstallerFormat format, JsonObject profile) {
+            this.installer = installer;
+            this.content = content;
+            this.format = format;
+            this.profile = profile;
+        }
+
+        public MavenNotation getInstaller() {
+            return installer;
+        }
+
+        public JarContents getContent() {
+            return content;
+        }
+
+        public InstallerFormat getFormat() {
+            return format;
+        }
+
+        public JsonObject getProfile() {
+            return profile;
+        }
+
+        /**
+         * Visits the given document as a whole, before its libraries.
+         */
+        public void onDocument(Document document, Visitor visitor) {
+            steps.add(new Step(current, StepKind.DOCUMENT, document, visitor));
+        }
+
+        /**
+         * Visits every library of the documents read by the registering processor.
+         */
+        public void onLibrary(Visitor visitor) {
+            steps.add(new Step(current, StepKind.LIBRARY, null, visitor));
+        }
+
+        /**
+         * Visits every object of a library which may hold a url, the library itself, its artifact and its classifiers.
+         */
+        public void onUrl(Visitor visitor) {
+            steps.add(new Step(current, StepKind.URL, null, visitor));
+        }
+
+        private boolean reads(Document document) {
+            return steps.stream().anyMatch(e -> e.processor.getReads().contains(document));
+        }
+
+        private boolean visit(Document document, JsonObject json, @Nullable JsonArray libraries) throws IOException {
+            boolean changed = false;
+            for (Step step : steps) {
+                if (step.kind == StepKind.DOCUMENT && step.document == document)
+                    changed |= step.apply(document, json);
+            }
+            if (libraries == null)
+                return changed;
+
+            for (JsonElement library : libraries) {
+                if (!library.isJsonObject()) throw new RuntimeException("Expected JsonObject.");
+                JsonObject lib = library.getAsJsonObject();
+                for (Step step : steps) {
+                    if (step.kind == StepKind.LIBRARY) {
+                        changed |= step.apply(document, lib);
+                    } else if (step.kind == StepKind.URL) {
+                        for (JsonObject holder : urlHolders(lib)) {
+                            changed |= step.apply(document, holder);
+                        }
+                    }
+                }
+            }
+            return changed;
+        }
+
+        private static List<JsonObject> urlHolders(JsonObject lib) {
+            List<JsonObject> holders = new ArrayList<>();
+            holders.add(lib);
+            if (lib.has("downloads")) {
+                JsonObject downloads = lib.getAsJsonObject("downloads");
+                if (downloads.has("artifact"))
+                    holders.add(downloads.getAsJsonObject("artifact"));
+                if (downloads.has("classifiers")) {
+                    JsonObject classifiers = downloads.getAsJsonObject("classifiers");
+                    for (String key : classifiers.keySet()) {
+                        holders.add(classifiers.getAsJsonObject(key));
+                    }
+                }
+            }
+            return holders;
+        }
+    }
+
+    private enum StepKind {
+        DOCUMENT,
+        LIBRARY,
+        URL
+    }
+
+    private static class Step {
+
+        private final LibraryProcessor processor;
+        private final StepKind kind;
+        @Nullable
+        private final Document document;
+        private final Visitor visitor;
+
+        private Step(LibraryProcessor processor, StepKind kind, @Nullable Document document, Visitor visitor) {
+            this.processor = processor;
+            this.kind = kind;
+            this.document = document;
+            this.visitor = visitor;
+        }
+
+        private boolean apply(Document document, JsonObject json) throws IOException {
+            if (!processor.getReads().contains(document))
+                return false;
+            return visitor.visit(json) && processor.getWrites().contains(document);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+
+import net.covers1624.quack.maven.MavenNotation;
+
+/**
+ * An {@link InstallerProcessor} working on the libraries of the installer's json documents.
+ * <p>
+ * Rather than walking the documents itself, it registers visitors with a {@link LibraryPass},
+ * which runs the visitors of every enabled processor in a single traversal of each document.
+ */
+public interface LibraryProcessor extends InstallerProcessor {
+
+    /**
+     * @return The documents this processor's visitors are run for.
+     */
+    Set<LibraryPass.Document> getReads();
+
+    /**
+     * @return The documents this processor may change, changes to any other document are discarded.
+     */
+    Set<LibraryPass.Document> getWrites();
+
+    /**
+     * Registers this processor's visitors for a single installer, in the order they should run.
+     * Nothing needs to be registered if the installer is of no interest.
+     *
+     * @param traversal The traversal of the installer.
+     */
+    void register(LibraryPass.Traversal traversal) throws IOException;
+
+    @Override
+    default InstallerFormat process(MavenNotation installer, JarContents content, InstallerFormat format) throws IOException {
+        return new LibraryPass(Collections.singletonList(this)).process(installer, content, format);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import net.covers1624.quack.maven.MavenNotation;
+import net.minecraftforge.ir.ClasspathEntry.LibraryClasspathEntry;
+import net.minecraftforge.ir.ClasspathEntry.StringClasspathEntry;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static net.minecraftforge.ir.InstallerRewriter.METRICS;
+
+/**
+ * Reads the 'Class-Path' manifest attribute of jars into {@link ClasspathEntry}s.
+ * <p>
+ * The manifest is found through the jar's central directory, without reading any other entry.
+ * Parsed entries are cached by the SHA-256 of the manifest, so a manifest shared by many versions is only parsed once.
+ * As ClasspathEntries are mutable, every caller receives its own copies.
+ */
+public class ManifestClasspath {
+
+    private static final String LIBRARIES = "libraries/";
+
+    private static final Map<HashCode, List<ClasspathEntry>> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Reads the 'Class-Path' manifest attribute of the given jar.
+     *
+     * @param jar The jar.
+     * @return The entries, owned by the caller.
+     */
+    public static List<ClasspathEntry> read(Path jar) throws IOException {
+        // ZipFile needs a real file, jars nested in a zip filesystem can only be streamed.
+        if (jar.getFileSystem() != FileSystems.getDefault()) {
+            try (ZipInputStream zin = new ZipInputStream(Files.newInputStream(jar))) {
+                ZipEntry entry;
+                while ((entry = zin.getNextEntry()) != null) {
+                    if (entry.getName().endsWith(JarContents.MANIFEST)) {
+                        return read(ByteStreams.toByteArray(zin));
+                    }
+                }
+            }
+            return new ArrayList<>();
+        }
+
+        try (ZipFile zf = new ZipFile(jar.toFile())) {
+            ZipEntry entry = findManifest(zf);
+            if (entry == null) return new ArrayList<>();
+            try (InputStream is = zf.getInputStream(entry)) {
+                return read(ByteStreams.toByteArray(is));
+            }
+        }
+    }
+
+    private static List<ClasspathEntry> read(byte[] manifest) throws IOException {
+        // A content digest, a CRC-32 collision would silently hand out another jar's Class-Path.
+        HashCode key = Hashing.sha256().hashBytes(manifest);
+        List<ClasspathEntry> entries = CACHE.get(key);
+        if (entries != null) {
+            METRICS.increment("manifest_classpath.cache_hits");
+        } else {
+            METRICS.increment("manifest_classpath.cache_misses");
+            entries = Collections.unmodifiableList(parse(new Manifest(new ByteArrayInputStream(manifest)).getMainAttributes().getValue("Class-Path")));
+            CACHE.putIfAbsent(key, entries);
+        }
+        return copy(entries);
+    }
+
+    /**
+     * Parses the value of a 'Class-Path' manifest attribute.
+     * <p>
+     * Paths under {@code libraries/} in the maven layout become {@link LibraryClasspathEntry}s,
+     * anything else is kept as a {@link StringClasspathEntry}.
+     *
+     * @param classPath The attribute value, may be {@code null}.
+     * @return The entries.
+     */
+    public static List<ClasspathEntry> parse(@Nullable String classPath) {
+        List<ClasspathEntry> entries = new ArrayList<>();
+        if (classPath == null) return entries;
+
+        for (String path : classPath.split(" ")) {
+            if (!path.startsWith(LIBRARIES)) {
+                entries.add(new StringClasspathEntry(path));
+                continue;
+            }
+            MavenNotation notation = parseLibrary(path.substring(LIBRARIES.length()));
+            if (notation != null) {
+                entries.add(new LibraryClasspathEntry(notation));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Parses a maven layout path, {@code group/module/version/module-version[-classifier].ext}.
+     *
+     * @param path The path, relative to the repository root.
+     * @return The notation, or {@code null} if the path is too short to be in the maven layout.
+     */
+    @Nullable
+    static MavenNotation parseLibrary(String path) {
+        String[] splits = path.split("/");
+        int len = splits.length;
+        if (len < 4) return null;
+
+        String file = splits[len - 1];
+        String version = splits[len - 2];
+        String module = splits[len - 3];
+        String group = String.join(".", Arrays.asList(splits).subList(0, len - 3));
+
+        String rest = removeFirst(file, module + "-");
+        rest = removeFirst(rest, version);
+        int lastDot = rest.lastIndexOf('.'); // Assumes we only have a single dot in the extension.
+        String classifier = "";
+        if (rest.startsWith("-")) {
+            classifier = rest.substring(1, lastDot);
+        }
+        String extension = rest.substring(lastDot + 1);
+        return new MavenNotation(group, module, version, classifier, extension);
+    }
+
+    /**
+     * Clears the cache, for long running processes which have rewritten their repository.
+     */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    /**
+     * Finds the manifest by walking only the central directory, accepting a manifest at any depth.
+     */
+    @Nullable
+    private static ZipEntry findManifest(ZipFile zf) {
+        ZipEntry entry = zf.getEntry(JarContents.MANIFEST);
+        if (entry != null) return entry;
+
+        Enumeration<? extends ZipEntry> entries = zf.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry e = entries.nextElement();
+            if (e.getName().endsWith(JarContents.MANIFEST)) return e;
+        }
+        return null;
+    }
+
+    private static List<ClasspathEntry> copy(List<ClasspathEntry> entries) {
+        List<ClasspathEntry> copy = new ArrayList<>(entries.size());
+        for (ClasspathEntry entry : entries) {
+            copy.add(entry.copy());
+        }
+        return copy;
+    }
+
+    // String.replaceFirst, without treating the target as a regex.
+    private static String removeFirst(String str, String target) {
+        int idx = str.indexOf(target);
+        if (idx == -1) return str;
+        return str.substring(0, idx) + str.substring(idx + target.length());
+    }
+}
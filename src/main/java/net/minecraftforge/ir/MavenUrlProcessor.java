@@ -24,166 +24,90 @@ import static net.minecraftforge.ir.InstallerRewriter.OLD_FORGE_MAVEN;
 import static net.minecraftforge.ir.Utils.getAsInt;
 import static net.minecraftforge.ir.Utils.getAsString;
 
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 import net.covers1624.quack.maven.MavenNotation;
 
-public class MavenUrlProcessor implements InstallerProcessor {
+public class MavenUrlProcessor implements LibraryProcessor {
     private static final Logger LOGGER = LogManager.getLogger();
     private static final String MIRROR_BRAND = "https://files.minecraftforge.net/mirror-brand.list";
-    private static final String INSTALL_PROFILE = "install_profile.json";
+    private static final Set<LibraryPass.Document> DOCUMENTS = EnumSet.allOf(LibraryPass.Document.class);
 
     @Override
-    public InstallerFormat process(MavenNotation notation, JarContents content, InstallerFormat format) throws IOException {
-        if (!content.contains(INSTALL_PROFILE)) {
-            LOGGER.error("Missing {} in {}", INSTALL_PROFILE, notation);
-            return format;
-        }
+    public Set<LibraryPass.Document> getReads() {
+        return DOCUMENTS;
+    }
 
-        JsonObject install;
-        try (Reader reader = new InputStreamReader(content.getInput(INSTALL_PROFILE))) {
-            install = Utils.GSON.fromJson(reader, JsonObject.class);
-        }
+    @Override
+    public Set<LibraryPass.Document> getWrites() {
+        return DOCUMENTS;
+    }
 
-        boolean changed = false;
-        switch (format) {
+    @Override
+    public void register(LibraryPass.Traversal traversal) {
+        MavenNotation notation = traversal.getInstaller();
+        switch (traversal.getFormat()) {
             case V1:
-                changed = rewriteInstallProfileV1(notation, install);
+                traversal.onDocument(LibraryPass.Document.PROFILE, profile -> updateMirrorList(notation, profile.getAsJsonObject("install"), MIRROR_BRAND));
                 break;
             case V2:
-                changed = rewriteInstallProfileV2(notation, install, content);
+                if (getAsInt(traversal.getProfile(), "spec") != 0)
+                    return;
+                traversal.onDocument(LibraryPass.Document.PROFILE, profile -> updateMirrorList(notation, profile, MIRROR_LIST));
                 break;
         }
-
-        if (changed)
-            writeProfile(content, install, notation);
-
-        return format;
-    }
-
-    protected void writeProfile(JarContents content, JsonObject install, MavenNotation notation) {
-        byte[] bytes = Utils.GSON.toJson(install).getBytes(StandardCharsets.UTF_8);
-        LOGGER.debug("Updating {} for {}", INSTALL_PROFILE, notation);
-        content.write(INSTALL_PROFILE, bytes);
+        traversal.onLibrary(lib -> rewriteLibrary(notation, lib));
+        traversal.onUrl(json -> rewriteUrl(notation, json));
     }
 
-    protected void writeVersion(JarContents content, String name, JsonObject version) {
-        LOGGER.debug("Updating json {}.", name);
-        content.write(name, Utils.GSON.toJson(version).getBytes(StandardCharsets.UTF_8));
-    }
-
-    private boolean rewriteInstallProfileV1(MavenNotation notation, JsonObject profile) {
-        if (!profile.has("install")) throw new IllegalStateException("Invalid V1 install_profile.json, missing install entry");
-        if (!profile.has("versionInfo")) throw new IllegalStateException("Invalid V1 install_profile.json, missing versionInfo entry");
-        boolean changed = false;
-        JsonObject version = profile.getAsJsonObject("versionInfo");
-        changed |= rewriteVersionJson(notation, version);
-
-        JsonObject install = profile.getAsJsonObject("install");
-        // Ensure Mirror List exists and is updated.
-        String mirrorList = getAsString(install, "mirrorList", null);
+    // Ensure Mirror List exists and is updated.
+    private static boolean updateMirrorList(MavenNotation notation, JsonObject json, String expected) {
+        String mirrorList = getAsString(json, "mirrorList", null);
         if (mirrorList == null) {
             LOGGER.debug("Adding Mirror List to {}", notation);
-            install.addProperty("mirrorList", MIRROR_BRAND);
-            changed = true;
-        } else if (!mirrorList.equals(MIRROR_BRAND)) {
-            LOGGER.debug("Updating Mirror List from {} to {}", mirrorList, MIRROR_BRAND);
-            install.addProperty("mirrorList", MIRROR_BRAND);
-            changed = true;
-        }
-
-        return changed;
-    }
-
-    private boolean rewriteInstallProfileV2(MavenNotation notation, JsonObject install, JarContents jar) throws IOException {
-        if (getAsInt(install, "spec") != 0)
-            return false;
-        boolean changed = false;
-
-        // Rewrite the 'json'.
-        String json = getAsString(install, "json");
-        if (!jar.contains(json))
-            throw new RuntimeException("Missing version json: " + json);
-
-        JsonObject version;
-        try (Reader reader = new InputStreamReader(jar.getInput(json))) {
-            version = Utils.GSON.fromJson(reader, JsonObject.class);
-        }
-
-        if (rewriteVersionJson(notation, version))
-            writeVersion(jar, json, version);
-
-        // Ensure Mirror List exists and is updated.
-        String mirrorList = getAsString(install, "mirrorList", null);
-        if (mirrorList == null) {
-            LOGGER.debug("Adding Mirror List to {}", notation);
-            install.addProperty("mirrorList", MIRROR_LIST);
-            changed = true;
-        } else if (!mirrorList.equals(MIRROR_LIST)) {
-            LOGGER.debug("Updating Mirror List from {} to {}", mirrorList, MIRROR_LIST);
-            install.addProperty("mirrorList", MIRROR_LIST);
-            changed = true;
-        }
-
-        // Process all referenced libraries.
-        for (JsonElement library : install.getAsJsonArray("libraries")) {
-            if (!library.isJsonObject()) throw new RuntimeException("Expected JsonObject.");
-            changed |= rewriteLibrary(notation, library.getAsJsonObject());
-        }
-        return changed;
-    }
-
-    private boolean rewriteVersionJson(MavenNotation notation, JsonObject version) {
-        boolean changed = false;
-
-        for (JsonElement library : version.getAsJsonArray("libraries")) {
-            if (!library.isJsonObject()) throw new RuntimeException("Expected JsonObject.");
-            changed |= rewriteLibrary(notation, library.getAsJsonObject());
+            json.addProperty("mirrorList", expected);
+            return true;
+        } else if (!mirrorList.equals(expected)) {
+            LOGGER.debug("Updating Mirror List from {} to {}", mirrorList, expected);
+            json.addProperty("mirrorList", expected);
+            return true;
         }
-
-        return changed;
+        return false;
     }
 
-    private boolean rewriteLibrary(MavenNotation notation, JsonObject lib) {
-        boolean changed = false;
-
+    private static boolean rewriteLibrary(MavenNotation notation, JsonObject lib) {
         String name = getAsString(lib, "name");
-        if ("net.minecraftforge_temp.legacy:legacyfixer:1.0".equals(name)) {
-            lib.addProperty("name", "net.minecraftforge:legacyfixer:1.0");
-            changed = true;
-        } else if ("org.ow2.asm:asm:4.1-all".equals(name)) {
-            lib.addProperty("name", "org.ow2.asm:asm-all:4.1");
-            changed = true;
-        } else if (name.startsWith("org.scala-lang.plugins:scala-continuations-") && lib.has("checksums")) {
+        String fixed = fixName(name);
+        if (!fixed.equals(name)) {
+            lib.addProperty("name", fixed);
+            return true;
+        }
+        if (name.startsWith("org.scala-lang.plugins:scala-continuations-") && lib.has("checksums")) {
             lib.remove("checksums");
-            changed = true;
+            return true;
         }
+        return false;
+    }
 
-        changed |= rewriteUrl(notation, lib);
-        if (lib.has("downloads")) {
-            JsonObject downloads = lib.getAsJsonObject("downloads");
-            if (downloads.has("artifact")) {
-                changed |= rewriteUrl(notation, downloads.getAsJsonObject("artifact"));
-            }
-            if (downloads.has("classifiers")) {
-                JsonObject classifiers = lib.getAsJsonObject("classifiers");
-                for (String key : classifiers.keySet()) {
-                    changed |= rewriteUrl(notation, classifiers.getAsJsonObject(key));
-                }
-            }
-        }
-        return changed;
+    /**
+     * @param name A library's name.
+     * @return The name the library is published under.
+     */
+    static String fixName(String name) {
+        if ("net.minecraftforge_temp.legacy:legacyfixer:1.0".equals(name))
+            return "net.minecraftforge:legacyfixer:1.0";
+        if ("org.ow2.asm:asm:4.1-all".equals(name))
+            return "org.ow2.asm:asm-all:4.1";
+        return name;
     }
 
-    protected boolean rewriteUrl(MavenNotation notation, JsonObject json) {
+    private static boolean rewriteUrl(MavenNotation notation, JsonObject json) {
         if (!json.has("url"))
             return false;
 
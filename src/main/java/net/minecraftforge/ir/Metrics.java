@@ -0,0 +1,135 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named run metrics, written as json at the end of a run.
+ * <p>
+ * Counters are summed when merged, maxima keep the largest value and {@link Histogram}s combine their samples.
+ * This allows the metrics of several shards to be merged into a single result.
+ */
+public class Metrics {
+
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> maxima = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    public void increment(String key) {
+        add(key, 1);
+    }
+
+    public void add(String key, long value) {
+        counters.computeIfAbsent(key, e -> new AtomicLong()).addAndGet(value);
+    }
+
+    public void max(String key, long value) {
+        maxima.computeIfAbsent(key, e -> new AtomicLong()).accumulateAndGet(value, Math::max);
+    }
+
+    public void record(String key, long value) {
+        getHistogram(key).record(value);
+    }
+
+    public Histogram getHistogram(String key) {
+        return histograms.computeIfAbsent(key, e -> new Histogram());
+    }
+
+    public long get(String key) {
+        AtomicLong value = counters.get(key);
+        return value != null ? value.get() : 0;
+    }
+
+    public long getMax(String key) {
+        AtomicLong value = maxima.get(key);
+        return value != null ? value.get() : 0;
+    }
+
+    public void merge(Metrics other) {
+        other.counters.forEach((k, v) -> add(k, v.get()));
+        other.maxima.forEach((k, v) -> max(k, v.get()));
+        other.histograms.forEach((k, v) -> getHistogram(k).merge(v));
+    }
+
+    public void reset() {
+        counters.clear();
+        maxima.clear();
+        histograms.clear();
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.add("counters", toJson(counters));
+        json.add("maxima", toJson(maxima));
+        JsonObject histograms = new JsonObject();
+        new TreeMap<>(this.histograms).forEach((k, v) -> histograms.add(k, v.toJson()));
+        json.add("histograms", histograms);
+        return json;
+    }
+
+    public static Metrics fromJson(JsonObject json) {
+        Metrics metrics = new Metrics();
+        if (json.has("counters")) {
+            for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject("counters").entrySet()) {
+                metrics.add(entry.getKey(), entry.getValue().getAsLong());
+            }
+        }
+        if (json.has("maxima")) {
+            for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject("maxima").entrySet()) {
+                metrics.max(entry.getKey(), entry.getValue().getAsLong());
+            }
+        }
+        if (json.has("histograms")) {
+            for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject("histograms").entrySet()) {
+                metrics.histograms.put(entry.getKey(), Histogram.fromJson(entry.getValue().getAsJsonObject()));
+            }
+        }
+        return metrics;
+    }
+
+    public void write(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(Utils.makeParents(file))) {
+            Utils.GSON.toJson(toJson(), writer);
+        }
+    }
+
+    public static Metrics read(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file)) {
+            return fromJson(Utils.GSON.fromJson(reader, JsonObject.class));
+        }
+    }
+
+    private static JsonObject toJson(Map<String, AtomicLong> values) {
+        JsonObject json = new JsonObject();
+        new TreeMap<>(values).forEach((k, v) -> json.addProperty(k, v.get()));
+        return json;
+    }
+}
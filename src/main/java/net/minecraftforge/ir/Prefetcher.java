@@ -0,0 +1,419 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import joptsimple.util.PathConverter;
+import joptsimple.util.PathProperties;
+import net.covers1624.quack.maven.MavenNotation;
+import net.minecraftforge.ir.json.Manifest;
+import net.minecraftforge.ir.json.V1InstallProfile;
+import net.minecraftforge.ir.json.Version;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static java.util.Arrays.asList;
+import static net.minecraftforge.ir.InstallerRewriter.CACHE_DIR;
+import static net.minecraftforge.ir.InstallerRewriter.FORGE_MAVEN;
+import static net.minecraftforge.ir.InstallerRewriter.METRICS;
+import static net.minecraftforge.ir.InstallerRewriter.VERSION_MANIFEST;
+
+/**
+ * Warms {@link InstallerRewriter#CACHE_DIR} ahead of a rewrite.
+ * <p>
+ * Reads the install profile and version json of every selected installer, without loading the rest of the jar,
+ * and collects every library, Minecraft server jar and installer seed a rewrite may download. These are then
+ * downloaded concurrently, so the main pass only reads from the cache.
+ */
+public class Prefetcher {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final Map<Path, Download> downloads = new LinkedHashMap<>();
+    // V1 libraries are filtered against their Minecraft version's libraries, which are only known once fetched.
+    private final List<V1Libraries> v1Libraries = new ArrayList<>();
+    private final Set<String> mcVersions = new TreeSet<>();
+
+    public static void main(String[] args) throws Throwable {
+        System.exit(mainI(args));
+    }
+
+    public static int mainI(String[] args) throws Throwable {
+        OptionParser parser = new OptionParser();
+
+        OptionSpec<Void> helpOpt = parser.acceptsAll(asList("h", "help"), "Prints this help.").forHelp();
+
+        OptionSpec<Path> repoPathOpt = parser.acceptsAll(asList("r", "repo"), "The repository path on disk.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter(PathProperties.DIRECTORY_EXISTING));
+        OptionSpec<String> modulesOpt = parser.acceptsAll(asList("module"), "The modules to prefetch for, either 'group:module' or a module within net.minecraftforge. May be repeated. Defaults to forge.")
+                .withRequiredArg();
+        OptionSpec<String> versionsOpt = parser.acceptsAll(asList("versions"), "Only prefetch for versions matching this maven range, glob or exact version. May be repeated.")
+                .withRequiredArg();
+        OptionSpec<Integer> threadsOpt = parser.acceptsAll(asList("threads"), "The number of concurrent downloads.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(8);
+        OptionSpec<Void> skipSeedsOpt = parser.acceptsAll(asList("skip-seeds"), "Do not prefetch the installer seeds used by --update-installer.");
+        OptionSpec<Void> skipServerJarsOpt = parser.acceptsAll(asList("skip-server-jars"), "Do not prefetch the Minecraft server jars used by InstallerTester.");
+
+        OptionSet optSet = parser.parse(args);
+        if (optSet.has(helpOpt)) {
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+
+        if (!optSet.has(repoPathOpt)) {
+            LOGGER.error("Expected --repo argument.");
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+        Path repoPath = optSet.valueOf(repoPathOpt);
+
+        List<MavenNotation> modules = optSet.valuesOf(modulesOpt).stream()
+                .map(VersionScanner::parseModule)
+                .collect(Collectors.toList());
+        if (modules.isEmpty()) {
+            modules.add(VersionScanner.FORGE);
+        }
+        VersionFilter filter;
+        try {
+            filter = VersionFilter.parse(optSet.valuesOf(versionsOpt));
+        } catch (IllegalArgumentException e) {
+            LOGGER.error(e.getMessage());
+            return -1;
+        }
+        int threads = optSet.valueOf(threadsOpt);
+
+        Prefetcher prefetcher = new Prefetcher();
+
+        List<MavenNotation> versions = new VersionScanner(repoPath, modules, filter).scan();
+        LOGGER.info("Scanning {} installers..", versions.size());
+        for (MavenNotation version : versions) {
+            Path installer = version.withClassifier("installer").toPath(repoPath);
+            if (Files.notExists(installer)) continue;
+            try {
+                prefetcher.scan(installer);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Failed to scan installer {}: {}", version, e.toString());
+            }
+        }
+
+        // Minecraft version jsons are always re-downloaded by the rewrite, they are only needed here to find libraries and server jars.
+        LOGGER.info("Fetching {} Minecraft version jsons..", prefetcher.mcVersions.size());
+        Map<String, Version> mcJsons = prefetcher.fetchMinecraftVersions(threads);
+
+        prefetcher.addV1Libraries(mcJsons);
+        if (!optSet.has(skipServerJarsOpt)) {
+            prefetcher.addServerJars(mcJsons);
+        }
+        if (!optSet.has(skipSeedsOpt)) {
+            prefetcher.addSeeds();
+        }
+
+        LOGGER.info("Prefetching {} files with {} threads..", prefetcher.downloads.size(), threads);
+        int failed = run(prefetcher.downloads.values(), threads);
+        InstallerRewriter.REPOSITORY_DECISIONS.save();
+        Utils.HTTP_TELEMETRY.logSummary();
+        return failed == 0 ? 0 : -1;
+    }
+
+    /**
+     * Collects the downloads of a single installer.
+     *
+     * @param installer The installer jar.
+     */
+    void scan(Path installer) throws IOException {
+        try (ZipFile zf = new ZipFile(installer.toFile())) {
+            JsonObject profile = readJson(zf, "install_profile.json");
+            if (profile == null) return;
+
+            if (profile.has("install") && profile.has("versionInfo")) {
+                V1InstallProfile v1Profile = Utils.GSON.fromJson(profile, V1InstallProfile.class);
+                String mcVersion = Utils.getAsString(profile.getAsJsonObject("install"), "minecraft", null);
+                boolean inherits = v1Profile.versionInfo.inheritsFrom != null;
+                if (mcVersion != null) {
+                    mcVersions.add(mcVersion);
+                }
+                v1Libraries.add(new V1Libraries(mcVersion, inherits, v1Profile.versionInfo.libraries));
+                return;
+            }
+
+            String mcVersion = Utils.getAsString(profile, "minecraft", null);
+            if (mcVersion != null) {
+                mcVersions.add(mcVersion);
+            }
+            addV2Libraries(profile);
+            String json = Utils.getAsString(profile, "json", null);
+            if (json != null) {
+                JsonObject version = readJson(zf, JarContents.sanitize(json));
+                if (version != null) {
+                    addV2Libraries(version);
+                }
+            }
+        }
+    }
+
+    private void addV2Libraries(JsonObject json) throws IOException {
+        if (!json.has("libraries")) return;
+
+        for (JsonElement element : json.getAsJsonArray("libraries")) {
+            JsonObject downloads = element.getAsJsonObject().getAsJsonObject("downloads");
+            JsonObject artifact = downloads != null ? downloads.getAsJsonObject("artifact") : null;
+            if (artifact == null) continue;
+
+            String url = InstallerV2Processor.rewriteUrl(Utils.getAsString(artifact, "url", ""));
+            // Artifacts without a url are shipped within the installer.
+            if (url.isEmpty()) continue;
+
+            URL u = new URL(url);
+            add(CACHE_DIR.resolve(Utils.getAsString(artifact, "path")), () -> u);
+        }
+    }
+
+    private Map<String, Version> fetchMinecraftVersions(int threads) throws IOException, InterruptedException {
+        Path versionManifest = CACHE_DIR.resolve("version_manifest.json");
+        try {
+            Utils.downloadFile(VERSION_MANIFEST, versionManifest, true);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to download the version manifest, skipping Minecraft libraries and server jars: {}", e.toString());
+            return new LinkedHashMap<>();
+        }
+        Manifest manifest;
+        try (Reader reader = Files.newBufferedReader(versionManifest)) {
+            manifest = Utils.GSON.fromJson(reader, Manifest.class);
+        }
+
+        List<Download> jsons = new ArrayList<>();
+        for (String mcVersion : mcVersions) {
+            String url = manifest.getUrl(mcVersion);
+            if (url == null) {
+                LOGGER.warn("Minecraft version {} is not in the version manifest.", mcVersion);
+                continue;
+            }
+            URL u = new URL(url);
+            jsons.add(new Download(CACHE_DIR.resolve(mcVersion + ".json"), () -> u, true));
+        }
+        run(jsons, threads);
+
+        Map<String, Version> versions = new LinkedHashMap<>();
+        for (String mcVersion : mcVersions) {
+            Path file = CACHE_DIR.resolve(mcVersion + ".json");
+            if (Files.notExists(file)) continue;
+            try (Reader reader = Files.newBufferedReader(file)) {
+                versions.put(mcVersion, Utils.GSON.fromJson(reader, Version.class));
+            }
+        }
+        return versions;
+    }
+
+    private void addV1Libraries(Map<String, Version> mcJsons) {
+        for (V1Libraries entry : v1Libraries) {
+            Version mcJson = entry.inherits ? null : mcJsons.get(entry.mcVersion);
+            Set<MavenNotation> mcLibraries = mcJson == null ? new TreeSet<>() : mcJson.getLibraries().stream()
+                    .map(e -> e.name)
+                    .collect(Collectors.toSet());
+
+            for (V1InstallProfile.Library library : entry.libraries) {
+                MavenNotation name = library.name;
+                if (name == null) continue;
+                MavenNotation replacement = InstallerV1Processor.REPLACEMENTS.get(name);
+                if (replacement != null) {
+                    name = replacement;
+                }
+                if (entry.mcVersion != null) {
+                    replacement = InstallerV1Processor.PER_VERSION_TABLE.get(entry.mcVersion, name);
+                    if (replacement != null) {
+                        name = replacement;
+                    }
+                }
+                // The universal jar is within the installer.
+                if (name.module.equals("forge") || name.module.equals("minecraftforge")) continue;
+                // Provided by Minecraft, removed by the rewrite. Libraries with a newer Minecraft version are still fetched, which is harmless.
+                if (mcLibraries.contains(name)) continue;
+
+                V1InstallProfile.Library lib = new V1InstallProfile.Library();
+                lib.name = name;
+                lib.url = library.url;
+                add(name.toPath(CACHE_DIR), () -> lib.name.toURL(InstallerV1Processor.determineRepo(lib)));
+            }
+        }
+    }
+
+    private void addServerJars(Map<String, Version> mcJsons) throws IOException {
+        for (Map.Entry<String, Version> entry : mcJsons.entrySet()) {
+            Version.Download server = entry.getValue().getDownloads().get("server");
+            if (server == null || server.url == null) continue;
+
+            URL u = new URL(server.url);
+            add(CACHE_DIR.resolve("minecraft_server." + entry.getKey() + ".jar"), () -> u);
+        }
+    }
+
+    private void addSeeds() throws IOException {
+        List<String> versions = InstallerUpdater.getVersions(CACHE_DIR);
+        if (versions == null) return;
+
+        for (String version : versions) {
+            String path = InstallerUpdater.getSeedPath(version);
+            if (path == null) continue;
+
+            URL u = new URL(FORGE_MAVEN + path);
+            add(CACHE_DIR.resolve(path), () -> u);
+        }
+    }
+
+    private void add(Path target, UrlSource url) {
+        downloads.putIfAbsent(target, new Download(target, url, false));
+    }
+
+    /**
+     * Runs the given downloads concurrently, logging progress every few seconds.
+     *
+     * @param downloads The downloads.
+     * @param threads   The number of concurrent downloads.
+     * @return The number of failed downloads.
+     */
+    private static int run(Collection<Download> downloads, int threads) throws InterruptedException {
+        int total = downloads.size();
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger cached = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+
+        ExecutorService executor = IOExecutors.newBounded("Prefetch", threads);
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Prefetch Progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        progress.scheduleAtFixedRate(() -> LOGGER.info("  {}/{} files, {} already cached, {}KB downloaded, {} failed.", done.get(), total, cached.get(), bytes.get() / 1024, failed.get()), 5, 5, TimeUnit.SECONDS);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>(total);
+            for (Download download : downloads) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        if (!download.force && Files.exists(download.target)) {
+                            cached.incrementAndGet();
+                            METRICS.increment("prefetch.cached");
+                        } else {
+                            Utils.downloadFile(download.url.get(), download.target, download.force);
+                            long size = Files.size(download.target);
+                            bytes.addAndGet(size);
+                            METRICS.increment("prefetch.downloaded");
+                            METRICS.add("prefetch.bytes", size);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failed.incrementAndGet();
+                        METRICS.increment("prefetch.failed");
+                        LOGGER.warn("Failed to prefetch {}: {}", download.target.getFileName(), e.toString());
+                    }
+                    done.incrementAndGet();
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            progress.shutdownNow();
+            executor.shutdownNow();
+        }
+        LOGGER.info("Prefetched {} files, {} already cached, {}KB downloaded, {} failed.", total, cached.get(), bytes.get() / 1024, failed.get());
+        return failed.get();
+    }
+
+    @Nullable
+    private static JsonObject readJson(ZipFile zf, String name) throws IOException {
+        ZipEntry entry = zf.getEntry(name);
+        if (entry == null) return null;
+
+        try (InputStream is = zf.getInputStream(entry)) {
+            return Utils.GSON.fromJson(new InputStreamReader(is), JsonObject.class);
+        }
+    }
+
+    // V1 repositories are probed with HEAD requests, resolved on the download thread.
+    private interface UrlSource {
+
+        URL get() throws IOException;
+    }
+
+    private static final class Download {
+
+        private final Path target;
+        private final UrlSource url;
+        private final boolean force;
+
+        private Download(Path target, UrlSource url, boolean force) {
+            this.target = target;
+            this.url = url;
+            this.force = force;
+        }
+    }
+
+    private static final class V1Libraries {
+
+        @Nullable
+        private final String mcVersion;
+        private final boolean inherits;
+        private final List<V1InstallProfile.Library> libraries;
+
+        private V1Libraries(@Nullable String mcVersion, boolean inherits, List<V1InstallProfile.Library> libraries) {
+            this.mcVersion = mcVersion;
+            this.inherits = inherits;
+            this.libraries = libraries;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Moves a set of files, along with their associated files, from one directory to another.
+ * <p>
+ * A file's associated files are any siblings whose name starts with the file's name,
+ * such as the {@code .md5}/{@code .sha1} checksum sidecars or {@code .asc} signatures.
+ * <p>
+ * The source directory is listed once for the whole batch, regardless of how many files
+ * have been requested. Moves on the same device are performed as simple renames, moves
+ * across devices are copied in parallel and the sources removed once every copy succeeded.
+ * If any copy fails, the copies are removed and the sources are left in place.
+ */
+public class Relocator {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    // Bounds the number of files open at once, copies are I/O bound regardless.
+    private static final int COPY_CONCURRENCY = 8;
+
+    private final Path fromDir;
+    private final Path toDir;
+    private final Set<String> requested = new LinkedHashSet<>();
+
+    public Relocator(Path fromDir, Path toDir) {
+        this.fromDir = fromDir;
+        this.toDir = toDir;
+    }
+
+    /**
+     * Requests the given file name, and its associated files, to be moved.
+     * <p>
+     * It is not an error for the file to not exist, it will simply be skipped.
+     *
+     * @param fileName The file name within the source directory.
+     * @return The same Relocator.
+     */
+    public Relocator add(String fileName) {
+        requested.add(fileName);
+        return this;
+    }
+
+    /**
+     * Computes the moves for all requested files by listing the source directory once.
+     *
+     * @return The source files to move, in directory listing order.
+     */
+    public List<Path> plan() throws IOException {
+        List<Path> moves = new ArrayList<>();
+        if (requested.isEmpty() || Files.notExists(fromDir)) return moves;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(fromDir)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                for (String req : requested) {
+                    if (name.startsWith(req)) {
+                        moves.add(path);
+                        break;
+                    }
+                }
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Plans and executes all requested moves.
+     *
+     * @return The number of files moved.
+     */
+    public int execute() throws IOException {
+        List<Path> moves = plan();
+        if (moves.isEmpty()) return 0;
+
+        Files.createDirectories(toDir);
+        if (sameStore(fromDir, toDir)) {
+            for (Path from : moves) {
+                Files.move(from, toDir.resolve(from.getFileName()));
+            }
+            return moves.size();
+        }
+
+        LOGGER.debug("Relocating {} files across devices from {} to {}", moves.size(), fromDir, toDir);
+        // Everything is copied before any source is deleted, so a failed copy leaves the sources untouched.
+        Set<Path> copied = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = IOExecutors.newBounded("Relocate", COPY_CONCURRENCY);
+        List<CompletableFuture<Void>> futures = new ArrayList<>(moves.size());
+        for (Path from : moves) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                Path to = toDir.resolve(from.getFileName());
+                try {
+                    Files.copy(from, to, StandardCopyOption.COPY_ATTRIBUTES);
+                    copied.add(to);
+                } catch (FileAlreadyExistsException e) {
+                    throw new UncheckedIOException(e);
+                } catch (IOException e) {
+                    // Remove any partial copy.
+                    deleteQuietly(to);
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            copied.forEach(Relocator::deleteQuietly);
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+        for (Path from : moves) {
+            Files.delete(from);
+        }
+        return moves.size();
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to remove partial copy {}", file, e);
+        }
+    }
+
+    private static boolean sameStore(Path a, Path b) {
+        try {
+            FileStore aStore = Files.getFileStore(a);
+            FileStore bStore = Files.getFileStore(b);
+            return aStore.equals(bStore);
+        } catch (IOException e) {
+            // Files.move will still fall back to copying if these are actually different devices.
+            return true;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers, across runs, which repository each library was resolved from by
+ * {@link InstallerV1Processor#findFirstMaven}.
+ * <p>
+ * Decisions are only valid for the list of repositories they were made against, a file written
+ * for a different list, e.g. with {@code ir.forced_maven} set, is ignored.
+ * The file may be shared by several processes, it is merged with its current contents and replaced atomically when saved.
+ */
+public class RepositoryDecisions {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final Path file;
+    private final String[] mavens;
+    private final Map<String, String> decisions = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+    private volatile boolean dirty;
+
+    public RepositoryDecisions(Path file, String[] mavens) {
+        this.file = file;
+        this.mavens = mavens;
+    }
+
+    /**
+     * @param coordinate The library's maven coordinate.
+     * @param mavens     The repositories being searched, in order of preference.
+     * @return The remembered repository, or {@code null}.
+     */
+    @Nullable
+    public String get(String coordinate, String[] mavens) {
+        if (!Arrays.equals(this.mavens, mavens)) return null;
+        load();
+        return decisions.get(coordinate);
+    }
+
+    public void put(String coordinate, String[] mavens, String repo) {
+        if (!Arrays.equals(this.mavens, mavens)) return;
+        load();
+        if (!repo.equals(decisions.put(coordinate, repo))) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes any new decisions to disk.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) return;
+
+        // Another process may have saved since we loaded.
+        Map<String, String> merged = new TreeMap<>(read());
+        merged.putAll(decisions);
+
+        JsonObject json = new JsonObject();
+        JsonArray repos = new JsonArray();
+        for (String maven : mavens) {
+            repos.add(maven);
+        }
+        json.add("mavens", repos);
+        JsonObject libraries = new JsonObject();
+        merged.forEach(libraries::addProperty);
+        json.add("libraries", libraries);
+
+        Path tmp = Files.createTempFile(Utils.makeParents(file).getParent(), file.getFileName() + "__", "__tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp)) {
+                Utils.COMPACT_GSON.toJson(json, writer);
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        dirty = false;
+    }
+
+    private void load() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            decisions.putAll(read());
+            loaded = true;
+        }
+    }
+
+    private Map<String, String> read() {
+        Map<String, String> read = new TreeMap<>();
+        if (Files.notExists(file)) return read;
+
+        try (Reader reader = Files.newBufferedReader(file)) {
+            JsonObject json = Utils.GSON.fromJson(reader, JsonObject.class);
+            if (json == null || !json.has("mavens") || !json.has("libraries")) return read;
+
+            JsonArray repos = json.getAsJsonArray("mavens");
+            String[] fileMavens = new String[repos.size()];
+            for (int i = 0; i < fileMavens.length; i++) {
+                fileMavens[i] = repos.get(i).getAsString();
+            }
+            if (!Arrays.equals(mavens, fileMavens)) {
+                LOGGER.info("Ignoring repository decisions made for different repositories: {}", Arrays.toString(fileMavens));
+                return read;
+            }
+            for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject("libraries").entrySet()) {
+                read.put(entry.getKey(), entry.getValue().getAsString());
+            }
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            LOGGER.warn("Failed to read repository decisions from {}, ignoring: {}", file, e.toString());
+        }
+        return read;
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.common.hash.HashCode;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import joptsimple.util.PathConverter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Keeps the rewriter resident, running rewrites posted to a loopback HTTP endpoint.
+ * <p>
+ * Installer seeds, latest installers and blacklists, the HTTP client's connections and cache,
+ * remembered HEAD requests and repository decisions are loaded once and kept warm between jobs,
+ * so each job only pays for the versions it processes. Jobs run one at a time.
+ * <ul>
+ *     <li>{@code POST /rewrite} with {@code {"args": ["--repo", "...", ...]}} runs the rewriter with those arguments,
+ *     answering with the job's exit code, latency in milliseconds and metrics.</li>
+ *     <li>{@code GET /status} answers with the uptime, job count and what is resident.</li>
+ *     <li>{@code POST /refresh} drops the resident state, it is loaded again by the next job.</li>
+ *     <li>{@code POST /shutdown} stops the daemon.</li>
+ * </ul>
+ * Every request must carry the daemon's token in an {@code X-IR-Token} header. The token is random per start,
+ * and written to {@code --token-file}, readable only by its owner, so only local processes of the same user
+ * may run jobs with the daemon's privileges.
+ * For example {@code curl -H "X-IR-Token: $(cat cache/daemon.token)" -d '{"args":["--repo","maven","--output","out"]}' http://127.0.0.1:<port>/rewrite}.
+ * Jobs log to the daemon's log, the dependency list should be written with {@code --deps-output}.
+ */
+public class RewriteDaemon implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String TOKEN_HEADER = "X-IR-Token";
+
+    private final HttpServer server;
+    private final Path tokenFile;
+    private final byte[] token;
+    // Fair, so jobs run in the order they were posted.
+    private final ReentrantLock jobLock = new ReentrantLock(true);
+    private final AtomicInteger jobs = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final long started = System.nanoTime();
+
+    /**
+     * Writes a new token and starts listening on the loopback address.
+     *
+     * @param port      The port, {@code 0} for any free port.
+     * @param tokenFile The file to write the token to, replaced if it exists.
+     */
+    public RewriteDaemon(int port, Path tokenFile) throws IOException {
+        this.tokenFile = tokenFile;
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        String hex = HashCode.fromBytes(random).toString();
+        token = hex.getBytes(StandardCharsets.UTF_8);
+        writeToken(tokenFile, hex);
+
+        InstallerRewriter.resident = true;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(IOExecutors.io());
+        server.createContext("/rewrite", e -> handle(e, "POST", this::rewrite));
+        server.createContext("/status", e -> handle(e, "GET", this::status));
+        server.createContext("/refresh", e -> handle(e, "POST", this::refresh));
+        server.createContext("/shutdown", e -> handle(e, "POST", this::shutdown));
+        server.start();
+    }
+
+    /**
+     * @return The base url, ending with a slash.
+     */
+    public String getUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort() + "/";
+    }
+
+    /**
+     * Blocks until the daemon is shut down.
+     */
+    public void await() throws InterruptedException {
+        stopped.await();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        try {
+            Files.deleteIfExists(tokenFile);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete {}", tokenFile, e);
+        }
+        stopped.countDown();
+    }
+
+    private JsonObject rewrite(HttpExchange exchange) throws IOException {
+        List<String> args = readArgs(exchange);
+        // Sub-programs are not resident aware, and would e.g. block the daemon forever.
+        if (!args.isEmpty() && !args.get(0).startsWith("-")) {
+            throw new IllegalArgumentException("Sub-commands can not be run by the daemon: " + args.get(0));
+        }
+        if (args.contains("--watch")) {
+            throw new IllegalArgumentException("--watch can not be run by the daemon.");
+        }
+
+        int job = jobs.incrementAndGet();
+        long queued = System.nanoTime();
+        jobLock.lock();
+        try {
+            long start = System.nanoTime();
+            LOGGER.info("Job {}: {}", job, args);
+            InstallerRewriter.METRICS.reset();
+            Utils.HTTP_TELEMETRY.reset();
+            int exit;
+            try {
+                exit = InstallerRewriter.mainI(args.toArray(new String[0]));
+            } catch (Throwable e) {
+                LOGGER.error("Job {} failed.", job, e);
+                exit = -1;
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (exit != 0) {
+                failures.incrementAndGet();
+            }
+            LOGGER.info("Job {} finished with {} in {}ms.", job, exit, millis);
+
+            JsonObject json = new JsonObject();
+            json.addProperty("job", job);
+            json.addProperty("exit", exit);
+            json.addProperty("millis", millis);
+            json.addProperty("queued_millis", TimeUnit.NANOSECONDS.toMillis(start - queued));
+            json.add("metrics", InstallerRewriter.METRICS.toJson());
+            return json;
+        } finally {
+            jobLock.unlock();
+        }
+    }
+
+    private JsonObject status(HttpExchange exchange) {
+        JsonObject json = new JsonObject();
+        json.addProperty("uptime_millis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        json.addProperty("jobs", jobs.get());
+        json.addProperty("failures", failures.get());
+        json.addProperty("busy", jobLock.isLocked());
+        json.addProperty("queued", jobLock.getQueueLength());
+        json.addProperty("installer_data", InstallerRewriter.hasResidentUpdater());
+        json.addProperty("head_requests", InstallerRewriter.getRecentHeadRequestCount());
+        json.addProperty("connections", Utils.HTTP_CLIENT.connectionPool().connectionCount());
+        return json;
+    }
+
+    private JsonObject refresh(HttpExchange exchange) {
+        // Waits for the running job, which may be using the state.
+        jobLock.lock();
+        try {
+            InstallerRewriter.dropResidentState();
+            Utils.HTTP_CLIENT.connectionPool().evictAll();
+            LOGGER.info("Dropped resident state.");
+        } finally {
+            jobLock.unlock();
+        }
+        return new JsonObject();
+    }
+
+    private JsonObject shutdown(HttpExchange exchange) {
+        LOGGER.info("Shutting down.");
+        // Stopped once the response is sent, stopping waits for running exchanges.
+        IOExecutors.io().execute(this::close);
+        return new JsonObject();
+    }
+
+    private static List<String> readArgs(HttpExchange exchange) throws IOException {
+        JsonElement body;
+        try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+            body = Utils.GSON.fromJson(reader, JsonElement.class);
+        }
+        if (body == null || !body.isJsonObject() || !body.getAsJsonObject().has("args") || !body.getAsJsonObject().get("args").isJsonArray()) {
+            throw new IllegalArgumentException("Expected a json object with an 'args' array.");
+        }
+        JsonArray array = body.getAsJsonObject().getAsJsonArray("args");
+        List<String> args = new ArrayList<>(array.size());
+        for (JsonElement arg : array) {
+            if (!arg.isJsonPrimitive()) {
+                throw new IllegalArgumentException("Expected every argument to be a string, got: " + arg);
+            }
+            args.add(arg.getAsString());
+        }
+        return args;
+    }
+
+    private void handle(HttpExchange exchange, String method, Handler handler) {
+        try {
+            String presented = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+            if (presented == null || !MessageDigest.isEqual(token, presented.getBytes(StandardCharsets.UTF_8))) {
+                LOGGER.warn("Refused {} {} without a valid token.", exchange.getRequestMethod(), exchange.getRequestURI());
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            if (!exchange.getRequestMethod().equals(method)) {
+                exchange.getResponseHeaders().set("Allow", method);
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            int status = 200;
+            JsonObject json;
+            try {
+                json = handler.handle(exchange);
+            } catch (IllegalArgumentException | IllegalStateException | JsonParseException e) {
+                status = 400;
+                json = new JsonObject();
+                json.addProperty("error", String.valueOf(e.getMessage()));
+            }
+            byte[] bytes = Utils.GSON.toJson(json).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Failed to answer {}", exchange.getRequestURI(), e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void writeToken(Path file, String token) throws IOException {
+        Files.deleteIfExists(file);
+        Utils.makeParents(file.toAbsolutePath());
+        if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            // Created owner only, so the token is never readable by anyone else, not even briefly.
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file);
+            File f = file.toFile();
+            if (!(f.setReadable(false, false) && f.setReadable(true, true) && f.setWritable(false, false) && f.setWritable(true, true))) {
+                LOGGER.warn("Unable to restrict access to {}", file);
+            }
+        }
+        Files.write(file, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private interface Handler {
+
+        JsonObject handle(HttpExchange exchange) throws IOException;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        System.exit(mainI(args));
+    }
+
+    /**
+     * Runs the daemon until shut down or interrupted.
+     */
+    public static int mainI(String[] args) throws Throwable {
+        OptionParser parser = new OptionParser();
+
+        OptionSpec<Void> helpOpt = parser.acceptsAll(asList("h", "help"), "Prints this help.").forHelp();
+
+        OptionSpec<Integer> portOpt = parser.acceptsAll(asList("port"), "The port to listen on, 0 for any free port.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(0);
+        OptionSpec<Path> tokenFileOpt = parser.acceptsAll(asList("token-file"), "The file the token required by every request is written to, only readable by its owner.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter())
+                .defaultsTo(InstallerRewriter.CACHE_DIR.resolve("daemon.token"));
+        OptionSpec<Void> warmOpt = parser.acceptsAll(asList("warm"), "Loads the installer data used by --update-installer on start, instead of by the first job using it.");
+
+        OptionSet optSet = parser.parse(args);
+        if (optSet.has(helpOpt)) {
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+
+        RewriteDaemon daemon = new RewriteDaemon(optSet.valueOf(portOpt), optSet.valueOf(tokenFileOpt));
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::close));
+        if (optSet.has(warmOpt)) {
+            long start = System.nanoTime();
+            if (InstallerRewriter.loadInstallerUpdater() == null) {
+                daemon.close();
+                return -1;
+            }
+            LOGGER.info("Loaded installer data in {}ms.", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        LOGGER.info("Accepting rewrites at {}rewrite, with the token in {}", daemon.getUrl(), optSet.valueOf(tokenFileOpt).toAbsolutePath());
+        daemon.await();
+        LOGGER.info("Ran {} jobs, {} failed.", daemon.jobs.get(), daemon.failures.get());
+        return 0;
+    }
+}
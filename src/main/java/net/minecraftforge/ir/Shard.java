@@ -0,0 +1,184 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import net.covers1624.quack.maven.MavenNotation;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deterministically partitions a list of versions into N disjoint shards.
+ * <p>
+ * Versions are weighted by a snapshot of their installer sizes, shared by every process,
+ * see {@link #snapshotWeights}. Without one, every version weighs the same. Weights are never read
+ * from the repository while selecting, as shards rewriting in place change installer sizes.
+ * The heaviest versions are assigned first, each to the currently lightest shard.
+ * Versions of equal weight are ordered by a stable hash of their notation.
+ * <p>
+ * Every process computes the same partition for the same versions and weights, without coordination.
+ * The set of version folders must therefore not change between the scans of different shards.
+ */
+@SuppressWarnings ("UnstableApiUsage")
+public class Shard {
+
+    private static final HashFunction HASH = Hashing.murmur3_32_fixed();
+
+    public final int index;
+    public final int count;
+
+    public Shard(int index, int count) {
+        if (count < 1) throw new IllegalArgumentException("Shard count must be at least 1.");
+        if (index < 1 || index > count) throw new IllegalArgumentException("Shard index must be between 1 and " + count + ".");
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * Parses a shard in the form {@code i/N}, where {@code i} is between 1 and {@code N}.
+     *
+     * @param str The string.
+     * @return The shard.
+     */
+    public static Shard parse(String str) {
+        int slash = str.indexOf('/');
+        if (slash == -1) throw new IllegalArgumentException("Expected shard in the form i/N, got: " + str);
+        try {
+            return new Shard(Integer.parseInt(str.substring(0, slash).trim()), Integer.parseInt(str.substring(slash + 1).trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected shard in the form i/N, got: " + str, e);
+        }
+    }
+
+    /**
+     * Selects the versions belonging to this shard.
+     *
+     * @param versions The versions, in processing order.
+     * @param weights  The weight of each version by notation, or {@code null} to weigh every version the same.
+     * @return The versions for this shard, in their original order.
+     */
+    public List<MavenNotation> select(List<MavenNotation> versions, @Nullable Map<String, Long> weights) {
+        if (count == 1) return versions;
+
+        List<Weighted> weighted = new ArrayList<>(versions.size());
+        for (int i = 0; i < versions.size(); i++) {
+            MavenNotation notation = versions.get(i);
+            long weight = weights != null ? weights.getOrDefault(notation.toString(), 0L) : 1;
+            weighted.add(new Weighted(i, notation, weight, HASH.hashString(notation.toString(), StandardCharsets.UTF_8).asInt()));
+        }
+        weighted.sort(Comparator.<Weighted>comparingLong(e -> -e.weight)
+                .thenComparingInt(e -> e.hash)
+                .thenComparing(e -> e.notation.toString()));
+
+        long[] loads = new long[count];
+        boolean[] selected = new boolean[versions.size()];
+        for (Weighted w : weighted) {
+            int lightest = 0;
+            for (int s = 1; s < count; s++) {
+                if (loads[s] < loads[lightest]) {
+                    lightest = s;
+                }
+            }
+            // Every version costs something, even if its installer is missing.
+            loads[lightest] += Math.max(1, w.weight);
+            if (lightest == index - 1) {
+                selected[w.index] = true;
+            }
+        }
+
+        List<MavenNotation> ours = new ArrayList<>();
+        for (int i = 0; i < versions.size(); i++) {
+            if (selected[i]) {
+                ours.add(versions.get(i));
+            }
+        }
+        return ours;
+    }
+
+    /**
+     * Weighs each version by the current size of its installer, {@code 0} if it is missing.
+     * Taken once, before any shard runs, and given to every shard through {@link #writeWeights}.
+     *
+     * @param versions The versions.
+     * @param repo     The repository.
+     * @return The weight of each version by notation.
+     */
+    public static Map<String, Long> snapshotWeights(List<MavenNotation> versions, Path repo) throws IOException {
+        Map<String, Long> weights = new LinkedHashMap<>();
+        for (MavenNotation notation : versions) {
+            Path installer = notation.withClassifier("installer").toPath(repo);
+            weights.put(notation.toString(), Files.exists(installer) ? Files.size(installer) : 0);
+        }
+        return weights;
+    }
+
+    public static void writeWeights(Map<String, Long> weights, Path file) throws IOException {
+        JsonObject json = new JsonObject();
+        weights.forEach(json::addProperty);
+        try (Writer writer = Files.newBufferedWriter(Utils.makeParents(file))) {
+            Utils.GSON.toJson(json, writer);
+        }
+    }
+
+    public static Map<String, Long> readWeights(Path file) throws IOException {
+        Map<String, Long> weights = new LinkedHashMap<>();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            JsonObject json = Utils.GSON.fromJson(reader, JsonObject.class);
+            if (json == null) throw new IOException("Empty shard weights " + file);
+            for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+                weights.put(entry.getKey(), entry.getValue().getAsLong());
+            }
+        }
+        return weights;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+
+    private static class Weighted {
+
+        public final int index;
+        public final MavenNotation notation;
+        public final long weight;
+        public final int hash;
+
+        private Weighted(int index, MavenNotation notation, long weight, int hash) {
+            this.index = index;
+            this.notation = notation;
+            this.weight = weight;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import joptsimple.util.PathConverter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Merges the dependency lists, dependency indexes and metrics produced by several {@code --shard} runs.
+ * <p>
+ * Invoked as the {@code merge} sub-command of {@link InstallerRewriter}.
+ */
+public class ShardMerger {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static void main(String[] args) throws Throwable {
+        System.exit(mainI(args));
+    }
+
+    public static int mainI(String[] args) throws Throwable {
+        OptionParser parser = new OptionParser();
+
+        OptionSpec<Void> helpOpt = parser.acceptsAll(asList("h", "help"), "Prints this help.").forHelp();
+
+        OptionSpec<Path> depsOpt = parser.acceptsAll(asList("deps"), "A dependency list produced by a shard. May be repeated.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+
+        OptionSpec<Path> metricsOpt = parser.acceptsAll(asList("metrics"), "A metrics file produced by a shard. May be repeated.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+
+        OptionSpec<Path> depsIndexOpt = parser.acceptsAll(asList("deps-index"), "A dependency index produced by a shard. May be repeated.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+
+        OptionSpec<Path> depsOutputOpt = parser.acceptsAll(asList("deps-output"), "The file to write the merged dependency list to, otherwise printed.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+
+        OptionSpec<Path> depsIndexOutputOpt = parser.acceptsAll(asList("deps-index-output"), "The file to write the merged dependency index to.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+
+        OptionSpec<Path> metricsOutputOpt = parser.acceptsAll(asList("metrics-output"), "The file to write the merged metrics to.")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+
+        OptionSet optSet = parser.parse(args);
+        if (optSet.has(helpOpt)) {
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+
+        if (!optSet.has(depsOpt) && !optSet.has(depsIndexOpt) && !optSet.has(metricsOpt)) {
+            LOGGER.error("Expected at least one --deps, --deps-index or --metrics argument.");
+            parser.printHelpOn(System.err);
+            return -1;
+        }
+
+        if (optSet.has(depsIndexOpt) && !optSet.has(depsIndexOutputOpt)) {
+            LOGGER.error("Expected --deps-index-output argument.");
+            return -1;
+        }
+
+        if (optSet.has(metricsOpt) && !optSet.has(metricsOutputOpt)) {
+            LOGGER.error("Expected --metrics-output argument.");
+            return -1;
+        }
+
+        if (optSet.has(depsOpt)) {
+            Set<String> deps = new TreeSet<>();
+            for (Path file : optSet.valuesOf(depsOpt)) {
+                LOGGER.info("Reading dependencies from {}", file);
+                for (String line : Files.readAllLines(file)) {
+                    if (!line.trim().isEmpty()) {
+                        deps.add(line.trim());
+                    }
+                }
+            }
+            if (optSet.has(depsOutputOpt)) {
+                InstallerRewriter.writeDeps(deps, optSet.valueOf(depsOutputOpt));
+            } else {
+                deps.forEach(System.out::println);
+            }
+        }
+
+        if (optSet.has(depsIndexOpt)) {
+            DependencyIndex merged = new DependencyIndex(null);
+            for (Path file : optSet.valuesOf(depsIndexOpt)) {
+                LOGGER.info("Reading dependency index from {}", file);
+                merged.merge(DependencyIndex.read(file));
+            }
+            merged.write(optSet.valueOf(depsIndexOutputOpt));
+        }
+
+        if (optSet.has(metricsOpt)) {
+            Metrics merged = new Metrics();
+            for (Path file : optSet.valuesOf(metricsOpt)) {
+                LOGGER.info("Reading metrics from {}", file);
+                merged.merge(Metrics.read(file));
+            }
+            merged.write(optSet.valueOf(metricsOutputOpt));
+        }
+        return 0;
+    }
+}
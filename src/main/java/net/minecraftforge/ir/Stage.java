@@ -0,0 +1,156 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A timed stage of the rewriter or tester, recorded as a Java Flight Recorder event and in {@code --trace} timelines.
+ * <p>
+ * Events are emitted by {@link JfrEvents}, which only does anything on Java 11 and above,
+ * from the versioned copy in the jar, and written to the active {@link Trace}, if any.
+ * When neither wants the stage, {@link #begin} returns a shared instance which ignores everything.
+ * <p>
+ * Stages without a notation inherit the notation of the enclosing stage on the same thread,
+ * so e.g. HTTP requests made while processing a version are attributed to that version.
+ */
+public final class Stage implements AutoCloseable {
+
+    private static final Stage NOOP = new Stage(Kind.VERSION, null, null, null, null);
+    private static final ThreadLocal<Stage> CURRENT = new ThreadLocal<>();
+
+    final Kind kind;
+    @Nullable
+    private final Object event;
+    @Nullable
+    private final Trace trace;
+    @Nullable
+    private final Stage parent;
+    final Thread thread = Thread.currentThread();
+    final long start = System.nanoTime();
+    @Nullable
+    final String notation;
+    @Nullable
+    String detail;
+    long bytes = -1;
+    boolean cacheHit;
+    int status = -1;
+
+    private Stage(Kind kind, @Nullable Object event, @Nullable Trace trace, @Nullable Stage parent, @Nullable String notation) {
+        this.kind = kind;
+        this.event = event;
+        this.trace = trace;
+        this.parent = parent;
+        this.notation = notation;
+    }
+
+    /**
+     * Begins a stage on this thread, it must be closed on this thread.
+     *
+     * @param kind     The kind of stage.
+     * @param notation The version being worked on, or {@code null} to inherit it.
+     * @return The stage.
+     */
+    public static Stage begin(Kind kind, @Nullable Object notation) {
+        Object event = JfrEvents.begin(kind);
+        Trace trace = Trace.active();
+        if (event == null && trace == null) return NOOP;
+
+        Stage parent = CURRENT.get();
+        Stage stage = new Stage(kind, event, trace, parent, notation(parent, notation));
+        CURRENT.set(stage);
+        return stage;
+    }
+
+    /**
+     * As {@link #begin}, for a stage which may be closed on another thread.
+     * Such stages are never inherited from.
+     */
+    public static Stage beginDetached(Kind kind, @Nullable Object notation) {
+        Object event = JfrEvents.begin(kind);
+        Trace trace = Trace.active();
+        if (event == null && trace == null) return NOOP;
+
+        return new Stage(kind, event, trace, null, notation(CURRENT.get(), notation));
+    }
+
+    public Stage detail(Object detail) {
+        if (this != NOOP) {
+            this.detail = String.valueOf(detail);
+        }
+        return this;
+    }
+
+    public Stage bytes(long bytes) {
+        if (this != NOOP) {
+            this.bytes = bytes;
+        }
+        return this;
+    }
+
+    public Stage cacheHit(boolean cacheHit) {
+        if (this != NOOP) {
+            this.cacheHit = cacheHit;
+        }
+        return this;
+    }
+
+    public Stage status(int status) {
+        if (this != NOOP) {
+            this.status = status;
+        }
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (this == NOOP) return;
+
+        long end = System.nanoTime();
+        boolean detached = CURRENT.get() != this;
+        if (!detached) {
+            CURRENT.set(parent);
+        }
+        if (event != null) {
+            JfrEvents.commit(event, this);
+        }
+        if (trace != null) {
+            trace.complete(this, end, detached);
+        }
+    }
+
+    @Nullable
+    private static String notation(@Nullable Stage parent, @Nullable Object notation) {
+        if (notation != null) return notation.toString();
+        return parent != null ? parent.notation : null;
+    }
+
+    public enum Kind {
+        VERSION,
+        LOAD,
+        PROCESS,
+        SAVE,
+        SIGN,
+        HASH,
+        HTTP_HEAD,
+        HTTP_GET,
+        TEST_INSTALL,
+        TEST_BOOT
+    }
+}
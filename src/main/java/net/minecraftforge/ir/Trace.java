@@ -0,0 +1,225 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.gson.stream.JsonWriter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Writes {@link Stage}s as a Chrome trace-event timeline, viewable in Perfetto or {@code chrome://tracing}.
+ * <p>
+ * Each thread is a track, stages are spans on the track of the thread which began them,
+ * stages closed on another thread are async spans. Registered counters and the heap are sampled periodically.
+ * Events are streamed to the file as they complete, it is only valid json once the trace is closed.
+ */
+public class Trace implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final int PID = 1;
+    private static final long SAMPLE_INTERVAL_MS = 100;
+
+    @Nullable
+    private static volatile Trace active;
+
+    private final Path file;
+    private final JsonWriter writer;
+    private final long origin = System.nanoTime();
+    private final Set<Long> threads = ConcurrentHashMap.newKeySet();
+    private final Map<String, LongSupplier> counters = new LinkedHashMap<>();
+    private final AtomicLong asyncIds = new AtomicLong();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Trace-Sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Set once writing fails or the trace is closed, further events are dropped.
+    private boolean done;
+
+    private Trace(Path file) throws IOException {
+        this.file = file;
+        writer = new JsonWriter(Files.newBufferedWriter(Utils.makeParents(file)));
+        writer.beginObject();
+        writer.name("displayTimeUnit").value("ms");
+        writer.name("traceEvents").beginArray();
+        metadata("process_name", 0, "InstallerRewriter");
+    }
+
+    /**
+     * Starts tracing all stages to the given file, until the trace is closed.
+     *
+     * @param file The file.
+     * @return The trace.
+     */
+    public static Trace start(Path file) throws IOException {
+        Trace trace = new Trace(file);
+        trace.sampler.scheduleAtFixedRate(trace::sample, 0, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        active = trace;
+        return trace;
+    }
+
+    @Nullable
+    static Trace active() {
+        return active;
+    }
+
+    /**
+     * Adds a counter track, sampled along with the heap.
+     *
+     * @param name  The name of the track.
+     * @param value The current value.
+     */
+    public synchronized void addCounter(String name, LongSupplier value) {
+        counters.put(name, value);
+    }
+
+    /**
+     * Writes a closed stage.
+     *
+     * @param stage    The stage.
+     * @param end      The {@link System#nanoTime} it closed at.
+     * @param detached If the stage may have closed on another thread than the one which began it.
+     */
+    void complete(Stage stage, long end, boolean detached) {
+        Map<String, Object> args = new LinkedHashMap<>();
+        if (stage.notation != null) args.put("notation", stage.notation);
+        if (stage.detail != null) args.put("detail", stage.detail);
+        if (stage.bytes >= 0) args.put("bytes", stage.bytes);
+        if (stage.cacheHit) args.put("cache_hit", true);
+        if (stage.status >= 0) args.put("status", stage.status);
+
+        // Versions are named by their notation, so stragglers are identifiable at a glance.
+        String category = stage.kind.name().toLowerCase(Locale.ROOT);
+        String name = stage.kind == Stage.Kind.VERSION && stage.notation != null ? stage.notation : category;
+        long tid = stage.thread.getId();
+        synchronized (this) {
+            if (threads.add(tid)) {
+                metadata("thread_name", tid, stage.thread.getName());
+            }
+            if (detached) {
+                // Async spans may overlap one another, so are drawn apart from the thread's own spans.
+                long id = asyncIds.incrementAndGet();
+                event(name, category, "b", stage.start, -1, tid, id, args);
+                event(name, category, "e", end, -1, tid, id, null);
+            } else {
+                event(name, category, "X", stage.start, end - stage.start, tid, -1, args);
+            }
+        }
+    }
+
+    private void sample() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        values.put("heap_used_mb", heap.getUsed() / 1024 / 1024);
+        values.put("heap_committed_mb", heap.getCommitted() / 1024 / 1024);
+        long ts = System.nanoTime();
+        synchronized (this) {
+            counters.forEach((name, value) -> values.put(name, value.getAsLong()));
+            values.forEach((name, value) -> {
+                Map<String, Object> args = new LinkedHashMap<>();
+                args.put("value", value);
+                event(name, null, "C", ts, -1, 0, -1, args);
+            });
+        }
+    }
+
+    private void metadata(String name, long tid, String value) {
+        Map<String, Object> args = new LinkedHashMap<>();
+        args.put("name", value);
+        event(name, null, "M", origin, -1, tid, -1, args);
+    }
+
+    // Must hold the lock.
+    private void event(String name, @Nullable String category, String phase, long ts, long dur, long tid, long id, @Nullable Map<String, Object> args) {
+        if (done) return;
+
+        try {
+            writer.beginObject();
+            writer.name("name").value(name);
+            if (category != null) {
+                writer.name("cat").value(category);
+            }
+            writer.name("ph").value(phase);
+            // Microseconds since the trace started.
+            writer.name("ts").value((ts - origin) / 1000D);
+            if (dur >= 0) {
+                writer.name("dur").value(dur / 1000D);
+            }
+            writer.name("pid").value(PID);
+            writer.name("tid").value(tid);
+            if (id >= 0) {
+                writer.name("id").value(id);
+            }
+            if (args != null && !args.isEmpty()) {
+                writer.name("args").beginObject();
+                for (Map.Entry<String, Object> entry : args.entrySet()) {
+                    writer.name(entry.getKey());
+                    Object value = entry.getValue();
+                    if (value instanceof Number) {
+                        writer.value((Number) value);
+                    } else if (value instanceof Boolean) {
+                        writer.value((Boolean) value);
+                    } else {
+                        writer.value(String.valueOf(value));
+                    }
+                }
+                writer.endObject();
+            }
+            writer.endObject();
+        } catch (IOException e) {
+            LOGGER.error("Failed to write to trace {}, no longer tracing.", file, e);
+            done = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (active == this) {
+            active = null;
+        }
+        sampler.shutdownNow();
+        synchronized (this) {
+            if (!done) {
+                writer.endArray();
+                writer.endObject();
+            }
+            done = true;
+            writer.close();
+        }
+    }
+}
@@ -29,8 +29,10 @@ import net.covers1624.quack.gson.MavenNotationAdapter;
 import net.covers1624.quack.maven.MavenNotation;
 import net.covers1624.quack.util.HashUtils;
 import net.covers1624.quack.util.ProcessUtils;
-import net.minecraftforge.ir.ClasspathEntry.LibraryClasspathEntry;
-import net.minecraftforge.ir.ClasspathEntry.StringClasspathEntry;
+import net.minecraftforge.ir.json.JsonModelAdapters;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -45,9 +47,9 @@ import org.apache.maven.artifact.repository.metadata.Metadata;
 import org.apache.maven.artifact.repository.metadata.Versioning;
 import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
 import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -59,21 +61,21 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.FileTime;
 import java.time.Duration;
-import java.util.ArrayList;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import static java.util.Objects.requireNonNull;
 import static net.covers1624.quack.util.SneakyUtils.sneak;
+import static net.covers1624.quack.util.SneakyUtils.sneaky;
 
 /**
  * Created by covers1624 on 30/4/21.
@@ -88,17 +90,29 @@ public class Utils {
 
     public static final String USER_AGENT = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/87.0.4280.88 Safari/537.36";
 
+    public static final HttpTelemetry HTTP_TELEMETRY = new HttpTelemetry();
+
     public static final OkHttpClient HTTP_CLIENT = new OkHttpClient.Builder()
             .readTimeout(Duration.ofMinutes(5))
             .connectTimeout(Duration.ofMinutes(5))
+            .eventListenerFactory(HTTP_TELEMETRY)
+            .dispatcher(new Dispatcher(IOExecutors.io()))
             .build();
 
     public static final Gson GSON = new GsonBuilder()
             .registerTypeAdapter(MavenNotation.class, new MavenNotationAdapter())
+            .registerTypeAdapterFactory(new JsonModelAdapters())
             .setPrettyPrinting()
             .disableHtmlEscaping()
             .create();
 
+    // For files only ever read back by us, written without whitespace.
+    public static final Gson COMPACT_GSON = new GsonBuilder()
+            .registerTypeAdapter(MavenNotation.class, new MavenNotationAdapter())
+            .registerTypeAdapterFactory(new JsonModelAdapters())
+            .disableHtmlEscaping()
+            .create();
+
     public static int getAsInt(JsonObject obj, String key) {
         JsonElement element = requireNonNull(obj.get(key));
         if (!element.isJsonPrimitive()) throw new IllegalArgumentException("Expected JsonPrimitive.");
@@ -112,6 +126,13 @@ public class Utils {
         return element.getAsJsonPrimitive().getAsInt();
     }
 
+    public static long getAsLong(JsonObject obj, String key, long _default) {
+        JsonElement element = obj.get(key);
+        if (element == null) return _default;
+        if (!element.isJsonPrimitive()) return _default;
+        return element.getAsJsonPrimitive().getAsLong();
+    }
+
     public static String getAsString(JsonObject obj, String key) {
         JsonElement element = requireNonNull(obj.get(key));
         if (!element.isJsonPrimitive()) throw new IllegalArgumentException("Expected JsonPrimitive.");
@@ -162,57 +183,7 @@ public class Utils {
     }
 
     public static List<ClasspathEntry> parseManifestClasspath(Path zipFile) throws IOException {
-        List<ClasspathEntry> classpathEntries = new ArrayList<>();
-        //We load things with a ZipInputStream, as jar-in-jar zipfs is not supported.
-        try (ZipInputStream zin = new ZipInputStream(Files.newInputStream(zipFile))) {
-            ZipEntry entry;
-            java.util.jar.Manifest manifest = null;
-            while ((entry = zin.getNextEntry()) != null) {
-                if (entry.getName().endsWith("META-INF/MANIFEST.MF")) {
-                    manifest = new java.util.jar.Manifest(zin);
-                    break;
-                }
-            }
-            List<String> classPath = new ArrayList<>();
-            if (manifest != null) {
-                String cp = manifest.getMainAttributes().getValue("Class-Path");
-                if (cp != null) {
-                    Collections.addAll(classPath, cp.split(" "));
-                }
-            }
-            for (String s : classPath) {
-                if (!s.startsWith("libraries/")) {
-                    classpathEntries.add(new StringClasspathEntry(s));
-                    continue;
-                }
-                s = s.substring(10);
-                String[] splits = s.split("/");
-                int len = splits.length;
-                if (len < 4) continue; //Invalid
-
-                String file = splits[len - 1];  //Grab file, version, and module segments.
-                String version = splits[len - 2];
-                String module = splits[len - 3];
-                StringBuilder gBuilder = new StringBuilder();
-                for (int i = 0; i < len - 3; i++) { // Assemble remaining into group.
-                    if (gBuilder.length() > 0) {
-                        gBuilder.append(".");
-                    }
-                    gBuilder.append(splits[i]);
-                }
-                String fPart = file.replaceFirst(module + "-", ""); // Strip module name
-                fPart = fPart.replaceFirst(version, ""); // Strip version
-                int lastDot = fPart.lastIndexOf("."); // Assumes we only have a single dot in the extension.
-                String classifer = "";
-                if (fPart.startsWith("-")) { // We have a classifier.
-                    classifer = fPart.substring(1, lastDot);
-                }
-                String extension = fPart.substring(lastDot + 1);
-                MavenNotation notation = new MavenNotation(gBuilder.toString(), module, version, classifer, extension);
-                classpathEntries.add(new LibraryClasspathEntry(notation));
-            }
-        }
-        return classpathEntries;
+        return ManifestClasspath.read(zipFile);
     }
 
     public static int runWaitFor(String logPrefix, Consumer<ProcessBuilder> configure) throws IOException {
@@ -228,7 +199,7 @@ public class Utils {
         CompletableFuture<Void> stdoutFuture = processLines(process.getInputStream(), consumer);
         ProcessUtils.onExit(process).thenRunAsync(() -> {
             if (!stdoutFuture.isDone()) stdoutFuture.cancel(true);
-        });
+        }, IOExecutors.io());
         try {
             process.waitFor();
         } catch (InterruptedException e) {
@@ -245,15 +216,69 @@ public class Utils {
                     consumer.accept(line);
                 }
             }
-        }));
+        }), IOExecutors.io());
     }
 
     public static void downloadFile(URL url, Path file) throws IOException {
         downloadFile(url, file, false);
     }
 
-    private static final Set<String> recentFiles = new HashSet<>();
+    private static final Set<String> recentFiles = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Forced downloads are only forced once per process, forgets which have been.
+     */
+    static void forgetRecentDownloads() {
+        recentFiles.clear();
+    }
+
     public static void downloadFile(URL url, Path file, boolean forceDownload) throws IOException {
+        try (Stage stage = Stage.begin(Stage.Kind.HTTP_GET, null).detail(url)) {
+            downloadFile(url, file, forceDownload, stage);
+        }
+    }
+
+    /**
+     * As {@link #downloadFile(URL, Path, boolean)}, without blocking.
+     * <p>
+     * Cancelling the returned future cancels the download.
+     *
+     * @param url           The url.
+     * @param file          The file to download to.
+     * @param forceDownload If the file should be fetched again, when it exists.
+     * @return A future completed once the file is present.
+     */
+    public static CompletableFuture<Void> downloadFileAsync(URL url, Path file, boolean forceDownload) {
+        Stage stage = Stage.beginDetached(Stage.Kind.HTTP_GET, null).detail(url);
+        CompletableFuture<Void> future;
+        try {
+            Request request = downloadRequest(url, file, forceDownload, stage);
+            future = request == null ? CompletableFuture.completedFuture(null) : enqueue(request, response -> {
+                saveResponse(response, file, stage);
+                return null;
+            });
+        } catch (IOException | RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((r, t) -> stage.close());
+        return future;
+    }
+
+    private static void downloadFile(URL url, Path file, boolean forceDownload, Stage stage) throws IOException {
+        Request request = downloadRequest(url, file, forceDownload, stage);
+        if (request == null) return;
+
+        try (Response response = HTTP_CLIENT.newCall(request).execute()) {
+            saveResponse(response, file, stage);
+        }
+    }
+
+    /**
+     * @return The request to make, or {@code null} if the file is already present.
+     */
+    @Nullable
+    private static Request downloadRequest(URL url, Path file, boolean forceDownload, Stage stage) throws IOException {
         // OkHttp does not handle the file protocol.
         if (url.getProtocol().equals("file")) {
             try {
@@ -262,48 +287,119 @@ public class Utils {
             } catch (URISyntaxException e) {
                 throw new RuntimeException("What.", e);
             }
+            stage.bytes(Files.size(file));
+            return null;
         }
-        Path tmp = file.resolveSibling(file.getFileName() + "__tmp");
-        if (forceDownload && !recentFiles.contains(url.toString())) {
-            Files.deleteIfExists(file);
+        // Forced downloads replace the existing file once fetched, rather than deleting it up front,
+        // other processes sharing the cache may be reading it.
+        boolean force = forceDownload && !recentFiles.contains(url.toString());
+        if (!force && Files.exists(file)) {
+            //Assume the file is already downloaded.
+            stage.cacheHit(true);
+            return null;
         }
-        if (Files.exists(file)) return; //Assume the file is already downloaded.
         recentFiles.add(url.toString());
 
-        Request request = new Request.Builder()
-                .url(url)
-                .header("User-Agent", USER_AGENT)
-                .build();
-        try (Response response = HTTP_CLIENT.newCall(request).execute()) {
-            ResponseBody body = response.body();
-            if (!response.isSuccessful()) {
-                throw new RuntimeException("Got: " + response.code());
-            }
-            if (body == null) {
-                throw new RuntimeException("Expected response body.");
-            }
+        Request.Builder builder = new Request.Builder()
+                .url(mirror(url))
+                .header("User-Agent", USER_AGENT);
+        // The file's timestamp is the Last-Modified of the response it was downloaded from.
+        if (Files.exists(file)) {
+            builder.header("If-Modified-Since", DateTimeFormatter.RFC_1123_DATE_TIME.format(Files.getLastModifiedTime(file).toInstant().atZone(ZoneOffset.UTC)));
+        }
+        return builder.build();
+    }
 
-            LOGGER.info("Downloading file " + file.getFileName());
+    private static void saveResponse(Response response, Path file, Stage stage) throws IOException {
+        stage.status(response.code());
+        if (response.code() == 304) {
+            stage.cacheHit(true);
+            return;
+        }
+        ResponseBody body = response.body();
+        if (!response.isSuccessful()) {
+            throw new RuntimeException("Got: " + response.code());
+        }
+        if (body == null) {
+            throw new RuntimeException("Expected response body.");
+        }
+
+        LOGGER.info("Downloading file " + file.getFileName());
+        // Unique per download, the cache may be shared by several processes downloading the same file.
+        Path tmp = Files.createTempFile(makeParents(file).getParent(), file.getFileName() + "__", "__tmp");
+        try {
             try (Source source = body.source()) {
-                try (BufferedSink sink = Okio.buffer(Okio.sink(makeParents(tmp)))) {
-                    sink.writeAll(source);
+                try (BufferedSink sink = Okio.buffer(Okio.sink(tmp))) {
+                    stage.bytes(sink.writeAll(source));
                 }
             }
-            Files.move(tmp, file);
 
             Date lastModified = response.headers().getDate("Last-Modified");
             if (lastModified != null) {
-                Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified.getTime()));
+                Files.setLastModifiedTime(tmp, FileTime.fromMillis(lastModified.getTime()));
             }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
         }
     }
 
-    public static byte[] toBytes(InputStream is) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        byte[] buf = new byte[0x100];
-        int len;
-        while ((len = is.read(buf)) != -1)
-            bos.write(buf, 0, len);
-        return bos.toByteArray();
+    /**
+     * Makes a request on {@link #HTTP_CLIENT} without blocking, the response is handled on OkHttp's dispatcher.
+     * <p>
+     * Cancelling the returned future cancels the call, including reading a response already being handled.
+     *
+     * @param request The request.
+     * @param handler Handles the response, which is closed afterwards.
+     * @return A future completed with the handler's result.
+     */
+    public static <T> CompletableFuture<T> enqueue(Request request, ResponseHandler<T> handler) {
+        Call call = HTTP_CLIENT.newCall(request);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.whenComplete((r, t) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    future.complete(handler.handle(r));
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    public interface ResponseHandler<T> {
+
+        T handle(Response response) throws IOException;
+    }
+
+    /**
+     * Redirects urls on the Forge and Mojang mavens to {@link InstallerRewriter#MIRROR_MAVEN}, when set.
+     *
+     * @param url The url.
+     * @return The url to request.
+     */
+    public static URL mirror(URL url) {
+        String mirror = InstallerRewriter.MIRROR_MAVEN;
+        if (mirror == null) return url;
+
+        String str = url.toString();
+        for (String maven : new String[] { InstallerRewriter.FORGE_MAVEN, InstallerRewriter.OLD_FORGE_MAVEN, InstallerRewriter.MOJANG_MAVEN }) {
+            if (str.startsWith(maven)) {
+                return sneaky(() -> new URL(mirror + str.substring(maven.length())));
+            }
+        }
+        return url;
     }
 }
@@ -0,0 +1,96 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
+import org.apache.maven.artifact.versioning.InvalidVersionSpecificationException;
+import org.apache.maven.artifact.versioning.VersionRange;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * A set of version selectors, matching a version if any selector matches it.
+ * <p>
+ * Each selector may be one of:
+ * <ul>
+ *     <li>A maven version range, such as {@code [1.12.2-14.23.5.2800,)}, compared using {@link org.apache.maven.artifact.versioning.ComparableVersion}.</li>
+ *     <li>A glob, such as {@code 1.16.5-*}, where {@code *} matches any run of characters and {@code ?} any single character.</li>
+ *     <li>An exact version.</li>
+ * </ul>
+ * An empty filter matches everything.
+ */
+public class VersionFilter implements Predicate<String> {
+
+    private final List<Predicate<String>> selectors;
+
+    private VersionFilter(List<Predicate<String>> selectors) {
+        this.selectors = selectors;
+    }
+
+    public static VersionFilter parse(Collection<String> specs) {
+        List<Predicate<String>> selectors = new ArrayList<>();
+        for (String spec : specs) {
+            selectors.add(parseSelector(spec.trim()));
+        }
+        return new VersionFilter(selectors);
+    }
+
+    private static Predicate<String> parseSelector(String spec) {
+        if (spec.startsWith("[") || spec.startsWith("(")) {
+            VersionRange range;
+            try {
+                range = VersionRange.createFromVersionSpec(spec);
+            } catch (InvalidVersionSpecificationException e) {
+                throw new IllegalArgumentException("Invalid version range: " + spec, e);
+            }
+            return v -> range.containsVersion(new DefaultArtifactVersion(v));
+        }
+        if (spec.contains("*") || spec.contains("?")) {
+            StringBuilder regex = new StringBuilder();
+            for (String part : spec.split("((?<=[*?])|(?=[*?]))")) {
+                switch (part) {
+                    case "*": regex.append(".*"); break;
+                    case "?": regex.append('.');  break;
+                    default:  regex.append(Pattern.quote(part));
+                }
+            }
+            Pattern pattern = Pattern.compile(regex.toString());
+            return v -> pattern.matcher(v).matches();
+        }
+        return spec::equals;
+    }
+
+    public boolean isEmpty() {
+        return selectors.isEmpty();
+    }
+
+    @Override
+    public boolean test(String version) {
+        if (selectors.isEmpty()) return true;
+
+        for (Predicate<String> selector : selectors) {
+            if (selector.test(version)) return true;
+        }
+        return false;
+    }
+}
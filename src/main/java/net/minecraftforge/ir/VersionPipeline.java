@@ -0,0 +1,183 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs version processing tasks on a fixed number of threads, admitting each
+ * task only once its installer fits within the {@link AdmissionController}'s budget.
+ * <p>
+ * With a single thread, tasks are run directly on the submitting thread, still within the budget.
+ */
+public class VersionPipeline implements AutoCloseable {
+
+    private final int threads;
+    private final AdmissionController admission;
+    @Nullable
+    private final ExecutorService executor;
+    private final Semaphore slots;
+    private final Phaser inFlight = new Phaser(1);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+
+    public VersionPipeline(int threads, AdmissionController admission) {
+        this.threads = threads;
+        this.admission = admission;
+        slots = new Semaphore(threads);
+        if (threads > 1) {
+            AtomicInteger counter = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "Worker-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Submits a task, blocking until its installer is admitted.
+     * <p>
+     * If a previously submitted task has failed, its exception is rethrown here instead.
+     *
+     * @param installer The installer jar the task will load, used to estimate its footprint.
+     * @param task      The task.
+     * @param onFailure Called if the task throws, before the failure is recorded.
+     */
+    public void submit(Path installer, Task task, @Nullable Task onFailure) throws Throwable {
+        rethrow();
+        queued.incrementAndGet();
+
+        // Only hold admission for tasks which are about to run, never for ones waiting on a thread.
+        AdmissionController.Permit permit;
+        try {
+            slots.acquire();
+            try {
+                long estimate = Files.exists(installer) ? AdmissionController.estimate(installer) : 0;
+                permit = admission.acquire(estimate);
+            } catch (Throwable e) {
+                slots.release();
+                throw e;
+            }
+        } catch (Throwable e) {
+            queued.decrementAndGet();
+            throw e;
+        }
+        if (executor == null) {
+            try {
+                run(task, onFailure);
+            } finally {
+                permit.close();
+                slots.release();
+            }
+            return;
+        }
+        inFlight.register();
+        executor.execute(() -> {
+            try {
+                run(task, onFailure);
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                permit.close();
+                slots.release();
+                inFlight.arriveAndDeregister();
+            }
+        });
+    }
+
+    /**
+     * Waits for all submitted tasks to finish, rethrowing the first failure.
+     */
+    public void await() throws Throwable {
+        if (executor != null) {
+            inFlight.arriveAndAwaitAdvance();
+        }
+        rethrow();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return The number of submitted tasks which have not started running.
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public int getRunning() {
+        return running.get();
+    }
+
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Waits for running tasks to finish, so a failure never cuts off others in the middle of writing an installer.
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+            inFlight.arriveAndAwaitAdvance();
+        }
+    }
+
+    private void run(Task task, @Nullable Task onFailure) throws Throwable {
+        queued.decrementAndGet();
+        running.incrementAndGet();
+        try {
+            task.run();
+        } catch (Throwable e) {
+            if (onFailure != null) {
+                onFailure.run();
+            }
+            throw e;
+        } finally {
+            running.decrementAndGet();
+            completed.incrementAndGet();
+        }
+    }
+
+    private void rethrow() throws Throwable {
+        Throwable e = failure.get();
+        if (e != null) throw e;
+    }
+
+    public interface Task {
+
+        void run() throws Throwable;
+    }
+}
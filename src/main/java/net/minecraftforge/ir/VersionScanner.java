@@ -0,0 +1,120 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import net.covers1624.quack.maven.MavenNotation;
+import org.apache.maven.artifact.versioning.ComparableVersion;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Finds the version folders of one or more modules within a maven repository.
+ * <p>
+ * Version folders are streamed from disk and filtered by name, nothing is read
+ * from within a version folder.
+ */
+public class VersionScanner {
+
+    public static final MavenNotation FORGE = MavenNotation.parse("net.minecraftforge:forge");
+
+    private final Path repo;
+    private final List<MavenNotation> modules;
+    private final VersionFilter filter;
+
+    public VersionScanner(Path repo, List<MavenNotation> modules, VersionFilter filter) {
+        this.repo = repo;
+        this.modules = modules;
+        this.filter = filter;
+    }
+
+    /**
+     * Parses a module argument, either a full {@code group:module} or a module name
+     * within the {@code net.minecraftforge} group.
+     *
+     * @param module The module argument.
+     * @return The module notation.
+     */
+    public static MavenNotation parseModule(String module) {
+        return MavenNotation.parse(module.contains(":") ? module : "net.minecraftforge:" + module);
+    }
+
+    public List<MavenNotation> getModules() {
+        return modules;
+    }
+
+    public Path getModuleFolder(MavenNotation module) {
+        return repo.resolve(module.toModulePath());
+    }
+
+    /**
+     * Scans all matching versions of all modules, ordered by module,
+     * then by {@link ComparableVersion}.
+     *
+     * @return The matching versions.
+     */
+    public List<MavenNotation> scan() {
+        List<MavenNotation> versions = new ArrayList<>();
+        for (MavenNotation module : modules) {
+            try (Stream<MavenNotation> stream = streamModule(module)) {
+                stream.sorted(Comparator.comparing(e -> new ComparableVersion(e.version)))
+                        .forEachOrdered(versions::add);
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Lists every version folder of the given module, ignoring the filter.
+     *
+     * @param module The module.
+     * @return The folder names.
+     */
+    public List<String> listAll(MavenNotation module) throws IOException {
+        Path moduleFolder = getModuleFolder(module);
+        if (Files.notExists(moduleFolder)) return new ArrayList<>();
+
+        try (Stream<Path> stream = Files.list(moduleFolder)) {
+            return stream.filter(Files::isDirectory)
+                    .map(e -> e.getFileName().toString())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Stream<MavenNotation> streamModule(MavenNotation module) {
+        Path moduleFolder = getModuleFolder(module);
+        if (Files.notExists(moduleFolder)) return Stream.empty();
+
+        try {
+            return Files.list(moduleFolder)
+                    .filter(e -> filter.test(e.getFileName().toString()))
+                    .filter(Files::isDirectory)
+                    .map(e -> module.withVersion(e.getFileName().toString()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.common.hash.HashCode;
+import net.covers1624.quack.maven.MavenNotation;
+import net.covers1624.quack.util.MultiHasher;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for versions to be published to the modules of a {@link VersionScanner}, for {@code --watch}.
+ * <p>
+ * Version folders created while watching are picked up, as are versions whose installer or sidecars change
+ * afterwards, e.g. re-uploads or fixes to a failed upload. New folders are seen through a {@link WatchService}
+ * on the module and new version folders, or by listing the module folders periodically, for filesystems
+ * without one or where it misses changes, such as network filesystems. Changes to other versions are
+ * only seen when listing, which checks the installer and sidecars of every version.
+ * <p>
+ * A version is ready once its installer and checksum sidecars have not changed for the settle time,
+ * and every sidecar matches the installer. Uploads which never get a sha1 sidecar are taken as they are,
+ * once unchanged for {@link #SIDECAR_TIMEOUT}. Versions whose installer and sidecars are as they were
+ * once {@link #processed}, e.g. from writing them in-place, are ignored.
+ */
+public class VersionWatcher implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    static final Duration SIDECAR_TIMEOUT = Duration.ofMinutes(1);
+    // Version folders which never get an installer, e.g. other classifiers only, are forgotten after this.
+    private static final Duration ABANDON_TIMEOUT = Duration.ofMinutes(10);
+    private static final Duration FALLBACK_POLL_INTERVAL = Duration.ofSeconds(5);
+    private static final Duration MIN_TICK = Duration.ofMillis(100);
+
+    private final Path repo;
+    private final VersionScanner scanner;
+    private final VersionFilter filter;
+    private final Duration settle;
+    private final Duration pollInterval;
+    @Nullable
+    private final WatchService watchService;
+    private final Map<WatchKey, MavenNotation> moduleKeys = new HashMap<>();
+    private final Map<WatchKey, MavenNotation> versionKeys = new HashMap<>();
+    // The version folders of each module at the last listing.
+    private final Map<MavenNotation, Set<String>> known = new HashMap<>();
+    private final Map<MavenNotation, Candidate> pending = new LinkedHashMap<>();
+    private final Map<MavenNotation, String> processed = new HashMap<>();
+    // The fingerprint of versions which are not pending, as last seen.
+    private final Map<MavenNotation, String> settled = new HashMap<>();
+    private long lastPoll = System.nanoTime();
+
+    /**
+     * Starts watching, existing versions are only ready once they change.
+     *
+     * @param repo         The repository.
+     * @param scanner      The modules to watch.
+     * @param filter       The versions to pick up.
+     * @param settle       How long an installer and its sidecars must be unchanged for.
+     * @param pollInterval How often module folders are listed, or {@code null} to use a {@link WatchService}
+     *                     if the filesystem has one, listing them once a minute to catch missed changes.
+     */
+    public VersionWatcher(Path repo, VersionScanner scanner, VersionFilter filter, Duration settle, @Nullable Duration pollInterval) throws IOException {
+        this.repo = repo;
+        this.scanner = scanner;
+        this.filter = filter;
+        this.settle = settle;
+        for (MavenNotation module : scanner.getModules()) {
+            List<String> versions = scanner.listAll(module);
+            known.put(module, new HashSet<>(versions));
+            for (String name : versions) {
+                if (!filter.test(name)) continue;
+                MavenNotation version = module.withVersion(name);
+                settled.put(version, fingerprint(installerPath(version)));
+            }
+        }
+
+        WatchService watchService = null;
+        if (pollInterval == null) {
+            try {
+                watchService = scanner.getModuleFolder(scanner.getModules().get(0)).getFileSystem().newWatchService();
+                for (MavenNotation module : scanner.getModules()) {
+                    register(watchService, scanner.getModuleFolder(module), module, moduleKeys);
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                LOGGER.warn("Unable to watch for changes, listing module folders every {}s instead.", FALLBACK_POLL_INTERVAL.getSeconds(), e);
+                if (watchService != null) {
+                    watchService.close();
+                }
+                watchService = null;
+                pollInterval = FALLBACK_POLL_INTERVAL;
+            }
+        }
+        this.watchService = watchService;
+        this.pollInterval = pollInterval != null ? pollInterval : Duration.ofMinutes(1);
+    }
+
+    /**
+     * Blocks until at least one new or changed version is ready.
+     *
+     * @return The ready versions.
+     */
+    public List<MavenNotation> awaitReady() throws IOException, InterruptedException {
+        long tick = Math.max(MIN_TICK.toNanos(), Math.min(settle.toNanos(), pollInterval.toNanos()) / 2);
+        while (true) {
+            if (watchService != null) {
+                WatchKey key = watchService.poll(tick, TimeUnit.NANOSECONDS);
+                while (key != null) {
+                    onEvents(key);
+                    key = watchService.poll();
+                }
+            } else {
+                TimeUnit.NANOSECONDS.sleep(tick);
+            }
+            if (System.nanoTime() - lastPoll >= pollInterval.toNanos()) {
+                poll();
+            }
+            List<MavenNotation> ready = checkPending();
+            if (!ready.isEmpty()) return ready;
+        }
+    }
+
+    /**
+     * Records the current state of a version once it has been processed,
+     * it is ignored until it changes again.
+     *
+     * @param version The version.
+     */
+    public synchronized void processed(MavenNotation version) throws IOException {
+        String fingerprint = fingerprint(installerPath(version));
+        if (fingerprint != null) {
+            processed.put(version, fingerprint);
+            settled.put(version, fingerprint);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private void onEvents(WatchKey key) throws IOException {
+        MavenNotation module = moduleKeys.get(key);
+        MavenNotation version = versionKeys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                LOGGER.debug("Missed changes, listing module folders.");
+                poll();
+            } else if (module != null) {
+                // Only new version folders matter.
+                String name = ((Path) event.context()).getFileName().toString();
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(scanner.getModuleFolder(module).resolve(name)) && known.get(module).add(name)) {
+                    onNewVersion(module.withVersion(name));
+                }
+            } else if (version != null) {
+                touch(version);
+            }
+        }
+        if (!key.reset()) {
+            moduleKeys.remove(key);
+            versionKeys.remove(key);
+        }
+    }
+
+    private synchronized void poll() throws IOException {
+        lastPoll = System.nanoTime();
+        for (MavenNotation module : scanner.getModules()) {
+            Set<String> versions = known.get(module);
+            for (String name : scanner.listAll(module)) {
+                MavenNotation version = module.withVersion(name);
+                if (versions.add(name)) {
+                    onNewVersion(version);
+                } else if (filter.test(name) && !pending.containsKey(version)) {
+                    String fingerprint = fingerprint(installerPath(version));
+                    if (fingerprint != null && !fingerprint.equals(settled.get(version))) {
+                        LOGGER.info("Found changes to {}, waiting for them to settle..", version);
+                        touch(version);
+                    }
+                }
+            }
+        }
+    }
+
+    private void onNewVersion(MavenNotation version) throws IOException {
+        if (!filter.test(version.version)) return;
+
+        LOGGER.info("Found new version {}, waiting for its installer..", version);
+        if (watchService != null) {
+            // Anything written before the folder is registered is still seen, pending versions are checked every tick.
+            try {
+                register(watchService, installerPath(version).getParent(), version, versionKeys);
+            } catch (IOException e) {
+                LOGGER.debug("Unable to watch {}", version, e);
+            }
+        }
+        touch(version);
+    }
+
+    private void touch(MavenNotation version) {
+        pending.computeIfAbsent(version, e -> new Candidate());
+    }
+
+    private static void register(WatchService watchService, Path folder, MavenNotation notation, Map<WatchKey, MavenNotation> keys) throws IOException {
+        WatchKey key = folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        keys.put(key, notation);
+    }
+
+    private synchronized List<MavenNotation> checkPending() throws IOException {
+        List<MavenNotation> ready = new ArrayList<>();
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<MavenNotation, Candidate>> itr = pending.entrySet().iterator(); itr.hasNext(); ) {
+            Map.Entry<MavenNotation, Candidate> entry = itr.next();
+            MavenNotation version = entry.getKey();
+            Candidate candidate = entry.getValue();
+
+            Path installer = installerPath(version);
+            String fingerprint = fingerprint(installer);
+            if (fingerprint == null && now - candidate.created > ABANDON_TIMEOUT.toNanos()) {
+                LOGGER.info("No installer published for {}, no longer waiting for it.", version);
+                itr.remove();
+                settled.remove(version);
+                unwatch(version);
+                continue;
+            }
+            if (!candidate.update(fingerprint, now)) continue;
+            long unchanged = now - candidate.changed;
+            if (fingerprint == null || unchanged < settle.toNanos()) continue;
+
+            if (fingerprint.equals(processed.get(version))) {
+                // Our own writes, or touched without changing.
+                itr.remove();
+                settled.put(version, fingerprint);
+                unwatch(version);
+                continue;
+            }
+            // Only hashed once per fingerprint, not every tick until the sidecar timeout.
+            if (candidate.verified == null) {
+                candidate.verified = verifySidecars(installer);
+            }
+            if (!candidate.verified) {
+                if (unchanged < SIDECAR_TIMEOUT.toNanos()) continue;
+                LOGGER.warn("Checksums of {} are missing or do not match, processing it as it is.", version);
+            }
+            itr.remove();
+            // Failures are offered again once this changes, which listing the module folders notices.
+            settled.put(version, fingerprint);
+            unwatch(version);
+            ready.add(version);
+        }
+        return ready;
+    }
+
+    /**
+     * Stops watching the folder of a version which is no longer pending, so a long watch does not run out of watches.
+     */
+    private void unwatch(MavenNotation version) {
+        versionKeys.entrySet().removeIf(e -> {
+            if (!e.getValue().equals(version)) return false;
+            e.getKey().cancel();
+            return true;
+        });
+    }
+
+    private Path installerPath(MavenNotation version) {
+        return version.withClassifier("installer").toPath(repo);
+    }
+
+    /**
+     * @return If the installer has a sha1 sidecar, and every sidecar matches it.
+     */
+    private static boolean verifySidecars(Path installer) throws IOException {
+        MultiHasher hasher = new MultiHasher(InstallerRewriter.HASH_FUNCS);
+        hasher.load(installer);
+        MultiHasher.HashResult result = hasher.finish();
+        boolean sha1 = false;
+        for (Map.Entry<MultiHasher.HashFunc, HashCode> entry : result.entrySet()) {
+            Path sidecar = sidecar(installer, entry.getKey());
+            if (Files.notExists(sidecar)) continue;
+
+            // Sidecars may be followed by the file name, as written by sha1sum and friends.
+            String expected = new String(Files.readAllBytes(sidecar), StandardCharsets.UTF_8).trim().split("\\s+")[0];
+            if (!expected.equalsIgnoreCase(entry.getValue().toString())) return false;
+            sha1 |= entry.getKey() == MultiHasher.HashFunc.SHA1;
+        }
+        return sha1;
+    }
+
+    private static Path sidecar(Path installer, MultiHasher.HashFunc func) {
+        return installer.resolveSibling(installer.getFileName() + "." + func.name.toLowerCase());
+    }
+
+    /**
+     * The size and modification time of the installer and its sidecars.
+     *
+     * @return The fingerprint, or {@code null} if the installer does not exist.
+     */
+    @Nullable
+    private static String fingerprint(Path installer) throws IOException {
+        if (Files.notExists(installer)) return null;
+
+        StringBuilder builder = new StringBuilder();
+        append(builder, installer);
+        for (MultiHasher.HashFunc func : InstallerRewriter.HASH_FUNCS) {
+            append(builder.append(';'), sidecar(installer, func));
+        }
+        return builder.toString();
+    }
+
+    private static void append(StringBuilder builder, Path file) throws IOException {
+        if (Files.notExists(file)) {
+            builder.append('-');
+            return;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        builder.append(attributes.size()).append(':').append(attributes.lastModifiedTime().toMillis());
+    }
+
+    private static class Candidate {
+
+        private final long created = System.nanoTime();
+        @Nullable
+        private String fingerprint;
+        private long changed = created;
+        // If the sidecars matched the current fingerprint, or null if not yet checked.
+        @Nullable
+        private Boolean verified;
+
+        /**
+         * @return If the fingerprint is unchanged since the last check.
+         */
+        private boolean update(@Nullable String fingerprint, long now) {
+            if (fingerprint == null ? this.fingerprint == null : fingerprint.equals(this.fingerprint)) return true;
+
+            this.fingerprint = fingerprint;
+            changed = now;
+            verified = null;
+            return false;
+        }
+    }
+}
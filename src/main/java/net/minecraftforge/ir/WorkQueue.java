@@ -0,0 +1,275 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import net.covers1624.quack.maven.MavenNotation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A work queue shared between several processes through a directory, possibly on a shared filesystem.
+ * <p>
+ * Each version is claimed by writing a lease to a temporary file and hard linking it into place,
+ * which fails if the lease already exists, so a lease is never seen half written. The queue directory
+ * must therefore support hard links. Leases are renewed by their owner while held, by atomically
+ * replacing them, and carry an expiry. A lease which has expired, for example because its worker
+ * crashed, is reclaimed by the first worker to atomically rename it out of the way.
+ * Once a version has been processed, a done marker is written and the lease removed.
+ * <p>
+ * Expiry is judged from the timestamps inside the lease, or its modification time if it can not be read,
+ * so hosts sharing a queue are expected to have reasonably synchronized clocks, well within the lease time.
+ */
+public class WorkQueue implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final Path leaseDir;
+    private final Path doneDir;
+    private final Duration leaseTime;
+    private final String workerId;
+    private final Map<Path, Lease> held = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "WorkQueue Heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public WorkQueue(Path dir, Duration leaseTime) throws IOException {
+        this.leaseDir = Files.createDirectories(dir.resolve("leases"));
+        this.doneDir = Files.createDirectories(dir.resolve("done"));
+        this.leaseTime = leaseTime;
+        this.workerId = computeWorkerId();
+        long interval = Math.max(1, leaseTime.toMillis() / 3);
+        heartbeat.scheduleAtFixedRate(this::heartbeat, interval, interval, TimeUnit.MILLISECONDS);
+        LOGGER.info("Joined work queue {} as {}", dir, workerId);
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public Duration getLeaseTime() {
+        return leaseTime;
+    }
+
+    /**
+     * @param notation The version.
+     * @return If the version has already been processed by any worker.
+     */
+    public boolean isDone(MavenNotation notation) {
+        return Files.exists(doneDir.resolve(fileName(notation)));
+    }
+
+    /**
+     * Attempts to claim the given version.
+     * <p>
+     * Fails if the version is done, or is currently leased by another worker
+     * whose lease has not yet expired.
+     *
+     * @param notation The version.
+     * @return The lease, or {@code null} if the version could not be claimed.
+     */
+    @Nullable
+    public Lease tryClaim(MavenNotation notation) throws IOException {
+        if (isDone(notation)) return null;
+
+        Path leaseFile = leaseDir.resolve(fileName(notation) + ".lease");
+        if (Files.exists(leaseFile) && !reclaimIfExpired(leaseFile)) return null;
+
+        Lease lease = new Lease(notation, leaseFile);
+        Path temp = writeTemp(lease);
+        try {
+            Files.createLink(leaseFile, temp);
+        } catch (FileAlreadyExistsException e) {
+            return null; // Lost the race.
+        } catch (UnsupportedOperationException e) {
+            throw new IOException("The queue directory does not support hard links: " + leaseDir, e);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        // A done marker may have been written between our check and creating the lease.
+        if (isDone(notation)) {
+            Files.deleteIfExists(leaseFile);
+            return null;
+        }
+        held.put(leaseFile, lease);
+        return lease;
+    }
+
+    /**
+     * Marks the leased version as done and releases the lease.
+     *
+     * @param lease The lease.
+     */
+    public void complete(Lease lease) throws IOException {
+        Files.write(doneDir.resolve(fileName(lease.notation)), workerId.getBytes(StandardCharsets.UTF_8));
+        release(lease);
+    }
+
+    /**
+     * Releases the lease without marking the version as done, allowing another worker to claim it.
+     *
+     * @param lease The lease.
+     */
+    public void release(Lease lease) throws IOException {
+        held.remove(lease.file);
+        if (workerId.equals(readOwner(lease.file))) {
+            Files.deleteIfExists(lease.file);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        heartbeat.shutdownNow();
+        for (Lease lease : held.values()) {
+            release(lease);
+        }
+    }
+
+    private boolean reclaimIfExpired(Path leaseFile) throws IOException {
+        JsonObject json = readLease(leaseFile);
+        long expires;
+        if (json != null) {
+            expires = Utils.getAsLong(json, "expires", Long.MAX_VALUE);
+        } else {
+            // Corrupt, or written by something else. Leases are always complete, so this never changes by itself.
+            try {
+                expires = Files.getLastModifiedTime(leaseFile).toMillis() + leaseTime.toMillis();
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+        }
+        if (expires > System.currentTimeMillis()) return false;
+
+        // Only a single worker can win the rename, everyone else fails and moves on.
+        Path stale = leaseFile.resolveSibling(leaseFile.getFileName() + ".stale-" + workerId);
+        try {
+            Files.move(leaseFile, stale, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        LOGGER.warn("Reclaimed expired lease {} from {}", leaseFile.getFileName(), json != null ? Utils.getAsString(json, "worker", "unknown") : "unknown");
+        Files.deleteIfExists(stale);
+        return true;
+    }
+
+    private void heartbeat() {
+        for (Lease lease : held.values()) {
+            try {
+                if (!workerId.equals(readOwner(lease.file))) {
+                    LOGGER.error("Lost lease for {}, another worker may process it concurrently.", lease.notation);
+                    held.remove(lease.file);
+                    continue;
+                }
+                lease.heartbeat = System.currentTimeMillis();
+                Path temp = writeTemp(lease);
+                try {
+                    Files.move(temp, lease.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+                // Reclaimed by another worker between reading and renewing.
+                if (!workerId.equals(readOwner(lease.file))) {
+                    LOGGER.error("Lost lease for {}, another worker may process it concurrently.", lease.notation);
+                    held.remove(lease.file);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Failed to heartbeat lease for {}", lease.notation, e);
+            }
+        }
+    }
+
+    private Path writeTemp(Lease lease) throws IOException {
+        Path temp = leaseDir.resolve(lease.file.getFileName() + ".tmp-" + workerId + "-" + UUID.randomUUID().toString().substring(0, 8));
+        Files.write(temp, lease.toBytes(), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        return temp;
+    }
+
+    @Nullable
+    private String readOwner(Path leaseFile) {
+        JsonObject json = readLease(leaseFile);
+        return json != null ? Utils.getAsString(json, "worker", null) : null;
+    }
+
+    @Nullable
+    private static JsonObject readLease(Path leaseFile) {
+        try {
+            byte[] bytes = Files.readAllBytes(leaseFile);
+            if (bytes.length == 0) return null;
+            return Utils.GSON.fromJson(new String(bytes, StandardCharsets.UTF_8), JsonObject.class);
+        } catch (IOException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    private static String fileName(MavenNotation notation) {
+        return notation.toString().replace(':', '_');
+    }
+
+    private static String computeWorkerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "unknown";
+        }
+        // RuntimeMXBean's name is 'pid@host' on every JVM we care about.
+        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        return host + "-" + pid + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    public class Lease {
+
+        public final MavenNotation notation;
+        private final Path file;
+        private final long claimed = System.currentTimeMillis();
+        private volatile long heartbeat = claimed;
+
+        private Lease(MavenNotation notation, Path file) {
+            this.notation = notation;
+            this.file = file;
+        }
+
+        private byte[] toBytes() {
+            JsonObject json = new JsonObject();
+            json.addProperty("worker", workerId);
+            json.addProperty("version", notation.toString());
+            json.addProperty("claimed", claimed);
+            json.addProperty("heartbeat", heartbeat);
+            json.addProperty("expires", heartbeat + leaseTime.toMillis());
+            return Utils.COMPACT_GSON.toJson(json).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
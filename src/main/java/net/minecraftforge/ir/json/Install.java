@@ -57,11 +57,11 @@ public class Install {
     public boolean hideServer = false;
     public boolean hideExtract = false;
     // Extra libraries needed by processors, that may differ from the installer version's library list. Uses the same format as Mojang for simplicities sake.
-    private List<Version.Library> libraries;
+    List<Version.Library> libraries;
     // Executable jars to be run after all libraries have been downloaded.
-    private List<Processor> processors;
+    List<Processor> processors;
     //Data files to be extracted during install, used for processor.
-    private Map<String, DataFile> data;
+    Map<String, DataFile> data;
 
     public List<Version.Library> getLibraries() {
         if (libraries == null) {
@@ -87,11 +87,11 @@ public class Install {
     public static class Processor {
 
         // Which side this task is to be run on, Currently know sides are "client", "server" and "extract", if this omitted, assume all sides.
-        private List<String> sides;
+        List<String> sides;
         // The executable jar to run, The installer will run it in-process, but external tools can run it using java -jar {file}, so MANFEST Main-Class entry must be valid.
         public MavenNotation jar;
         // Dependency list of files needed for this jar to run. Aything listed here SHOULD be listed in {@see Install#libraries} so the installer knows to download it.
-        private List<MavenNotation> classpath;
+        List<MavenNotation> classpath;
         /*
          * Arguments to pass to the jar, can be in the following formats:
          * [Artifact] : A artifact path in the target maven style repo, where all libraries are downloaded to.
@@ -99,14 +99,14 @@ public class Install {
          *   {MINECRAFT_JAR} - The vanilla minecraft jar we are dealing with, /versions/VERSION/VERSION.jar on the client and /minecraft_server.VERSION.jar for the server
          *   {SIDE} - Either the exact string "client", "server", and "extract" depending on what side we are installing.
          */
-        private List<String> args;
+        List<String> args;
         /*
          *  Files output from this task, used for verifying the process was successful, or if the task needs to be rerun.
          *  Keys are either a [Artifact] or {DATA_ENTRRY}, if it is a {DATA_ENTRY} then that MUST be a [Artifact]
          *  Values are either a {DATA_ENTRY} or 'value', if it is a {DATA_ENTRY} then that entry MUST be a quoted string literal
          *    The end string literal is the sha1 hash of the specified artifact.
          */
-        private Map<String, String> outputs;
+        Map<String, String> outputs;
 
         public List<String> getSides() {
             if (sides == null) {
@@ -0,0 +1,688 @@
+/*
+ * Installer Rewriter
+ * Copyright (c) 2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.minecraftforge.ir.json;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import net.covers1624.quack.maven.MavenNotation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming {@link TypeAdapter}s for the json model, in place of Gson's reflective adapters.
+ * <p>
+ * Behaves exactly as the reflective adapters would: unknown keys are skipped, a {@code null}
+ * leaves primitive fields at their defaults, and fields are written in declaration order,
+ * subclass fields first. {@link MavenNotation}s, {@link JsonObject}s and {@link JsonArray}s are
+ * still handled by whatever adapters the {@link Gson} instance has for them.
+ * Adding a field to a model class requires adding it here.
+ */
+public class JsonModelAdapters implements TypeAdapterFactory {
+
+    @Override
+    @SuppressWarnings ("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> raw = type.getRawType();
+        if (raw.getPackage() != JsonModelAdapters.class.getPackage()) return null;
+
+        Models m = new Models(gson);
+        if (raw == Version.class) return (TypeAdapter<T>) adapter(m::readVersion, m::writeVersion);
+        if (raw == Version.Download.class) return (TypeAdapter<T>) adapter(m::readDownload, m::writeDownload);
+        if (raw == Version.LibraryDownload.class) return (TypeAdapter<T>) adapter(m::readLibraryDownload, m::writeLibraryDownload);
+        if (raw == Version.Library.class) return (TypeAdapter<T>) adapter(m::readLibrary, m::writeLibrary);
+        if (raw == Version.Downloads.class) return (TypeAdapter<T>) adapter(m::readDownloads, m::writeDownloads);
+        if (raw == Install.class) return (TypeAdapter<T>) adapter(m::readInstall, m::writeInstall);
+        if (raw == Install.Processor.class) return (TypeAdapter<T>) adapter(m::readProcessor, m::writeProcessor);
+        if (raw == Install.DataFile.class) return (TypeAdapter<T>) adapter(m::readDataFile, m::writeDataFile);
+        if (raw == V1InstallProfile.class) return (TypeAdapter<T>) adapter(m::readV1Profile, m::writeV1Profile);
+        if (raw == V1InstallProfile.Install.class) return (TypeAdapter<T>) adapter(m::readV1Install, m::writeV1Install);
+        if (raw == V1InstallProfile.VersionInfo.class) return (TypeAdapter<T>) adapter(m::readVersionInfo, m::writeVersionInfo);
+        if (raw == V1InstallProfile.Library.class) return (TypeAdapter<T>) adapter(m::readV1Library, m::writeV1Library);
+        if (raw == Manifest.class) return (TypeAdapter<T>) adapter(m::readManifest, m::writeManifest);
+        if (raw == Manifest.Info.class) return (TypeAdapter<T>) adapter(m::readManifestInfo, m::writeManifestInfo);
+        return null;
+    }
+
+    private static <T> TypeAdapter<T> adapter(ValueReader<T> reader, ValueWriter<T> writer) {
+        return new TypeAdapter<T>() {
+            @Override
+            public void write(JsonWriter out, T value) throws IOException {
+                if (value == null) {
+                    out.nullValue();
+                } else {
+                    writer.write(out, value);
+                }
+            }
+
+            @Override
+            public T read(JsonReader in) throws IOException {
+                return JsonModelAdapters.read(in, reader);
+            }
+        };
+    }
+
+    //region Primitives, as Gson's built in adapters read them.
+    private static String readString(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+
+    private static Integer readInt(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        try {
+            return in.nextInt();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    private static Boolean readBoolean(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.STRING) {
+            return Boolean.parseBoolean(in.nextString());
+        }
+        return in.nextBoolean();
+    }
+
+    private static <T> T read(JsonReader in, ValueReader<T> reader) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return reader.read(in);
+    }
+
+    private static <T> List<T> readList(JsonReader in, ValueReader<T> element) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<T> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            list.add(read(in, element));
+        }
+        in.endArray();
+        return list;
+    }
+
+    private static <T> Map<String, T> readMap(JsonReader in, ValueReader<T> value) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Map<String, T> map = new LinkedHashMap<>();
+        if (token == JsonToken.BEGIN_ARRAY) {
+            // Gson also accepts maps as an array of [key, value] pairs.
+            in.beginArray();
+            while (in.hasNext()) {
+                in.beginArray();
+                put(map, readString(in), read(in, value));
+                in.endArray();
+            }
+            in.endArray();
+        } else {
+            in.beginObject();
+            while (in.hasNext()) {
+                put(map, in.nextName(), read(in, value));
+            }
+            in.endObject();
+        }
+        return map;
+    }
+
+    private static <T> void put(Map<String, T> map, String key, T value) {
+        if (map.containsKey(key)) throw new JsonSyntaxException("duplicate key: " + key);
+        map.put(key, value);
+    }
+
+    private static void write(JsonWriter out, String name, String value) throws IOException {
+        out.name(name);
+        if (value == null) {
+            out.nullValue();
+        } else {
+            out.value(value);
+        }
+    }
+
+    private static void write(JsonWriter out, String name, Number value) throws IOException {
+        out.name(name);
+        if (value == null) {
+            out.nullValue();
+        } else {
+            out.value(value);
+        }
+    }
+
+    private static void write(JsonWriter out, String name, Boolean value) throws IOException {
+        out.name(name).value(value);
+    }
+
+    private static <T> void write(JsonWriter out, String name, T value, ValueWriter<T> writer) throws IOException {
+        out.name(name);
+        write(out, value, writer);
+    }
+
+    private static <T> void write(JsonWriter out, T value, ValueWriter<T> writer) throws IOException {
+        if (value == null) {
+            out.nullValue();
+        } else {
+            writer.write(out, value);
+        }
+    }
+
+    private static <T> void writeList(JsonWriter out, String name, List<T> list, ValueWriter<T> element) throws IOException {
+        out.name(name);
+        if (list == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (T value : list) {
+            write(out, value, element);
+        }
+        out.endArray();
+    }
+
+    private static <T> void writeMap(JsonWriter out, String name, Map<String, T> map, ValueWriter<T> value) throws IOException {
+        out.name(name);
+        if (map == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        for (Map.Entry<String, T> entry : map.entrySet()) {
+            out.name(String.valueOf(entry.getKey()));
+            write(out, entry.getValue(), value);
+        }
+        out.endObject();
+    }
+
+    private static void writeString(JsonWriter out, String value) throws IOException {
+        out.value(value);
+    }
+    //endregion
+
+    /**
+     * The adapters of a single {@link Gson} instance, for the types it delegates to.
+     */
+    private static class Models {
+
+        private final TypeAdapter<MavenNotation> notation;
+        private final TypeAdapter<JsonObject> jsonObject;
+        private final TypeAdapter<JsonArray> jsonArray;
+
+        private Models(Gson gson) {
+            notation = gson.getAdapter(MavenNotation.class);
+            jsonObject = gson.getAdapter(JsonObject.class);
+            jsonArray = gson.getAdapter(JsonArray.class);
+        }
+
+        //region Version
+        private Version readVersion(JsonReader in) throws IOException {
+            Version version = new Version();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "_comment_": version._comment_ = readList(in, JsonModelAdapters::readString); break;
+                    case "id": version.id = readString(in); break;
+                    case "time": version.time = readString(in); break;
+                    case "releaseTime": version.releaseTime = readString(in); break;
+                    case "type": version.type = readString(in); break;
+                    case "mainClass": version.mainClass = readString(in); break;
+                    case "inheritsFrom": version.inheritsFrom = readString(in); break;
+                    case "logging": version.logging = jsonObject.read(in); break;
+                    case "minecraftArguments": version.minecraftArguments = readString(in); break;
+                    case "downloads": version.downloads = readMap(in, this::readDownload); break;
+                    case "libraries": version.libraries = readList(in, this::readLibrary); break;
+                    default: in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            return version;
+        }
+
+        private void writeVersion(JsonWriter out, Version version) throws IOException {
+            out.beginObject();
+            writeList(out, "_comment_", version._comment_, JsonModelAdapters::writeString);
+            write(out, "id", version.id);
+            write(out, "time", version.time);
+            write(out, "releaseTime", version.releaseTime);
+            write(out, "type", version.type);
+            write(out, "mainClass", version.mainClass);
+            write(out, "inheritsFrom", version.inheritsFrom);
+            write(out, "logging", version.logging, jsonObject::write);
+            write(out, "minecraftArguments", version.minecraftArguments);
+            writeMap(out, "downloads", version.downloads, this::writeDownload);
+            writeList(out, "libraries", version.libraries, this::writeLibrary);
+            out.endObject();
+        }
+
+        private Version.Download readDownload(JsonReader in) throws IOException {
+            Version.Download download = new Version.Download();
+            in.beginObject();
+            while (in.hasNext()) {
+                readDownloadField(in, in.nextName(), download);
+            }
+            in.endObject();
+            return download;
+        }
+
+        private void readDownloadField(JsonReader in, String name, Version.Download download) throws IOException {
+            switch (name) {
+                case "url": download.url = readString(in); break;
+                case "sha1": download.sha1 = readString(in); break;
+                case "size": download.size = readInt(in); break;
+                default: in.skipValue(); break;
+            }
+        }
+
+        private void writeDownload(JsonWriter out, Version.Download download) throws IOException {
+            // As the reflective adapter, the runtime type decides what is written.
+            if (download instanceof Version.LibraryDownload) {
+                writeLibraryDownload(out, (Version.LibraryDownload) download);
+                return;
+            }
+            out.beginObject();
+            writeDownloadFields(out, download);
+            out.endObject();
+        }
+
+        private void writeDownloadFields(JsonWriter out, Version.Download download) throws IOException {
+            write(out, "url", download.url);
+            write(out, "sha1", download.sha1);
+            write(out, "size", download.size);
+        }
+
+        private Version.LibraryDownload readLibraryDownload(JsonReader in) throws IOException {
+            Version.LibraryDownload download = new Version.LibraryDownload();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("path")) {
+                    download.path = readString(in);
+                } else {
+                    readDownloadField(in, name, download);
+                }
+            }
+            in.endObject();
+            return download;
+        }
+
+        private void writeLibraryDownload(JsonWriter out, Version.LibraryDownload download) throws IOException {
+            out.beginObject();
+            write(out, "path", download.path);
+            writeDownloadFields(out, download);
+            out.endObject();
+        }
+
+        private Version.Library readLibrary(JsonReader in) throws IOException {
+            Version.Library library = new Version.Library();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name": library.name = notation.read(in); break;
+                    case "downloads": library.downloads = read(in, this::readDownloads); break;
+                    default: in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            return library;
+        }
+
+        private void writeLibrary(JsonWriter out, Version.Library library) throws IOException {
+            out.beginObject();
+            write(out, "name", library.name, notation::write);
+            write(out, "downloads", library.downloads, this::writeDownloads);
+            out.endObject();
+        }
+
+        private Version.Downloads readDownloads(JsonReader in) throws IOException {
+            Version.Downloads downloads = new Version.Downloads();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "artifact": downloads.artifact = read(in, this::readLibraryDownload); break;
+                    case "classifiers": downloads.classifiers = readMap(in, this::readLibraryDownload); break;
+                    default: in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            return downloads;
+        }
+
+        private void writeDownloads(JsonWriter out, Version.Downloads downloads) throws IOException {
+            out.beginObject();
+            write(out, "artifact", downloads.artifact, this::writeLibraryDownload);
+            writeMap(out, "classifiers", downloads.classifiers, this::writeLibraryDownload);
+            out.endObject();
+        }
+        //endregion
+
+        //region Install
+        private Install readInstall(JsonReader in) throws IOException {
+            Install install = new Install();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "_comment_": install._comment_ = readList(in, JsonModelAdapters::readString); break;
+                    case "spec": {
+                        Integer spec = readInt(in);
+                        if (spec != null) install.spec = spec;
+                        break;
+                    }
+                    case "profile": install.profile = readString(in); break;
+                    case "version": install.version = readString(in); break;
+                    case "icon": install.icon = readString(in); break;
+                    case "minecraft": install.minecraft = readString(in); break;
+                    case "json": install.json = readString(in); break;
+                    case "logo": install.logo = readString(in); break;
+                    case "path": install.path = notation.read(in); break;
+                    case "urlIcon": install.urlIcon = readString(in); break;
+                    case "welcome": install.welcome = readString(in); break;
+                    case "mirrorList": install.mirrorList = readString(in); break;
+                    case "hideClient": {
+                        Boolean hide = readBoolean(in);
+                        if (hide != null) install.hideClient = hide;
+                        break;
+                    }
+                    case "hideServer": {
+                        Boolean hide = readBoolean(in);
+                        if (hide != null) install.hideServer = hide;
+                        break;
+                    }
+                    case "hideExtract": {
+                        Boolean hide = readBoolean(in);
+                        if (hide != null) install.hideExtract = hide;
+                        break;
+                    }
+                    case "libraries": install.libraries = readList(in, this::readLibrary); break;
+                    case "processors": install.processors = readList(in, this::readProcessor); break;
+                    case "data": install.data = readMap(in, this::readDataFile); break;
+                    default: in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            return install;
+        }
+
+        private void writeInstall(JsonWriter out, Install install) throws IOException {
+            out.beginObject();
+            writeList(out, "_comment_", install._comment_, JsonModelAdapters::writeString);
+            write(out, "spec", install.spec);
+            write(out, "profile", install.profile);
+            write(out, "version", install.version);
+            write(out, "icon", install.icon);
+            write(out, "minecraft", install.minecraft);
+            write(out, "json", install.json);
+            write(out, "logo", install.logo);
+            write(out, "path", install.path, notation::write);
+            write(out, "urlIcon", install.urlIcon);
+            write(out, "welcome", install.welcome);
+            write(out, "mirrorList", install.mirrorList);
+            write(out, "hideClient", install.hideClient);
+            write(out, "hideServer", install.hideServer);
+            write(out, "hideExtract", install.hideExtract);
+            writeList(out, "libraries", install.libraries, this::writeLibrary);
+            writeList(out, "processors", install.processors, this::writeProcessor);
+            writeMap(out, "data", install.data, this::writeDataFile);
+            out.endObject();
+        }
+
+        private Install.Processor readProcessor(JsonReader in) throws IOException {
+            Install.Processor processor = new Install.Processor();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "sides": processor.sides = readList(in, JsonModelAdapters::readString); break;
+                    case "jar": processor.jar = notation.read(in); break;
+                    case "classpath": processor.classpath = readList(in, notation::read); break;
+                    case "args": processor.args = readList(in, JsonModelAdapters::readString); break;
+                    case "outputs": processor.outputs = readMap(in, JsonModelAdapters::readString); break;
+                    default: in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            return processor;
+        }
+
+        private void writeProcessor(JsonWriter out, Install.Processor processor) throws IOException {
+            out.beginObject();
+            writeList(out, "sides", processor.sides, JsonModelAdapters::writeString);
+            write(out, "jar", processor.jar, notation::write);
+            writeList(out, "classpath", processor.classpath, notation::write);
+            writeList(out, "args", processor.args, JsonModelAdapters::writeString);
+            writeMap(out, "outputs", processor.outputs, JsonModelAdapters::writeString);
+            out.endObject();
+        }
+
+        private Install.DataFile readDataFile(JsonReader in) throws IOException {
+            Install.DataFile dataFile = new Install.DataFile();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "client": dataFile.client = readString(in); break;
+                    case "server": dataFile.server = readString(in); break;
+                    default: in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            return dataFile;
+        }
+
+        private void writeDataFile(JsonWriter out, Install.DataFile dataFile) throws IOException {
+            out.beginObject();
+            write(out, "client", dataFile.client);
+            write(out, "server", dataFile.server);
+            out.endObject();
+        }
+        //endregion
+
+        //region V1InstallProfile
+        private V1InstallProfile readV1Profile(JsonReader in) throws IOException {
+            V1InstallProfile profile = new V1InstallProfile();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "install": profile.install = read(in, this::readV1Install); break;
+                    case "versionInfo": profile.versionInfo = read(in, this::readVersionInfo); break;
+                    default: in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            return profile;
+        }
+
+        private void writeV1Profile(JsonWriter out, V1InstallProfile profile) throws IOException {
+            out.beginObject();
+            write(out, "install", profile.install, this::writeV1Install);
+            write(out, "versionInfo", profile.versionInfo, this::writeVersionInfo);
+            out.endObject();
+        }
+
+        private V1InstallProfile.Install readV1Install(JsonReader in) throws IOException {
+            V1InstallProfile.Install install = new V1InstallProfile.Install();
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("filePath")) {
+                    install.filePath = readString(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return install;
+        }
+
+        private void writeV1Install(JsonWriter out, V1InstallProfile.Install install) throws IOException {
+            out.beginObject();
+            write(out, "filePath", install.filePath);
+            out.endObject();
+        }
+
+        private V1InstallProfile.VersionInfo readVersionInfo(JsonReader in) throws IOException {
+            V1InstallProfile.VersionInfo info = new V1InstallProfile.VersionInfo();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id": info.id = readString(in); break;
+                    case "time": info.time = readString(in); break;
+                    case "releaseTime": info.releaseTime = readString(in); break;
+                    case "type": info.type = readString(in); break;
+                    case "minecraftArguments": info.minecraftArguments = readString(in); break;
+                    case "mainClass": info.mainClass = readString(in); break;
+                    case "inheritsFrom": info.inheritsFrom = readString(in); break;
+                    case "libraries": info.libraries = readList(in, this::readV1Library); break;
+                    case "optionals": info.optionals = jsonArray.read(in); break;
+                    default: in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            return info;
+        }
+
+        private void writeVersionInfo(JsonWriter out, V1InstallProfile.VersionInfo info) throws IOException {
+            out.beginObject();
+            write(out, "id", info.id);
+            write(out, "time", info.time);
+            write(out, "releaseTime", info.releaseTime);
+            write(out, "type", info.type);
+            write(out, "minecraftArguments", info.minecraftArguments);
+            write(out, "mainClass", info.mainClass);
+            write(out, "inheritsFrom", info.inheritsFrom);
+            writeList(out, "libraries", info.libraries, this::writeV1Library);
+            write(out, "optionals", info.optionals, jsonArray::write);
+            out.endObject();
+        }
+
+        private V1InstallProfile.Library readV1Library(JsonReader in) throws IOException {
+            V1InstallProfile.Library library = new V1InstallProfile.Library();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name": library.name = notation.read(in); break;
+                    case "url": library.url = readString(in); break;
+                    case "checksums": library.checksums = readList(in, JsonModelAdapters::readString); break;
+                    case "serverreq": library.serverreq = readBoolean(in); break;
+                    case "clientreq": library.clientreq = readBoolean(in); break;
+                    case "rules": library.rules = jsonArray.read(in); break;
+                    case "natives": library.natives = jsonObject.read(in); break;
+                    case "extract": library.extract = jsonObject.read(in); break;
+                    default: in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            return library;
+        }
+
+        private void writeV1Library(JsonWriter out, V1InstallProfile.Library library) throws IOException {
+            out.beginObject();
+            write(out, "name", library.name, notation::write);
+            write(out, "url", library.url);
+            writeList(out, "checksums", library.checksums, JsonModelAdapters::writeString);
+            write(out, "serverreq", library.serverreq);
+            write(out, "clientreq", library.clientreq);
+            write(out, "rules", library.rules, jsonArray::write);
+            write(out, "natives", library.natives, jsonObject::write);
+            write(out, "extract", library.extract, jsonObject::write);
+            out.endObject();
+        }
+        //endregion
+
+        //region Manifest
+        private Manifest readManifest(JsonReader in) throws IOException {
+            Manifest manifest = new Manifest();
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("versions")) {
+                    manifest.versions = readList(in, this::readManifestInfo);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return manifest;
+        }
+
+        private void writeManifest(JsonWriter out, Manifest manifest) throws IOException {
+            out.beginObject();
+            writeList(out, "versions", manifest.versions, this::writeManifestInfo);
+            out.endObject();
+        }
+
+        private Manifest.Info readManifestInfo(JsonReader in) throws IOException {
+            Manifest.Info info = new Manifest.Info();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id": info.id = readString(in); break;
+                    case "url": info.url = readString(in); break;
+                    default: in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            return info;
+        }
+
+        private void writeManifestInfo(JsonWriter out, Manifest.Info info) throws IOException {
+            out.beginObject();
+            write(out, "id", info.id);
+            write(out, "url", info.url);
+            out.endObject();
+        }
+        //endregion
+    }
+
+    private interface ValueReader<T> {
+
+        T read(JsonReader in) throws IOException;
+    }
+
+    private interface ValueWriter<T> {
+
+        void write(JsonWriter out, T value) throws IOException;
+    }
+}
@@ -21,15 +21,15 @@ package net.minecraftforge.ir.json;
 import java.util.List;
 
 public class Manifest {
-    private List<Info> versions;
+    List<Info> versions;
 
     public String getUrl(String version) {
         return versions == null ? null : versions.stream().filter(v -> version.equals(v.getId())).map(Info::getUrl).findFirst().orElse(null);
     }
 
     public static class Info {
-        private String id;
-        private String url;
+        String id;
+        String url;
 
         public String getId() {
             return id;